@@ -14,17 +14,19 @@
 
 package com.google.sps.servlets;
 
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.VideoListResponse;
-import com.google.gson.Gson;
+import com.google.sps.servlets.utils.AsyncRequestHandler;
+import com.google.sps.servlets.utils.JsonResponseWriter;
 import com.google.sps.servlets.utils.KeyRetriever;
 import com.google.sps.servlets.utils.VideoInformation;
+import com.google.sps.servlets.utils.VideoMetadataCache;
+import com.google.sps.servlets.utils.YouTubeProvider;
+import com.google.sps.servlets.utils.YouTubeQuotaLimiter;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -32,16 +34,28 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /** Servlet that fetches from Youtube Server. */
-@WebServlet("/VideoContext")
+@WebServlet(value = "/VideoContext", asyncSupported = true)
 public class ContextServlet extends HttpServlet {
-  private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
   private static final String URL_PARAMETER = "url";
-  // Parameters required by YouTube API to retrieve the comment threads
-  // TODO: encapsulate this piece into a YoutubeProvider class to avoid repeating the code
-  private static final String APPLICATION_NAME = "SAY";
-  private static final String DEVELOPER_KEY = KeyRetriever.getApiKey();
+  // Parameters required by YouTube API to retrieve the video information
   private static final String REQUEST_INFO = "snippet,statistics";
+  private static final String STATISTICS_INFO = "statistics";
+  // Only what VideoInformation reads, plus the id that matches the videos of a batch to lookups
+  private static final String VIDEO_FIELDS =
+      "items(id,snippet(title,channelTitle,publishedAt),statistics(likeCount,dislikeCount))";
+  private static final String STATISTICS_FIELDS = "items(id,statistics(likeCount,dislikeCount))";
+  // Requests are served on their own threads, so slow YouTube calls do not hold container threads
+  private static final int REQUEST_THREADS = 16;
+  private static final int MAX_QUEUED_REQUESTS = 256;
+  private static final long REQUEST_TIMEOUT_SECONDS = 20L;
+  private final AsyncRequestHandler asyncRequestHandler =
+      new AsyncRequestHandler(
+          "context-request-%d",
+          REQUEST_THREADS, MAX_QUEUED_REQUESTS, TimeUnit.SECONDS.toMillis(REQUEST_TIMEOUT_SECONDS));
+  // Pages such as search results look up several videos at once, which then share one request
+  private final VideoMetadataCache metadataCache = new VideoMetadataCache(this::fetchVideos);
   private YouTube youtubeService;
+  private String developerKey;
 
   /**
    * Constructor for mocking servlet to call the doGet.
@@ -50,7 +64,7 @@ public class ContextServlet extends HttpServlet {
    * @throws IOException
    */
   public ContextServlet() throws GeneralSecurityException, IOException {
-    youtubeService = getService();
+    useSharedClient();
   }
 
   /**
@@ -60,33 +74,45 @@ public class ContextServlet extends HttpServlet {
    */
   public ContextServlet(YouTube constructedService) {
     youtubeService = constructedService;
+    developerKey = KeyRetriever.getApiKey();
   }
 
   @Override
   public void init() throws ServletException {
     try {
-      youtubeService = getService();
+      useSharedClient();
     } catch (GeneralSecurityException | IOException e) {
       throw new ServletException(e.getMessage());
     }
   }
+
+  @Override
+  public void destroy() {
+    asyncRequestHandler.shutdown();
+    metadataCache.shutdown();
+  }
+
   /**
    * Retrieves video information from designated URL, wraps them into information object, then
-   * writes the VideoInformation object to the frontend.
+   * writes the VideoInformation object to the frontend. Video information is served from the
+   * metadata cache, which batches the lookups of concurrent requests into one YouTube request. The
+   * request is served asynchronously on a request thread, and answered with 503 if it takes longer
+   * than REQUEST_TIMEOUT_SECONDS.
    *
    * @param request request from our web server
    * @param response empty response to write json object
    */
   @Override
-  public void doGet(HttpServletRequest request, HttpServletResponse response)
+  public void doGet(HttpServletRequest request, HttpServletResponse response) {
+    asyncRequestHandler.start(request, response, this::serve);
+  }
+
+  private void serve(HttpServletRequest request, HttpServletResponse response)
       throws ServletException {
     try {
       String url = request.getParameter(URL_PARAMETER);
-      VideoListResponse videoResponse = constructAndExecuteYoutubeRequest(url);
-      VideoInformation videoInfo = new VideoInformation(videoResponse);
-      String json = new Gson().toJson(videoInfo);
-      response.setContentType("application/json");
-      response.getWriter().println(json);
+      VideoInformation videoInfo = metadataCache.get(url);
+      JsonResponseWriter.write(request, response, videoInfo);
     } catch (Exception e) {
       e.printStackTrace(System.err);
       throw new ServletException("Unable to fetch YouTube Video Information Through Servlet.", e);
@@ -96,25 +122,39 @@ public class ContextServlet extends HttpServlet {
   /**
    * Connect to Youtube Server and generate request to retrieve video information
    *
-   * @param url Youtube video id to retrieve information
+   * @param url Youtube video ids to retrieve information, separated by commas
+   * @param includeSnippet whether to retrieve the title, channel and publish date along with the
+   *     like and dislike counts
    */
-  public VideoListResponse constructAndExecuteYoutubeRequest(String url) throws IOException {
-    YouTube.Videos.List videoRequest = youtubeService.videos().list(REQUEST_INFO);
-    return videoRequest.setKey(DEVELOPER_KEY).setId(url).execute();
+  public VideoListResponse constructAndExecuteYoutubeRequest(String url, boolean includeSnippet)
+      throws IOException {
+    YouTube.Videos.List videoRequest =
+        youtubeService
+            .videos()
+            .list(includeSnippet ? REQUEST_INFO : STATISTICS_INFO)
+            .setKey(developerKey)
+            .setId(url)
+            .setFields(includeSnippet ? VIDEO_FIELDS : STATISTICS_FIELDS);
+    return YouTubeQuotaLimiter.getSharedInstance()
+        .execute(YouTubeQuotaLimiter.CallType.VIDEOS_LIST, videoRequest::execute);
   }
 
   /**
-   * Build and return an authorized API client service.
+   * Retrieve the information of several videos with one request, for the metadata cache.
    *
-   * @return an authorized API client service
-   * @throws GeneralSecurityException, IOException
+   * @param videoIds ids of the videos, at most VideoMetadataCache.MAX_BATCH_SIZE of them
+   * @param includeSnippet whether to retrieve the title, channel and publish date along with the
+   *     like and dislike counts
    */
-  private YouTube getService() throws GeneralSecurityException, IOException {
-    // TODO: Encapsulate this getService() method with comment retrieving service once refactored
-    // YoutubeServlet gets merged
-    final NetHttpTransport httpTransport = GoogleNetHttpTransport.newTrustedTransport();
-    return new YouTube.Builder(httpTransport, JSON_FACTORY, null)
-        .setApplicationName(APPLICATION_NAME)
-        .build();
+  private VideoListResponse fetchVideos(List<String> videoIds, boolean includeSnippet)
+      throws IOException {
+    return constructAndExecuteYoutubeRequest(String.join(",", videoIds), includeSnippet);
+  }
+
+  /** Use the client shared with the comment servlet, on its pooled transport. */
+  private void useSharedClient() throws GeneralSecurityException, IOException {
+    YouTubeProvider youTubeProvider = YouTubeProvider.getSharedInstance();
+    youtubeService = youTubeProvider.getYouTube();
+    developerKey = youTubeProvider.getDeveloperKey();
   }
 }
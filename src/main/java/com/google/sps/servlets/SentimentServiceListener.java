@@ -0,0 +1,34 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.servlets.utils.SentimentService;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/** Listener that closes the shared sentiment service when the application shuts down. */
+@WebListener
+public class SentimentServiceListener implements ServletContextListener {
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    // The shared service is created lazily by the first request that needs it
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    SentimentService.shutdownSharedInstance();
+  }
+}
@@ -14,12 +14,43 @@
 
 package com.google.sps.servlets;
 
-import com.google.api.services.youtube.model.CommentThread;
-import com.google.gson.Gson;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonObject;
+import com.google.sps.servlets.utils.AnalysisRequest;
+import com.google.sps.servlets.utils.AnalysisResult;
+import com.google.sps.servlets.utils.AnalysisResultCache;
+import com.google.sps.servlets.utils.AsyncRequestHandler;
+import com.google.sps.servlets.utils.BatchAnalysis;
+import com.google.sps.servlets.utils.CoalescingCommentRetriever;
 import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.CommentAnalysisPipeline;
+import com.google.sps.servlets.utils.IncrementalAnalysis;
+import com.google.sps.servlets.utils.JsonResponseWriter;
+import com.google.sps.servlets.utils.ProgressHandoff;
+import com.google.sps.servlets.utils.SentimentService;
+import com.google.sps.servlets.utils.SpaceSavingWordCounter;
 import com.google.sps.servlets.utils.Statistics;
 import com.google.sps.servlets.utils.YouTubeCommentRetriever;
+import com.google.sps.servlets.utils.YouTubeProvider;
+import com.google.sps.servlets.utils.YouTubeQuotaException;
+import com.google.sps.servlets.utils.YouTubeQuotaLimiter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -27,44 +58,476 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /** Servlet that fetches from Youtube Server. */
-@WebServlet("/YouTubeComments")
+@WebServlet(
+    value = {YoutubeServlet.RESULT_PATH, YoutubeServlet.PROGRESS_PATH, YoutubeServlet.BATCH_PATH},
+    asyncSupported = true)
 public class YoutubeServlet extends HttpServlet {
+  private static final Logger logger = Logger.getLogger(YoutubeServlet.class.getName());
+  static final String RESULT_PATH = "/YouTubeComments";
+  // Serves the same analysis as a stream of Server-Sent Events with partial Statistics
+  static final String PROGRESS_PATH = "/YouTubeCommentsStream";
+  // Analyzes several videos in one request, streaming each video's Statistics as it completes
+  static final String BATCH_PATH = "/YouTubeCommentsBatch";
+  // Minimum time between two progress events of a stream
+  private static final long PROGRESS_INTERVAL_MILLIS = 250L;
   private static final String URL_PARAMETER = "url";
+  // Comma-separated video ids of a batch
+  private static final String VIDEO_IDS_PARAMETER = "videoIds";
+  private static final int MAX_BATCH_VIDEOS = 50;
+  private static final int BATCH_CONCURRENT_VIDEOS = 4;
+  // Pays for MAX_COMMENTS comments of each of MAX_BATCH_VIDEOS videos
+  private static final long BATCH_QUOTA_UNITS = 250L;
   private static final String NUM_COMMENTS_PARAMETER = "numComments";
   private static final long DEFAULT_COMMENTS = 100L;
   private static final long MAX_COMMENTS = 500L;
-  private YouTubeCommentRetriever commentRetriever;
+  // Requests above MAX_COMMENTS are analyzed in streaming mode, whose memory use does not depend on
+  // the number of comments. The ceiling is set by what one request may spend rather than by memory:
+  // 100 commentThreads pages cost 100 quota units, well within the quota limiter's default burst
+  // and 1% of the default daily quota, and at a few hundred milliseconds per page they are fetched
+  // within ANALYSIS_TIMEOUT_SECONDS.
+  private static final long MAX_STREAMING_COMMENTS = 10_000L;
+  // Streaming mode counts words approximately unless told otherwise, monitoring 1,000 words
+  private static final double DEFAULT_STREAMING_WORD_COUNT_ERROR = 0.001;
+  private static final String WORD_MAP_SIZE_PARAMETER = "wordMapSize";
+  private static final int DEFAULT_WORD_MAP_SIZE = 10;
+  private static final int MAX_WORD_MAP_SIZE = 100;
+  // Fraction of counted words by which approximate word counts may be off; absent means exact
+  private static final String WORD_COUNT_ERROR_PARAMETER = "wordCountError";
+  // Keeps approximate counting to at most 10,000 monitored words
+  private static final double MIN_WORD_COUNT_ERROR = 0.0001;
+  // When "true", only comments posted since the video's last incremental analysis are scored
+  private static final String INCREMENTAL_PARAMETER = "incremental";
+  // When "true", replies are analyzed as well and reported in separate statistics. Each comment
+  // thread may cost extra reply requests, so fewer threads are allowed.
+  private static final String REPLIES_PARAMETER = "replies";
+  // Leaves headroom below App Engine's 60 second request limit
+  private static final long ANALYSIS_TIMEOUT_SECONDS = 50L;
+  private static final int REFRESH_THREADS = 2;
+  // Requests are served on their own threads, so slow analyses do not hold container threads
+  private static final int REQUEST_THREADS = 64;
+  private static final int MAX_QUEUED_REQUESTS = 256;
+  // Answers before App Engine's 60 second request limit cuts the request off
+  private static final long REQUEST_TIMEOUT_SECONDS = 55L;
+  private YouTubeProvider youTubeProvider;
+  // Shared so that concurrent requests for a video fetch its comments once
+  private CoalescingCommentRetriever commentRetriever;
+  // Hands each page on without keeping it, for streaming mode
+  private YouTubeCommentRetriever streamingRetriever;
+  // Requests comment threads with their inline replies, for requests that include replies
+  private YouTubeCommentRetriever replyRetriever;
+  private ExecutorService refreshExecutor;
+  // Loads the results of streams, whose request threads write the progress meanwhile. Each stream
+  // uses at most one thread, so there are at most REQUEST_THREADS of them.
+  private ExecutorService progressLoadExecutor;
+  private AnalysisResultCache resultCache;
+  // Progress of the analyses being loaded for streams, shared by the streams of the same request
+  private final ConcurrentMap<AnalysisRequest, ProgressHandoff> progressByRequest =
+      new ConcurrentHashMap<>();
+  private IncrementalAnalysis incrementalAnalysis;
+  private AsyncRequestHandler asyncRequestHandler;
+
+  @Override
+  public void init() throws ServletException {
+    try {
+      // Every retriever calls YouTube through the client shared with the context servlet
+      youTubeProvider = YouTubeProvider.getSharedInstance();
+      commentRetriever = new CoalescingCommentRetriever(youTubeProvider);
+      streamingRetriever = new YouTubeCommentRetriever(youTubeProvider);
+      replyRetriever = new YouTubeCommentRetriever(youTubeProvider);
+      // The analysis only reads each top level comment's id, text and publish date
+      commentRetriever.setLeanRetrieval(true);
+      streamingRetriever.setLeanRetrieval(true);
+      replyRetriever.setLeanRetrieval(true);
+      replyRetriever.setIncludeReplies(true);
+    } catch (Exception e) {
+      throw new ServletException("Unable to create the YouTube client.", e);
+    }
+    incrementalAnalysis = new IncrementalAnalysis(commentRetriever);
+    refreshExecutor =
+        Executors.newFixedThreadPool(
+            REFRESH_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("result-refresh-%d").setDaemon(true).build());
+    progressLoadExecutor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("progress-load-%d").setDaemon(true).build());
+    resultCache =
+        new AnalysisResultCache(
+            analysisRequest -> {
+              ProgressHandoff progress = progressByRequest.get(analysisRequest);
+              return analyze(analysisRequest, progress == null ? null : progress::publish);
+            },
+            refreshExecutor);
+    asyncRequestHandler =
+        new AsyncRequestHandler(
+            "comment-request-%d",
+            REQUEST_THREADS,
+            MAX_QUEUED_REQUESTS,
+            TimeUnit.SECONDS.toMillis(REQUEST_TIMEOUT_SECONDS));
+  }
+
+  @Override
+  public void destroy() {
+    asyncRequestHandler.shutdown();
+    refreshExecutor.shutdownNow();
+    progressLoadExecutor.shutdownNow();
+    commentRetriever.shutdown();
+  }
 
   /**
-   * Retrieves comments from designated URL, passes them off to CommentAnalysis object to be wrapped
-   * into Statistics object, then writes the Statistics object to the frontend.
+   * Serves the Statistics of the requested video from the result cache, running the analysis on a
+   * miss. Cached results are refreshed in the background once stale. The Server-Timing header holds
+   * the cache lookup time followed by the per-stage timings of the run that produced the result.
+   * Requests refused for lack of YouTube quota are answered with 503 and a Retry-After header. The
+   * request is served asynchronously on a request thread, and answered with 503 if it takes longer
+   * than REQUEST_TIMEOUT_SECONDS.
    */
   @Override
-  public void doGet(HttpServletRequest request, HttpServletResponse response)
+  public void doGet(HttpServletRequest request, HttpServletResponse response) {
+    String servletPath = request.getServletPath();
+    if (PROGRESS_PATH.equals(servletPath)) {
+      asyncRequestHandler.start(request, response, this::serveProgress);
+    } else if (BATCH_PATH.equals(servletPath)) {
+      asyncRequestHandler.start(request, response, this::serveBatch);
+    } else {
+      asyncRequestHandler.start(request, response, this::serve);
+    }
+  }
+
+  /**
+   * Serves the analysis of the requested video as Server-Sent Events. A "progress" event with the
+   * Statistics of the comments scored so far follows each scored page, at most every
+   * PROGRESS_INTERVAL_MILLIS, and a "result" event carries the final Statistics. A cached result is
+   * sent right away as the only event. Failures are sent as an "error" event with a message.
+   *
+   * <p>The analysis is loaded through the result cache on another thread, so streams and plain
+   * requests for the same analysis share one run, while this thread writes the latest progress.
+   * Once the client disconnects the stream ends, and the run stops if no other stream shows it.
+   */
+  private void serveProgress(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    PrintWriter writer = response.getWriter();
+    try {
+      AnalysisRequest analysisRequest = parseAnalysisRequest(request);
+      AnalysisResult result = resultCache.getIfPresent(analysisRequest);
+      if (result == null) {
+        // Sends the headers, so the client knows the analysis started
+        response.flushBuffer();
+        result = loadWithProgress(analysisRequest, writer);
+        if (result == null) {
+          return;
+        }
+      }
+      sendEvent(writer, "result", result.getJson());
+    } catch (Exception e) {
+      e.printStackTrace(System.err);
+      JsonObject error = new JsonObject();
+      error.addProperty("message", "Unable to fetch YouTube Comments Through Servlet.");
+      sendEvent(writer, "error", JsonResponseWriter.GSON.toJson(error));
+    }
+  }
+
+  /**
+   * Load the result of an analysis through the result cache, sending its progress while it runs.
+   *
+   * @return the result, or null if the client disconnected
+   */
+  private AnalysisResult loadWithProgress(AnalysisRequest analysisRequest, PrintWriter writer)
+      throws Exception {
+    // Subscribes before loading, so that a run started by this load reports its progress
+    ProgressHandoff progress =
+        progressByRequest.compute(
+            analysisRequest,
+            (request, current) -> {
+              ProgressHandoff subscribed = current == null ? new ProgressHandoff() : current;
+              subscribed.subscribe();
+              return subscribed;
+            });
+    Future<AnalysisResult> load = null;
+    try {
+      load = progressLoadExecutor.submit(() -> resultCache.get(analysisRequest));
+      Statistics lastSent = null;
+      while (true) {
+        try {
+          return load.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          // Still running
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        Statistics latest = progress.getLatest();
+        if (latest != null && latest != lastSent) {
+          lastSent = latest;
+          if (!sendEvent(writer, "progress", JsonResponseWriter.GSON.toJson(latest))) {
+            return null;
+          }
+        } else if (writer.checkError()) {
+          return null;
+        }
+      }
+    } finally {
+      // Removes the progress once its last stream is gone, which stops a run still reporting to it
+      progressByRequest.computeIfPresent(
+          analysisRequest, (request, subscribed) -> subscribed.unsubscribe() ? subscribed : null);
+      if (load != null) {
+        // Not interrupted, since other requests may wait on the same load
+        load.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Serves the analysis of up to MAX_BATCH_VIDEOS videos as Server-Sent Events. The videos share
+   * BATCH_CONCURRENT_VIDEOS analysis threads, one sentiment analysis and BATCH_QUOTA_UNITS of
+   * YouTube quota, so each video gets fewer comments as the batch grows. A "video" event carries a
+   * video's id and Statistics as soon as its analysis completes, and a "videoError" event its id
+   * and a message if it fails. A final "aggregate" event carries the Statistics of the comments of
+   * all analyzed videos, along with the number of videos and failures and the quota spent.
+   */
+  private void serveBatch(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    PrintWriter writer = response.getWriter();
+    try {
+      List<String> videoIds = parseVideoIds(request);
+      AnalysisRequest analysisRequest = parseAnalysisRequest(request);
+      CommentAnalysis commentAnalysis = new CommentAnalysis(SentimentService.getSharedInstance());
+      commentAnalysis.setRequestTimeout(ANALYSIS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      // The batch charges its own requests to its budget, so it does not read pages coalesced with
+      // other requests; its videos are distinct, so it would not coalesce with itself either
+      YouTubeCommentRetriever batchRetriever = new YouTubeCommentRetriever(youTubeProvider);
+      batchRetriever.setLeanRetrieval(true);
+      BatchAnalysis batchAnalysis =
+          new BatchAnalysis(
+              batchRetriever, commentAnalysis, BATCH_CONCURRENT_VIDEOS, BATCH_QUOTA_UNITS);
+      if (analysisRequest.getWordCountError() != null) {
+        batchAnalysis.setWordCounterSupplier(
+            () -> SpaceSavingWordCounter.withErrorRate(analysisRequest.getWordCountError()));
+      }
+      response.flushBuffer();
+      Statistics aggregate =
+          batchAnalysis.run(
+              videoIds,
+              Math.min(analysisRequest.getNumComments(), MAX_COMMENTS),
+              CommentAnalysis.DEFAULT_TOP_N,
+              analysisRequest.getWordMapSize(),
+              new BatchAnalysis.VideoListener() {
+                @Override
+                public void onVideoAnalyzed(String videoId, Statistics statistics) {
+                  JsonObject video = new JsonObject();
+                  video.addProperty("videoId", videoId);
+                  video.add("statistics", JsonResponseWriter.GSON.toJsonTree(statistics));
+                  sendEvent(writer, "video", JsonResponseWriter.GSON.toJson(video));
+                }
+
+                @Override
+                public void onVideoFailed(String videoId, Exception failure) {
+                  failure.printStackTrace(System.err);
+                  JsonObject error = new JsonObject();
+                  error.addProperty("videoId", videoId);
+                  error.addProperty("message", "Unable to analyze the comments of the video.");
+                  sendEvent(writer, "videoError", JsonResponseWriter.GSON.toJson(error));
+                }
+              });
+      JsonObject result = new JsonObject();
+      result.addProperty("numVideos", videoIds.size());
+      result.addProperty("numFailedVideos", batchAnalysis.getNumFailedVideos());
+      result.addProperty("quotaUnits", batchAnalysis.getQuotaUnits());
+      result.add("statistics", JsonResponseWriter.GSON.toJsonTree(aggregate));
+      sendEvent(writer, "aggregate", JsonResponseWriter.GSON.toJson(result));
+    } catch (Exception e) {
+      e.printStackTrace(System.err);
+      JsonObject error = new JsonObject();
+      error.addProperty("message", "Unable to analyze the batch of videos.");
+      sendEvent(writer, "error", JsonResponseWriter.GSON.toJson(error));
+    }
+  }
+
+  /**
+   * @return distinct video ids of a batch in request order, at most MAX_BATCH_VIDEOS of them
+   */
+  private static List<String> parseVideoIds(HttpServletRequest request) {
+    String videoIdsInput = request.getParameter(VIDEO_IDS_PARAMETER);
+    if (videoIdsInput == null) {
+      throw new IllegalArgumentException("No video ids given.");
+    }
+    return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(videoIdsInput).stream()
+        .distinct()
+        .limit(MAX_BATCH_VIDEOS)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Write one Server-Sent Event and flush it to the client.
+   *
+   * @return false if the client disconnected, since the writer does not throw
+   */
+  private static boolean sendEvent(PrintWriter writer, String event, String json) {
+    // Serialized JSON has no line breaks, so it fits in one data line
+    writer.print("event: " + event + "\ndata: " + json + "\n\n");
+    // Flushes as well
+    return !writer.checkError();
+  }
+
+  private void serve(HttpServletRequest request, HttpServletResponse response)
       throws ServletException {
     try {
-      String url = request.getParameter(URL_PARAMETER);
-      String numCommentsInput = request.getParameter(NUM_COMMENTS_PARAMETER);
-      // If nothing is inputted, length of list is default, otherwise it's what was inputted.
-      // If input exceeds MAX_COMMENTS, change it to MAX_COMMENTS
-      long numComments =
-          (numCommentsInput != null)
-              ? Math.min(Long.valueOf(numCommentsInput), MAX_COMMENTS)
-              : DEFAULT_COMMENTS;
-
-      List<CommentThread> commentThreads =
-          new YouTubeCommentRetriever().retrieveComments(url, numComments);
-
-      CommentAnalysis commentAnalysis = new CommentAnalysis();
-      Statistics statistics = commentAnalysis.computeOverallStats(commentThreads);
-      commentAnalysis.closeLanguage();
-
-      String json = new Gson().toJson(statistics);
-      response.setContentType("application/json");
-      response.getWriter().println(json);
+      long startNanos = System.nanoTime();
+      AnalysisResult result = resultCache.get(parseAnalysisRequest(request));
+      long lookupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+      response.setHeader(
+          "Server-Timing",
+          String.format("cache;dur=%d, %s", lookupMillis, result.getServerTiming()));
+      JsonResponseWriter.write(request, response, result);
     } catch (Exception e) {
       e.printStackTrace(System.err);
+      // Out of quota is temporary, so tell the client when to come back instead of failing
+      YouTubeQuotaException quotaException = findQuotaException(e);
+      if (quotaException != null) {
+        logQuotaMetrics(Level.WARNING);
+        response.setHeader(
+            "Retry-After",
+            String.valueOf(
+                TimeUnit.MILLISECONDS.toSeconds(quotaException.getRetryAfterMillis()) + 1));
+        try {
+          response.sendError(
+              HttpServletResponse.SC_SERVICE_UNAVAILABLE, quotaException.getMessage());
+          return;
+        } catch (IOException sendError) {
+          throw new ServletException("Unable to report the exceeded YouTube quota.", sendError);
+        }
+      }
       throw new ServletException("Unable to fetch YouTube Comments Through Servlet.", e);
     }
   }
+
+  /**
+   * Log the application-wide usage of the YouTube quota. It is kept out of responses, since it
+   * covers every client's requests.
+   */
+  private static void logQuotaMetrics(Level level) {
+    YouTubeQuotaLimiter quotaLimiter = YouTubeQuotaLimiter.getSharedInstance();
+    logger.log(
+        level,
+        String.format(
+            "YouTube quota: %d units consumed, %d available, %d retries, %d refused calls%s",
+            quotaLimiter.getUnitsConsumed(),
+            quotaLimiter.getAvailableUnits(),
+            quotaLimiter.getRetryCount(),
+            quotaLimiter.getRefusedCount(),
+            quotaLimiter.isCircuitOpen() ? ", circuit open" : ""));
+  }
+
+  private static YouTubeQuotaException findQuotaException(Throwable e) {
+    for (Throwable cause : Throwables.getCausalChain(e)) {
+      if (cause instanceof YouTubeQuotaException) {
+        return (YouTubeQuotaException) cause;
+      }
+    }
+    return null;
+  }
+
+  private AnalysisRequest parseAnalysisRequest(HttpServletRequest request) {
+    String url = request.getParameter(URL_PARAMETER);
+    String numCommentsInput = request.getParameter(NUM_COMMENTS_PARAMETER);
+    // If nothing is inputted, length of list is default, otherwise it's what was inputted.
+    // If input exceeds MAX_STREAMING_COMMENTS, change it to MAX_STREAMING_COMMENTS
+    long numComments =
+        (numCommentsInput != null)
+            ? Math.min(Long.valueOf(numCommentsInput), MAX_STREAMING_COMMENTS)
+            : DEFAULT_COMMENTS;
+    String wordMapSizeInput = request.getParameter(WORD_MAP_SIZE_PARAMETER);
+    int wordMapSize =
+        (wordMapSizeInput != null)
+            ? Math.min(Integer.valueOf(wordMapSizeInput), MAX_WORD_MAP_SIZE)
+            : DEFAULT_WORD_MAP_SIZE;
+    String wordCountErrorInput = request.getParameter(WORD_COUNT_ERROR_PARAMETER);
+    Double wordCountError =
+        (wordCountErrorInput != null)
+            ? Math.min(Math.max(Double.parseDouble(wordCountErrorInput), MIN_WORD_COUNT_ERROR), 1)
+            : null;
+    boolean incremental = Boolean.parseBoolean(request.getParameter(INCREMENTAL_PARAMETER));
+    // Incremental analysis only covers top level comments
+    boolean includeReplies =
+        !incremental && Boolean.parseBoolean(request.getParameter(REPLIES_PARAMETER));
+    if (includeReplies) {
+      numComments = Math.min(numComments, MAX_COMMENTS);
+    }
+    return new AnalysisRequest(
+        url, numComments, wordMapSize, wordCountError, incremental, includeReplies);
+  }
+
+  /**
+   * Retrieves comments of the requested video, passes them off to CommentAnalysis object page by
+   * page to be wrapped into Statistics object, and serializes it along with the pipeline's
+   * per-stage timings and quota cost.
+   *
+   * @param analysisRequest parameters of the analysis
+   * @param progressListener receives partial Statistics as pages are scored, or null; not called in
+   *     incremental mode
+   */
+  private AnalysisResult analyze(
+      AnalysisRequest analysisRequest, Consumer<Statistics> progressListener) throws Exception {
+    // The shared service keeps its client and cache open across requests
+    CommentAnalysis commentAnalysis = new CommentAnalysis(SentimentService.getSharedInstance());
+    commentAnalysis.setRequestTimeout(ANALYSIS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    if (analysisRequest.isIncremental()) {
+      long startNanos = System.nanoTime();
+      Statistics statistics =
+          incrementalAnalysis.run(
+              commentAnalysis,
+              analysisRequest.getVideoId(),
+              // New comments are collected before scoring, so they are not streamed
+              Math.min(analysisRequest.getNumComments(), MAX_COMMENTS),
+              analysisRequest.getWordMapSize());
+      return new AnalysisResult(
+          JsonResponseWriter.GSON.toJson(statistics),
+          String.format(
+              "incremental;dur=%d", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+    }
+    // Coalescing keeps a video's pages until its fetch completes, so large requests bypass it and
+    // count words in a fixed-size sketch
+    boolean streaming = analysisRequest.getNumComments() > MAX_COMMENTS;
+    YouTubeCommentRetriever retriever =
+        analysisRequest.includesReplies()
+            ? replyRetriever
+            : (streaming ? streamingRetriever : commentRetriever);
+    CommentAnalysisPipeline pipeline = new CommentAnalysisPipeline(retriever, commentAnalysis);
+    Double wordCountError =
+        (analysisRequest.getWordCountError() == null && streaming)
+            ? DEFAULT_STREAMING_WORD_COUNT_ERROR
+            : analysisRequest.getWordCountError();
+    if (progressListener != null) {
+      pipeline.setProgressListener(progressListener, PROGRESS_INTERVAL_MILLIS);
+    }
+    if (wordCountError != null) {
+      pipeline.setWordCounterSupplier(() -> SpaceSavingWordCounter.withErrorRate(wordCountError));
+    }
+    Statistics statistics =
+        pipeline.run(
+            analysisRequest.getVideoId(),
+            analysisRequest.getNumComments(),
+            CommentAnalysis.DEFAULT_TOP_N,
+            analysisRequest.getWordMapSize());
+
+    String json = JsonResponseWriter.GSON.toJson(statistics);
+    String serverTiming =
+        String.format(
+            "retrieval;dur=%d, analysis;dur=%d, total;dur=%d, quota;desc=%d",
+            pipeline.getRetrievalMillis(),
+            pipeline.getAnalysisMillis(),
+            pipeline.getTotalMillis(),
+            pipeline.getQuotaUnits());
+    if (analysisRequest.includesReplies()) {
+      serverTiming += String.format(", replies;dur=%d", pipeline.getReplyRetrievalMillis());
+    }
+    // Once per run rather than per request, since cached results spend no quota
+    logQuotaMetrics(Level.INFO);
+    return new AnalysisResult(json, serverTiming);
+  }
 }
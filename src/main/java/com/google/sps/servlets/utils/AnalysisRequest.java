@@ -0,0 +1,136 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.Objects;
+
+/** Parameters of one comment analysis; requests with equal parameters produce equal results. */
+public final class AnalysisRequest {
+  private final String videoId;
+  private final long numComments;
+  private final int wordMapSize;
+  // Null when words are counted exactly
+  private final Double wordCountError;
+  // Whether to extend the video's snapshot with new comments instead of analyzing from scratch
+  private final boolean incremental;
+  // Whether replies are retrieved and analyzed along with the top level comments
+  private final boolean includeReplies;
+
+  /**
+   * @param videoId video id of the video to have its comments analyzed
+   * @param numComments maximum number of comments to retrieve
+   * @param wordMapSize number of most frequent words to display
+   * @param wordCountError error rate of approximate word counting, or null to count exactly
+   */
+  public AnalysisRequest(String videoId, long numComments, int wordMapSize, Double wordCountError) {
+    this(videoId, numComments, wordMapSize, wordCountError, false);
+  }
+
+  /**
+   * @param videoId video id of the video to have its comments analyzed
+   * @param numComments maximum number of comments to retrieve; in incremental mode, maximum number
+   *     of new comments
+   * @param wordMapSize number of most frequent words to display
+   * @param wordCountError error rate of approximate word counting, or null to count exactly
+   * @param incremental whether to only analyze comments posted since the last incremental analysis
+   */
+  public AnalysisRequest(
+      String videoId,
+      long numComments,
+      int wordMapSize,
+      Double wordCountError,
+      boolean incremental) {
+    this(videoId, numComments, wordMapSize, wordCountError, incremental, false);
+  }
+
+  /**
+   * @param videoId video id of the video to have its comments analyzed
+   * @param numComments maximum number of comments to retrieve; in incremental mode, maximum number
+   *     of new comments
+   * @param wordMapSize number of most frequent words to display
+   * @param wordCountError error rate of approximate word counting, or null to count exactly
+   * @param incremental whether to only analyze comments posted since the last incremental analysis
+   * @param includeReplies whether to also analyze the replies to the retrieved comments
+   */
+  public AnalysisRequest(
+      String videoId,
+      long numComments,
+      int wordMapSize,
+      Double wordCountError,
+      boolean incremental,
+      boolean includeReplies) {
+    this.videoId = videoId;
+    this.numComments = numComments;
+    this.wordMapSize = wordMapSize;
+    this.wordCountError = wordCountError;
+    this.incremental = incremental;
+    this.includeReplies = includeReplies;
+  }
+
+  public String getVideoId() {
+    return videoId;
+  }
+
+  public long getNumComments() {
+    return numComments;
+  }
+
+  public int getWordMapSize() {
+    return wordMapSize;
+  }
+
+  public Double getWordCountError() {
+    return wordCountError;
+  }
+
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  public boolean includesReplies() {
+    return includeReplies;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof AnalysisRequest)) {
+      return false;
+    }
+    AnalysisRequest that = (AnalysisRequest) other;
+    return numComments == that.numComments
+        && wordMapSize == that.wordMapSize
+        && incremental == that.incremental
+        && includeReplies == that.includeReplies
+        && Objects.equals(videoId, that.videoId)
+        && Objects.equals(wordCountError, that.wordCountError);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(
+        videoId, numComments, wordMapSize, wordCountError, incremental, includeReplies);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "AnalysisRequest{videoId=%s, numComments=%d, wordMapSize=%d, wordCountError=%s,"
+            + " incremental=%b, includeReplies=%b}",
+        videoId, numComments, wordMapSize, wordCountError, incremental, includeReplies);
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialized Statistics of an analysis along with the timings of the run that produced it. The
+ * gzipped body and the entity tag are computed once here, so serving a cached result neither
+ * serializes nor compresses it again.
+ */
+public final class AnalysisResult {
+  private final String json;
+  private final String serverTiming;
+  private final byte[] gzippedJson;
+  // Weak, since it identifies both the gzipped and the identity encoding of the body
+  private final String entityTag;
+
+  /**
+   * @param json Statistics serialized as JSON
+   * @param serverTiming Server-Timing header value describing the run
+   */
+  public AnalysisResult(String json, String serverTiming) {
+    this.json = json;
+    this.serverTiming = serverTiming;
+    byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    this.gzippedJson = gzip(jsonBytes);
+    this.entityTag = "W/\"" + Hashing.murmur3_128().hashBytes(jsonBytes) + "\"";
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+    try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+      gzipStream.write(bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  public String getJson() {
+    return json;
+  }
+
+  public String getServerTiming() {
+    return serverTiming;
+  }
+
+  /**
+   * @return the JSON encoded in UTF-8 and gzipped; callers must not modify it
+   */
+  public byte[] getGzippedJson() {
+    return gzippedJson;
+  }
+
+  public String getEntityTag() {
+    return entityTag;
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of analysis results bounded by their approximate size in bytes. An entry older than
+ * refreshAfter is still served while a reload runs on refreshExecutor, so hot videos never wait on
+ * a fresh analysis; an entry older than expireAfter is dropped and the next request waits for it.
+ */
+public class AnalysisResultCache {
+  private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  private static final long DEFAULT_REFRESH_AFTER_MINUTES = 1L;
+  private static final long DEFAULT_EXPIRE_AFTER_MINUTES = 10L;
+  // Rough per-entry cost of the key, the entry and the result object
+  private static final int ENTRY_OVERHEAD_BYTES = 200;
+
+  /** Computes the result of an analysis that is not cached or needs a refresh. */
+  public interface Loader {
+    AnalysisResult load(AnalysisRequest request) throws Exception;
+  }
+
+  private final LoadingCache<AnalysisRequest, AnalysisResult> resultByRequest;
+
+  /**
+   * Constructor for a cache with default size and freshness bounds.
+   *
+   * @param loader computes results on misses and refreshes
+   * @param refreshExecutor runs background refreshes of stale entries
+   */
+  public AnalysisResultCache(Loader loader, Executor refreshExecutor) {
+    this(
+        loader,
+        refreshExecutor,
+        DEFAULT_MAX_BYTES,
+        TimeUnit.MINUTES.toNanos(DEFAULT_REFRESH_AFTER_MINUTES),
+        TimeUnit.MINUTES.toNanos(DEFAULT_EXPIRE_AFTER_MINUTES),
+        TimeUnit.NANOSECONDS,
+        Ticker.systemTicker());
+  }
+
+  /**
+   * Constructor for a cache with configured bounds.
+   *
+   * @param loader computes results on misses and refreshes
+   * @param refreshExecutor runs background refreshes of stale entries
+   * @param maxBytes approximate maximum memory used by cached results
+   * @param refreshAfter age after which an entry is served stale and reloaded in the background
+   * @param expireAfter age after which an entry is no longer served
+   * @param timeUnit unit of refreshAfter and expireAfter
+   * @param ticker time source, replaceable in tests
+   */
+  public AnalysisResultCache(
+      Loader loader,
+      Executor refreshExecutor,
+      long maxBytes,
+      long refreshAfter,
+      long expireAfter,
+      TimeUnit timeUnit,
+      Ticker ticker) {
+    CacheLoader<AnalysisRequest, AnalysisResult> cacheLoader =
+        new CacheLoader<AnalysisRequest, AnalysisResult>() {
+          @Override
+          public AnalysisResult load(AnalysisRequest request) throws Exception {
+            return loader.load(request);
+          }
+        };
+    resultByRequest =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher(
+                (AnalysisRequest request, AnalysisResult result) ->
+                    ENTRY_OVERHEAD_BYTES
+                        + 2 * (result.getJson().length() + result.getServerTiming().length())
+                        + result.getGzippedJson().length)
+            .refreshAfterWrite(refreshAfter, timeUnit)
+            .expireAfterWrite(expireAfter, timeUnit)
+            .ticker(ticker)
+            .recordStats()
+            .build(CacheLoader.asyncReloading(cacheLoader, refreshExecutor));
+  }
+
+  /**
+   * Look up the result of an analysis, computing it in the calling thread on a miss. Concurrent
+   * misses for the same request wait for a single computation.
+   *
+   * @param request parameters of the analysis
+   * @return the cached or newly computed result
+   */
+  public AnalysisResult get(AnalysisRequest request) throws Exception {
+    try {
+      return resultByRequest.get(request);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+  }
+
+  /**
+   * Look up the result of an analysis without computing it.
+   *
+   * @param request parameters of the analysis
+   * @return the cached result, or null on a miss
+   */
+  public AnalysisResult getIfPresent(AnalysisRequest request) {
+    return resultByRequest.getIfPresent(request);
+  }
+
+  public long getHitCount() {
+    return resultByRequest.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return resultByRequest.stats().missCount();
+  }
+
+  /**
+   * @return fraction of lookups served from the cache, or 1 if there were no lookups
+   */
+  public double getHitRate() {
+    return resultByRequest.stats().hitRate();
+  }
+
+  /**
+   * @return number of entries dropped for size or expiry
+   */
+  public long getEvictionCount() {
+    return resultByRequest.stats().evictionCount();
+  }
+
+  /**
+   * @return number of loads and background refreshes that completed
+   */
+  public long getLoadCount() {
+    return resultByRequest.stats().loadCount();
+  }
+}
@@ -0,0 +1,418 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Runs servlet requests in asynchronous mode on a dedicated executor. The container thread is
+ * released as soon as the request is handed off, so slow outbound calls hold a worker thread
+ * instead of one of the container's request threads. A request that outlives its timeout is
+ * answered with 503, unless its response is already committed, and its worker is interrupted.
+ *
+ * <p>The worker writes through a guarded response: every write, flush and header change takes the
+ * guard's lock and fails once the request is finished. The timeout finishes the request under the
+ * same lock, so it never interleaves with a write in progress, and a worker that keeps running
+ * after the timeout cannot touch a response the container may have recycled.
+ */
+public class AsyncRequestHandler {
+  private static final long KEEP_ALIVE_SECONDS = 60L;
+
+  /** Serves one request; any exception is logged and answered with 500. */
+  public interface RequestHandler {
+    void handle(HttpServletRequest request, HttpServletResponse response) throws Exception;
+  }
+
+  private final ThreadPoolExecutor requestExecutor;
+  private final long timeoutMillis;
+
+  /**
+   * @param threadNameFormat name format of the worker threads, such as "requests-%d"
+   * @param maxThreads number of requests served at the same time
+   * @param maxQueuedRequests number of requests that may wait for a worker before being refused
+   * @param timeoutMillis time a request may take before it is answered with 503
+   */
+  public AsyncRequestHandler(
+      String threadNameFormat, int maxThreads, int maxQueuedRequests, long timeoutMillis) {
+    this.requestExecutor =
+        new ThreadPoolExecutor(
+            maxThreads,
+            maxThreads,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(maxQueuedRequests),
+            new ThreadFactoryBuilder().setNameFormat(threadNameFormat).setDaemon(true).build());
+    // Idle workers are released, so a quiet instance holds no threads
+    requestExecutor.allowCoreThreadTimeOut(true);
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Put the request in asynchronous mode and serve it on a worker thread. Returns without waiting
+   * for the request to be served.
+   *
+   * @param request request being served by the calling container thread
+   * @param response response of the request
+   * @param requestHandler serves the request on a worker thread
+   */
+  public void start(
+      HttpServletRequest request, HttpServletResponse response, RequestHandler requestHandler) {
+    AsyncContext asyncContext = request.startAsync(request, response);
+    asyncContext.setTimeout(timeoutMillis);
+    // Finished by whichever of the worker and the timeout gets to the response first
+    GuardedResponse guardedResponse = new GuardedResponse(response);
+    AtomicReference<Future<?>> work = new AtomicReference<>();
+    asyncContext.addListener(
+        new AsyncListener() {
+          @Override
+          public void onTimeout(AsyncEvent event) {
+            // Waits for a write in progress; later writes of the worker are refused
+            if (!guardedResponse.finish()) {
+              return;
+            }
+            try {
+              synchronized (guardedResponse.lock) {
+                Future<?> timedOutWork = work.get();
+                if (timedOutWork != null) {
+                  timedOutWork.cancel(true);
+                }
+                sendError(
+                    response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Request timed out.");
+              }
+            } finally {
+              asyncContext.complete();
+            }
+          }
+
+          @Override
+          public void onComplete(AsyncEvent event) {}
+
+          @Override
+          public void onError(AsyncEvent event) {}
+
+          @Override
+          public void onStartAsync(AsyncEvent event) {}
+        });
+    try {
+      work.set(
+          requestExecutor.submit(
+              () -> {
+                boolean failed = false;
+                try {
+                  requestHandler.handle(request, guardedResponse);
+                } catch (Exception e) {
+                  e.printStackTrace(System.err);
+                  failed = true;
+                } finally {
+                  // Claimed before the error is sent, so the timeout cannot answer it as well
+                  if (guardedResponse.finish()) {
+                    try {
+                      if (failed) {
+                        sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, null);
+                      }
+                    } finally {
+                      asyncContext.complete();
+                    }
+                  }
+                }
+              }));
+    } catch (RejectedExecutionException e) {
+      if (guardedResponse.finish()) {
+        try {
+          sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+        } finally {
+          asyncContext.complete();
+        }
+      }
+    }
+  }
+
+  /** Send an error status unless the response is already committed, as streamed responses are. */
+  private static void sendError(HttpServletResponse response, int status, String message) {
+    if (response.isCommitted()) {
+      return;
+    }
+    try {
+      if (message == null) {
+        response.sendError(status);
+      } else {
+        response.sendError(status, message);
+      }
+    } catch (IOException | IllegalStateException e) {
+      // The response was committed meanwhile or the client went away
+      e.printStackTrace(System.err);
+    }
+  }
+
+  /**
+   * Response handed to the worker. Writes and header changes are made under lock and refused once
+   * the request is finished: header changes are dropped and writes throw IOException, which a
+   * PrintWriter reports through checkError.
+   */
+  private static class GuardedResponse extends HttpServletResponseWrapper {
+    private final Object lock = new Object();
+    private boolean finished = false;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    private GuardedResponse(HttpServletResponse response) {
+      super(response);
+    }
+
+    /**
+     * @return true if this call finished the request, false if it was already finished
+     */
+    private boolean finish() {
+      synchronized (lock) {
+        if (finished) {
+          return false;
+        }
+        finished = true;
+        return true;
+      }
+    }
+
+    private void checkOpen() throws IOException {
+      if (finished) {
+        throw new IOException("Request is already finished.");
+      }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      synchronized (lock) {
+        checkOpen();
+        if (outputStream == null) {
+          outputStream = new GuardedOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+      }
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      synchronized (lock) {
+        checkOpen();
+        if (writer == null) {
+          writer = new PrintWriter(new GuardedWriter(super.getWriter()));
+        }
+        return writer;
+      }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      synchronized (lock) {
+        checkOpen();
+        super.flushBuffer();
+      }
+    }
+
+    @Override
+    public void sendError(int status) throws IOException {
+      synchronized (lock) {
+        checkOpen();
+        super.sendError(status);
+      }
+    }
+
+    @Override
+    public void sendError(int status, String message) throws IOException {
+      synchronized (lock) {
+        checkOpen();
+        super.sendError(status, message);
+      }
+    }
+
+    @Override
+    public void setStatus(int status) {
+      synchronized (lock) {
+        if (!finished) {
+          super.setStatus(status);
+        }
+      }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      synchronized (lock) {
+        if (!finished) {
+          super.setHeader(name, value);
+        }
+      }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      synchronized (lock) {
+        if (!finished) {
+          super.addHeader(name, value);
+        }
+      }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+      synchronized (lock) {
+        if (!finished) {
+          super.setIntHeader(name, value);
+        }
+      }
+    }
+
+    @Override
+    public void setContentType(String type) {
+      synchronized (lock) {
+        if (!finished) {
+          super.setContentType(type);
+        }
+      }
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+      synchronized (lock) {
+        if (!finished) {
+          super.setCharacterEncoding(charset);
+        }
+      }
+    }
+
+    @Override
+    public void setContentLength(int length) {
+      synchronized (lock) {
+        if (!finished) {
+          super.setContentLength(length);
+        }
+      }
+    }
+
+    /** Output stream of the response that is written to under the guard's lock. */
+    private class GuardedOutputStream extends ServletOutputStream {
+      private final ServletOutputStream delegate;
+
+      private GuardedOutputStream(ServletOutputStream delegate) {
+        this.delegate = delegate;
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+        synchronized (lock) {
+          checkOpen();
+          delegate.write(b);
+        }
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        synchronized (lock) {
+          checkOpen();
+          delegate.write(bytes, offset, length);
+        }
+      }
+
+      @Override
+      public void flush() throws IOException {
+        synchronized (lock) {
+          checkOpen();
+          delegate.flush();
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        synchronized (lock) {
+          checkOpen();
+          delegate.close();
+        }
+      }
+
+      @Override
+      public boolean isReady() {
+        return delegate.isReady();
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        delegate.setWriteListener(writeListener);
+      }
+    }
+
+    /**
+     * Writer of the response that is written to under the guard's lock. The container's writer
+     * swallows I/O errors, so they are rethrown when a flush finds it has run into one.
+     */
+    private class GuardedWriter extends Writer {
+      private final PrintWriter delegate;
+
+      private GuardedWriter(PrintWriter delegate) {
+        this.delegate = delegate;
+      }
+
+      @Override
+      public void write(char[] chars, int offset, int length) throws IOException {
+        synchronized (lock) {
+          checkOpen();
+          delegate.write(chars, offset, length);
+        }
+      }
+
+      @Override
+      public void flush() throws IOException {
+        synchronized (lock) {
+          checkOpen();
+          delegate.flush();
+          checkDelegate();
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        synchronized (lock) {
+          checkOpen();
+          delegate.close();
+        }
+      }
+
+      private void checkDelegate() throws IOException {
+        if (delegate.checkError()) {
+          throw new IOException("Unable to write the response; the client may have gone away.");
+        }
+      }
+    }
+  }
+
+  /** Stop accepting requests and interrupt the ones being served. */
+  public void shutdown() {
+    requestExecutor.shutdownNow();
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Analyzes the comments of several videos as one job. Videos are analyzed on a bounded number of
+ * threads, all scoring through the same CommentAnalysis, so their sentiment calls share its fan-out
+ * limit and deadline. The YouTube quota of the job is split evenly among its videos before any is
+ * fetched, which caps the comments retrieved per video, and every request the retriever sends is
+ * charged to the job's QuotaBudget, which refuses requests beyond it. Each video's Statistics is
+ * handed to a listener as soon as its analysis completes, and the videos' aggregates are merged
+ * into Statistics across all of them.
+ */
+public class BatchAnalysis {
+  // Comment threads per page, each page costing one quota unit
+  private static final long COMMENTS_PER_PAGE = 100L;
+
+  private final YouTubeCommentRetriever commentRetriever;
+  private final CommentAnalysis commentAnalysis;
+  private final int maxConcurrentVideos;
+  private final long quotaBudget;
+  private Supplier<WordCounter> wordCounterSupplier = ExactWordCounter::new;
+
+  // Metrics of the most recent run
+  private QuotaBudget budget;
+  private long numFailedVideos;
+  private long totalNanos;
+
+  /** Receives the outcome of each video of a batch, one video at a time. */
+  public interface VideoListener {
+    /**
+     * @param videoId video whose analysis completed
+     * @param statistics Statistics of the video's comments
+     */
+    void onVideoAnalyzed(String videoId, Statistics statistics);
+
+    /**
+     * @param videoId video whose analysis failed, such as one with comments disabled
+     * @param failure cause of the failure
+     */
+    void onVideoFailed(String videoId, Exception failure);
+  }
+
+  /**
+   * @param commentRetriever retriever used to fetch the comments of every video; its quota budget
+   *     is set by each run, so it must not be shared with other jobs
+   * @param commentAnalysis analysis that scores the comments of every video
+   * @param maxConcurrentVideos number of videos analyzed at once
+   * @param quotaBudget YouTube API quota units the whole batch may spend
+   */
+  public BatchAnalysis(
+      YouTubeCommentRetriever commentRetriever,
+      CommentAnalysis commentAnalysis,
+      int maxConcurrentVideos,
+      long quotaBudget) {
+    if (maxConcurrentVideos < 1 || quotaBudget < 1) {
+      throw new IllegalArgumentException("A batch needs at least one thread and one quota unit.");
+    }
+    this.commentRetriever = commentRetriever;
+    this.commentAnalysis = commentAnalysis;
+    this.maxConcurrentVideos = maxConcurrentVideos;
+    this.quotaBudget = quotaBudget;
+  }
+
+  /**
+   * Set how word frequencies are counted in each video and in the aggregate.
+   *
+   * @param wordCounterSupplier supplies an empty counter for each video and for the aggregate
+   */
+  public void setWordCounterSupplier(Supplier<WordCounter> wordCounterSupplier) {
+    this.wordCounterSupplier = wordCounterSupplier;
+  }
+
+  /**
+   * @param numVideos number of videos in the batch
+   * @param numComments requested maximum number of comments per video
+   * @return number of comments retrieved per video, at most numComments and at most as many as the
+   *     video's share of the quota budget pays for
+   */
+  public long getCommentsPerVideo(int numVideos, long numComments) {
+    long pagesPerVideo = Math.max(1, quotaBudget / Math.max(1, numVideos));
+    return Math.min(numComments, pagesPerVideo * COMMENTS_PER_PAGE);
+  }
+
+  /**
+   * Analyze the comments of every video. A failed video is reported to the listener and left out of
+   * the aggregate, without stopping the others.
+   *
+   * @param videoIds ids of the videos to analyze
+   * @param numComments maximum number of comments to retrieve per video, lowered to fit the quota
+   *     budget
+   * @param numTopComments number of top comments to display for each interval
+   * @param wordMapSize number of most frequent words to display
+   * @param listener receives each video's outcome as soon as it is known
+   * @return Statistics of the comments of all videos that were analyzed
+   */
+  public Statistics run(
+      List<String> videoIds,
+      long numComments,
+      int numTopComments,
+      int wordMapSize,
+      VideoListener listener)
+      throws InterruptedException {
+    long startNanos = System.nanoTime();
+    budget = new QuotaBudget(quotaBudget);
+    commentRetriever.setQuotaBudget(budget);
+    numFailedVideos = 0;
+    long commentsPerVideo = getCommentsPerVideo(videoIds.size(), numComments);
+    StatisticsAccumulator aggregate =
+        new StatisticsAccumulator(
+            numTopComments, wordCounterSupplier.get(), commentRetriever.returnsPlainText());
+    // Guards the aggregate and the listener, so videos completing together are reported in turn
+    Object resultLock = new Object();
+    ExecutorService videoExecutor = Executors.newFixedThreadPool(maxConcurrentVideos);
+    try {
+      for (String videoId : videoIds) {
+        videoExecutor.execute(
+            () -> {
+              CommentAnalysisPipeline pipeline =
+                  new CommentAnalysisPipeline(commentRetriever, commentAnalysis);
+              pipeline.setWordCounterSupplier(wordCounterSupplier);
+              try {
+                Statistics statistics =
+                    pipeline.run(videoId, commentsPerVideo, numTopComments, wordMapSize);
+                synchronized (resultLock) {
+                  aggregate.merge(pipeline.getAccumulator());
+                  listener.onVideoAnalyzed(videoId, statistics);
+                }
+              } catch (Exception e) {
+                synchronized (resultLock) {
+                  numFailedVideos++;
+                  listener.onVideoFailed(videoId, e);
+                }
+              }
+            });
+      }
+      videoExecutor.shutdown();
+      videoExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } finally {
+      // Stops the remaining videos when the batch is interrupted
+      videoExecutor.shutdownNow();
+    }
+    synchronized (resultLock) {
+      totalNanos = System.nanoTime() - startNanos;
+      return aggregate.snapshot(wordMapSize);
+    }
+  }
+
+  /**
+   * @return YouTube API quota units of the requests sent by the most recent run
+   */
+  public long getQuotaUnits() {
+    return budget == null ? 0 : budget.getSpentUnits();
+  }
+
+  /**
+   * @return number of videos of the most recent run whose analysis failed
+   */
+  public long getNumFailedVideos() {
+    return numFailedVideos;
+  }
+
+  /**
+   * @return wall-clock time of the most recent run
+   */
+  public long getTotalMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+  }
+}
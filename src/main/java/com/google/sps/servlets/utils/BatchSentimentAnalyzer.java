@@ -0,0 +1,343 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.api.gax.rpc.InvalidArgumentException;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.Sentiment;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scores comments with as few Natural Language API calls as possible. Comments are packed into
+ * shared documents, separated by blank lines, up to a byte budget; the per-sentence sentiment of
+ * the response is then mapped back to the comment each sentence came from. Whenever that mapping is
+ * not exact, the affected comments are scored on their own instead.
+ */
+public class BatchSentimentAnalyzer {
+  private static final Logger logger = Logger.getLogger(BatchSentimentAnalyzer.class.getName());
+  private static final int DEFAULT_MAX_BATCH_BYTES = 8_000;
+  private static final int DEFAULT_MAX_FAN_OUT = 8;
+  // Blank line between comments, which the API treats as a sentence boundary
+  private static final String COMMENT_SEPARATOR = "\n\n";
+
+  private final SentimentService sentimentService;
+  private final int maxBatchBytes;
+  private final Semaphore fanOutPermits;
+  private final AtomicLong requestCount = new AtomicLong();
+  // System.nanoTime() by which analysis must finish; effectively none until a timeout is set
+  private long deadlineNanos = Long.MAX_VALUE;
+
+  /**
+   * Constructor for an analyzer with the default batch size.
+   *
+   * @param languageService language service that has been created
+   */
+  public BatchSentimentAnalyzer(LanguageServiceClient languageService) {
+    this(new SentimentService(languageService), DEFAULT_MAX_BATCH_BYTES);
+  }
+
+  /**
+   * Constructor for an analyzer with the default batch size on a shared sentiment service.
+   *
+   * @param sentimentService service that performs the sentiment calls
+   */
+  public BatchSentimentAnalyzer(SentimentService sentimentService) {
+    this(sentimentService, DEFAULT_MAX_BATCH_BYTES);
+  }
+
+  /**
+   * Constructor for an analyzer with a configured batch size.
+   *
+   * @param languageService language service that has been created
+   * @param maxBatchBytes maximum UTF-8 size of a packed document; larger comments go alone
+   */
+  public BatchSentimentAnalyzer(LanguageServiceClient languageService, int maxBatchBytes) {
+    this(new SentimentService(languageService), maxBatchBytes);
+  }
+
+  /**
+   * Constructor for an analyzer with a configured batch size on a shared sentiment service.
+   *
+   * @param sentimentService service that performs the sentiment calls
+   * @param maxBatchBytes maximum UTF-8 size of a packed document; larger comments go alone
+   */
+  public BatchSentimentAnalyzer(SentimentService sentimentService, int maxBatchBytes) {
+    this(sentimentService, maxBatchBytes, DEFAULT_MAX_FAN_OUT);
+  }
+
+  /**
+   * Constructor for an analyzer with a configured batch size and fan-out limit.
+   *
+   * @param sentimentService service that performs the sentiment calls
+   * @param maxBatchBytes maximum UTF-8 size of a packed document; larger comments go alone
+   * @param maxFanOut maximum number of this analyzer's batches in flight at once
+   */
+  public BatchSentimentAnalyzer(
+      SentimentService sentimentService, int maxBatchBytes, int maxFanOut) {
+    this.sentimentService = sentimentService;
+    this.maxBatchBytes = maxBatchBytes;
+    this.fanOutPermits = new Semaphore(maxFanOut);
+  }
+
+  /**
+   * Set the deadline of the request this analyzer serves, measured from now.
+   *
+   * @param timeout time allowed for all remaining analysis
+   * @param timeUnit unit of timeout
+   */
+  public void setRequestTimeout(long timeout, TimeUnit timeUnit) {
+    deadlineNanos = System.nanoTime() + timeUnit.toNanos(timeout);
+  }
+
+  public SentimentService getSentimentService() {
+    return sentimentService;
+  }
+
+  /**
+   * @return number of analyzeSentiment calls made so far
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Set the sentiment of every comment. Comments in an unsupported language are left unscored.
+   *
+   * @param comments userComments to score
+   * @throws RuntimeException if the request deadline passes before all comments are scored
+   */
+  public void analyze(List<UserComment> comments) {
+    List<CompletableFuture<Void>> batchResults = new ArrayList<>();
+    try {
+      for (List<UserComment> batch : packBatches(comments)) {
+        if (!fanOutPermits.tryAcquire(remainingNanos(), TimeUnit.NANOSECONDS)) {
+          throw new TimeoutException("No fan-out permit before the request deadline.");
+        }
+        batchResults.add(
+            CompletableFuture.runAsync(
+                    () -> analyzeBatch(batch), sentimentService.getSentimentExecutor())
+                .whenComplete((result, error) -> fanOutPermits.release()));
+      }
+      CompletableFuture.allOf(batchResults.toArray(new CompletableFuture<?>[0]))
+          .get(remainingNanos(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      batchResults.forEach(batchResult -> batchResult.cancel(true));
+      throw new RuntimeException("Sentiment analysis did not finish before the deadline.", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for sentiment analysis.", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Unable to analyze comment sentiment.", e.getCause());
+    }
+  }
+
+  private long remainingNanos() {
+    return deadlineNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadlineNanos - System.nanoTime();
+  }
+
+  /**
+   * Split comments, in order, into batches whose packed document stays within maxBatchBytes.
+   *
+   * @param comments userComments to score
+   * @return list of batches, each to be sent as one document
+   */
+  private List<List<UserComment>> packBatches(List<UserComment> comments) {
+    int separatorBytes = COMMENT_SEPARATOR.getBytes(StandardCharsets.UTF_8).length;
+    List<List<UserComment>> batches = new ArrayList<>();
+    List<UserComment> currentBatch = new ArrayList<>();
+    int currentBytes = 0;
+    for (UserComment comment : comments) {
+      int commentBytes = comment.getCommentMsg().getBytes(StandardCharsets.UTF_8).length;
+      int addedBytes = currentBatch.isEmpty() ? commentBytes : commentBytes + separatorBytes;
+      if (!currentBatch.isEmpty() && currentBytes + addedBytes > maxBatchBytes) {
+        batches.add(currentBatch);
+        currentBatch = new ArrayList<>();
+        currentBytes = 0;
+        addedBytes = commentBytes;
+      }
+      currentBatch.add(comment);
+      currentBytes += addedBytes;
+    }
+    if (!currentBatch.isEmpty()) {
+      batches.add(currentBatch);
+    }
+    return batches;
+  }
+
+  /**
+   * Score a batch with a single call, falling back to one call per comment for every comment whose
+   * sentences cannot be attributed to it exactly.
+   *
+   * @param batch userComments packed into one document
+   */
+  private void analyzeBatch(List<UserComment> batch) {
+    if (batch.size() == 1) {
+      analyzeSingleComment(batch.get(0));
+      return;
+    }
+    StringBuilder content = new StringBuilder();
+    int[] commentStarts = new int[batch.size()];
+    for (int i = 0; i < batch.size(); i++) {
+      if (i > 0) {
+        content.append(COMMENT_SEPARATOR);
+      }
+      commentStarts[i] = content.length();
+      content.append(batch.get(i).getCommentMsg());
+    }
+    AnalyzeSentimentResponse response;
+    try {
+      requestCount.incrementAndGet();
+      response =
+          sentimentService.analyzeSentiment(
+              AnalyzeSentimentRequest.newBuilder()
+                  .setDocument(
+                      Document.newBuilder()
+                          .setContent(content.toString())
+                          .setType(Document.Type.PLAIN_TEXT))
+                  // Offsets are then Java string indices
+                  .setEncodingType(EncodingType.UTF16)
+                  .build());
+    } catch (InvalidArgumentException e) {
+      // One comment in an unsupported language fails the whole document
+      batch.forEach(this::analyzeSingleComment);
+      return;
+    }
+    List<List<Sentence>> sentencesPerComment =
+        mapSentencesToComments(batch, content.toString(), commentStarts, response);
+    for (int i = 0; i < batch.size(); i++) {
+      List<Sentence> commentSentences = sentencesPerComment.get(i);
+      if (commentSentences == null) {
+        analyzeSingleComment(batch.get(i));
+      } else {
+        batch.get(i).setSentiment(combineSentences(commentSentences));
+      }
+    }
+  }
+
+  /**
+   * Attribute each returned sentence to the comment it lies in.
+   *
+   * @param batch userComments packed into the document
+   * @param content packed document content
+   * @param commentStarts offset of each comment in content
+   * @param response API response for the packed document
+   * @return sentences per comment, or null for comments whose mapping is ambiguous: a sentence that
+   *     crosses a comment boundary, does not match the document text, or no sentence at all
+   */
+  private List<List<Sentence>> mapSentencesToComments(
+      List<UserComment> batch,
+      String content,
+      int[] commentStarts,
+      AnalyzeSentimentResponse response) {
+    List<List<Sentence>> sentencesPerComment = new ArrayList<>();
+    for (int i = 0; i < batch.size(); i++) {
+      sentencesPerComment.add(new ArrayList<>());
+    }
+    boolean[] isAmbiguous = new boolean[batch.size()];
+    for (Sentence sentence : response.getSentencesList()) {
+      int sentenceStart = sentence.getText().getBeginOffset();
+      int sentenceEnd = sentenceStart + sentence.getText().getContent().length();
+      if (sentenceStart < 0 || sentenceEnd > content.length()) {
+        // Offsets are unusable, so no sentence can be trusted
+        Arrays.fill(isAmbiguous, true);
+        break;
+      }
+      int firstComment = findCommentAt(commentStarts, sentenceStart);
+      int lastComment = findCommentAt(commentStarts, Math.max(sentenceStart, sentenceEnd - 1));
+      int firstCommentEnd =
+          commentStarts[firstComment] + batch.get(firstComment).getCommentMsg().length();
+      boolean isExact =
+          firstComment == lastComment
+              && sentenceEnd <= firstCommentEnd
+              && content.startsWith(sentence.getText().getContent(), sentenceStart);
+      if (isExact) {
+        sentencesPerComment.get(firstComment).add(sentence);
+      } else {
+        Arrays.fill(isAmbiguous, firstComment, lastComment + 1, true);
+      }
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      if (isAmbiguous[i] || sentencesPerComment.get(i).isEmpty()) {
+        sentencesPerComment.set(i, null);
+      }
+    }
+    return sentencesPerComment;
+  }
+
+  /**
+   * @return index of the last comment starting at or before offset
+   */
+  private static int findCommentAt(int[] commentStarts, int offset) {
+    int index = Arrays.binarySearch(commentStarts, offset);
+    return index >= 0 ? index : Math.max(0, -index - 2);
+  }
+
+  /**
+   * Combine sentence sentiment the way the API does for a document: the score is the mean of the
+   * sentence scores and the magnitude, which accumulates emotion, is their sum.
+   */
+  private static Sentiment combineSentences(List<Sentence> sentences) {
+    float scoreSum = 0;
+    float magnitudeSum = 0;
+    for (Sentence sentence : sentences) {
+      scoreSum += sentence.getSentiment().getScore();
+      magnitudeSum += sentence.getSentiment().getMagnitude();
+    }
+    return Sentiment.newBuilder()
+        .setScore(scoreSum / sentences.size())
+        .setMagnitude(magnitudeSum)
+        .build();
+  }
+
+  /**
+   * Perform sentiment analysis from language service for a single usercomment
+   *
+   * @param comment a comment object to retrieve the content
+   */
+  private void analyzeSingleComment(UserComment comment) {
+    try {
+      requestCount.incrementAndGet();
+      comment.setSentiment(
+          sentimentService
+              .analyzeSentiment(
+                  Document.newBuilder()
+                      .setContent(comment.getCommentMsg())
+                      .setType(Document.Type.PLAIN_TEXT)
+                      .build())
+              .getDocumentSentiment());
+    } catch (InvalidArgumentException e) {
+      // Expected for comments in unsupported languages, which are left without a score
+      logger.log(
+          Level.FINE,
+          "Unable to analyze comment " + comment.getCommentId() + ": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,181 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.api.services.youtube.YouTube;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Comment retriever shared across requests that fetches the comments of a video only once while
+ * that video is being fetched. Concurrent requests for the same video read the pages of the fetch
+ * in flight; a request for more comments than it targets raises its target so the fetch continues
+ * from its last page token instead of starting over. Pages are fetched on a background thread and
+ * kept until the fetch completes so late joiners can replay them.
+ */
+public class CoalescingCommentRetriever extends YouTubeCommentRetriever {
+  private final ConcurrentMap<String, SharedFetch> fetchByVideoId = new ConcurrentHashMap<>();
+  private final ExecutorService fetchExecutor =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("comment-fetch-%d").setDaemon(true).build());
+
+  public CoalescingCommentRetriever() throws Exception {
+    super();
+  }
+
+  public CoalescingCommentRetriever(YouTube youTube) {
+    super(youTube);
+  }
+
+  public CoalescingCommentRetriever(YouTubeProvider youTubeProvider) {
+    super(youTubeProvider);
+  }
+
+  @Override
+  public List<CommentThreadView> retrieveComments(String url, long maxComments) throws Exception {
+    List<CommentThreadView> allComments = new ArrayList<>();
+    retrieveComments(url, maxComments, allComments::addAll);
+    return allComments;
+  }
+
+  /**
+   * Retrieve comments through the fetch in flight for url, starting one if there is none that can
+   * be extended to maxComments. Pages are handed to pageConsumer on the calling thread. Fetched
+   * pages are kept for late joiners anyway, so the prefetch window does not apply.
+   */
+  @Override
+  public void retrieveComments(
+      String url,
+      long maxComments,
+      int prefetchWindow,
+      Consumer<List<CommentThreadView>> pageConsumer)
+      throws Exception {
+    SharedFetch newFetch = new SharedFetch(maxComments);
+    SharedFetch fetch =
+        fetchByVideoId.compute(
+            url,
+            (videoId, existing) ->
+                existing != null && existing.extendTarget(maxComments) ? existing : newFetch);
+    if (fetch == newFetch) {
+      fetchExecutor.execute(() -> runFetch(url, newFetch));
+    }
+
+    long numConsumed = 0;
+    for (int pageIndex = 0; numConsumed < maxComments; pageIndex++) {
+      List<CommentThreadView> page = fetch.awaitPage(pageIndex);
+      if (page == null) {
+        break;
+      }
+      if (numConsumed + page.size() > maxComments) {
+        page = page.subList(0, (int) (maxComments - numConsumed));
+      }
+      pageConsumer.accept(page);
+      numConsumed += page.size();
+    }
+  }
+
+  /** Stop the background fetch threads. */
+  public void shutdown() {
+    fetchExecutor.shutdownNow();
+  }
+
+  private void runFetch(String url, SharedFetch fetch) {
+    try {
+      String nextPageToken = null;
+      long numCommentsLeft = fetch.getNumCommentsLeft();
+      do {
+        CommentPage commentPage =
+            generateYouTubeRequest(url, Math.min(COMMENT_LIMIT, numCommentsLeft), nextPageToken);
+        nextPageToken = commentPage.getNextPageToken();
+        numCommentsLeft = fetch.addPage(commentPage.getThreads(), nextPageToken != null);
+      } while (numCommentsLeft > 0);
+    } catch (Throwable e) {
+      fetch.fail(e);
+    } finally {
+      fetchByVideoId.remove(url, fetch);
+    }
+  }
+
+  /** Pages of one video fetched so far, shared by every request reading them. */
+  private static class SharedFetch {
+    private final List<List<CommentThreadView>> pages = new ArrayList<>();
+    private long targetComments;
+    private long numFetched = 0;
+    private boolean done = false;
+    private Throwable failure;
+
+    private SharedFetch(long targetComments) {
+      this.targetComments = targetComments;
+    }
+
+    /**
+     * @return true if the fetch is still running and will fetch at least minComments comments
+     *     unless the video runs out of them
+     */
+    private synchronized boolean extendTarget(long minComments) {
+      if (done) {
+        return false;
+      }
+      targetComments = Math.max(targetComments, minComments);
+      return true;
+    }
+
+    private synchronized long getNumCommentsLeft() {
+      return targetComments - numFetched;
+    }
+
+    /**
+     * @return number of comments still to fetch; the fetch is done once this is not positive
+     */
+    private synchronized long addPage(List<CommentThreadView> page, boolean hasNextPage) {
+      pages.add(page);
+      numFetched += page.size();
+      long numCommentsLeft = hasNextPage ? targetComments - numFetched : 0;
+      if (numCommentsLeft <= 0) {
+        done = true;
+      }
+      notifyAll();
+      return numCommentsLeft;
+    }
+
+    private synchronized void fail(Throwable e) {
+      failure = e;
+      done = true;
+      notifyAll();
+    }
+
+    /**
+     * @return the page at pageIndex once fetched, or null if the fetch ended before it
+     */
+    private synchronized List<CommentThreadView> awaitPage(int pageIndex) throws Exception {
+      while (pageIndex >= pages.size() && !done) {
+        wait();
+      }
+      if (pageIndex < pages.size()) {
+        return pages.get(pageIndex);
+      }
+      if (failure != null) {
+        throw failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+      }
+      return null;
+    }
+  }
+}
@@ -14,12 +14,20 @@
 
 package com.google.sps.servlets.utils;
 
-import com.google.api.gax.rpc.InvalidArgumentException;
 import com.google.api.services.youtube.model.CommentThread;
-import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.common.hash.HashCode;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 /**
@@ -27,9 +35,22 @@ import java.util.stream.Collectors;
  * does sentiment analysis on each of them.
  */
 public class CommentAnalysis {
-  private LanguageServiceClient languageService;
+  private static final Logger logger = Logger.getLogger(CommentAnalysis.class.getName());
+  // Minimum time between two logged repository failures, since every analysis hits an outage
+  private static final long REPOSITORY_FAILURE_LOG_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+  // Time of the last logged repository failure, shared by every analysis
+  private static final AtomicLong lastRepositoryFailureLogNanos =
+      new AtomicLong(System.nanoTime() - REPOSITORY_FAILURE_LOG_INTERVAL_NANOS);
+  private static final AtomicLong numUnloggedRepositoryFailures = new AtomicLong();
+  private BatchSentimentAnalyzer sentimentAnalyzer;
+  private SentimentCache sentimentCache;
+  // Persistent store consulted after the cache; null when sentiments are not persisted or the
+  // store failed during this analysis. Pages are scored on several threads, hence volatile.
+  private volatile SentimentRepository sentimentRepository;
+  // Service created for this analysis alone and closed with it; null when the service is shared
+  private SentimentService ownedSentimentService;
   // Number of comments to display with top high magnitude
-  private static final int DEFAULT_TOP_N = 1;
+  public static final int DEFAULT_TOP_N = 1;
 
   /**
    * Constructor to create and initialize language service for sentiment analysis
@@ -37,7 +58,18 @@ public class CommentAnalysis {
    * @throws IOException error when the service cannot be started successfully
    */
   public CommentAnalysis() throws IOException {
-    this.languageService = LanguageServiceClient.create();
+    this(LanguageServiceClient.create());
+  }
+
+  /**
+   * Constructor to analyze through an application-scoped sentiment service, which stays open when
+   * this analysis is closed.
+   *
+   * @param sentimentService shared service that performs the sentiment calls
+   */
+  public CommentAnalysis(SentimentService sentimentService) {
+    this(new BatchSentimentAnalyzer(sentimentService), sentimentService.getSentimentCache());
+    sentimentRepository = sentimentService.getSentimentRepository();
   }
 
   /**
@@ -46,7 +78,49 @@ public class CommentAnalysis {
    * @param languageService language service that has been created
    */
   public CommentAnalysis(LanguageServiceClient languageService) {
-    this.languageService = languageService;
+    this(languageService, new InMemorySentimentCache());
+  }
+
+  /**
+   * Constructor for mocked test to pass in mocked language client service and sentiment cache.
+   *
+   * @param languageService language service that has been created
+   * @param sentimentCache cache consulted before calling the language service
+   */
+  public CommentAnalysis(LanguageServiceClient languageService, SentimentCache sentimentCache) {
+    this(new SentimentService(languageService, sentimentCache));
+    ownedSentimentService = sentimentAnalyzer.getSentimentService();
+  }
+
+  /**
+   * Constructor to pass in a configured batching analyzer and sentiment cache.
+   *
+   * @param sentimentAnalyzer analyzer that scores comments missing from the cache
+   * @param sentimentCache cache consulted before calling the language service
+   */
+  public CommentAnalysis(BatchSentimentAnalyzer sentimentAnalyzer, SentimentCache sentimentCache) {
+    this.sentimentAnalyzer = sentimentAnalyzer;
+    this.sentimentCache = sentimentCache;
+  }
+
+  /**
+   * Set the deadline for all sentiment analysis of the request this object serves.
+   *
+   * @param timeout time allowed from now
+   * @param timeUnit unit of timeout
+   */
+  public void setRequestTimeout(long timeout, TimeUnit timeUnit) {
+    sentimentAnalyzer.setRequestTimeout(timeout, timeUnit);
+  }
+
+  /**
+   * Set the persistent store looked up for comments missing from the cache, and updated with newly
+   * analyzed comments.
+   *
+   * @param sentimentRepository repository to use, or null to not persist sentiments
+   */
+  public void setSentimentRepository(SentimentRepository sentimentRepository) {
+    this.sentimentRepository = sentimentRepository;
   }
 
   /**
@@ -70,39 +144,164 @@ public class CommentAnalysis {
    * @return a Statistics object that contains required values to display
    */
   public Statistics computeOverallStats(List<CommentThread> youtubeResponse, int numTopComments) {
-    // Retrieve comment content from youtubeResponse and calculate sentiment for each comment
-    List<UserComment> userCommentList =
-        youtubeResponse.parallelStream()
-            .map(UserComment::new)
-            .map(this::updateSentimentForComment)
-            .collect(Collectors.toList());
-    return new Statistics(userCommentList, numTopComments);
+    return new Statistics(computeSentiment(youtubeResponse), numTopComments);
+  }
+
+  /**
+   * Wrap each retrieved comment thread into a userComment and compute its sentiment. Comments found
+   * in the cache are not analyzed again, the rest are looked up in the repository in one batch, and
+   * comments sharing the same text are analyzed once. Newly analyzed comments are stored in the
+   * repository in one batch.
+   *
+   * @param youtubeResponse a list of commentThread retreived from youtube server
+   * @return a list of userComment with updated sentiment scores & magnitude
+   */
+  public List<UserComment> computeSentiment(List<CommentThread> youtubeResponse) {
+    return scoreComments(
+        youtubeResponse.stream().map(UserComment::new).collect(Collectors.toList()));
+  }
+
+  /**
+   * Compute the sentiment of retrieved comment threads the same way as computeSentiment, reading
+   * each top level comment through its view.
+   *
+   * @param commentThreads comment threads retrieved from youtube server
+   * @return a list of userComment with updated sentiment scores & magnitude
+   */
+  public List<UserComment> scoreCommentThreads(List<CommentThreadView> commentThreads) {
+    return scoreComments(
+        commentThreads.stream().map(UserComment::new).collect(Collectors.toList()));
+  }
+
+  /**
+   * Compute the sentiment of userComments the same way as computeSentiment, for comments that are
+   * not the top level comment of a thread, such as replies.
+   *
+   * @param userCommentList userComments to score
+   * @return userCommentList with updated sentiment scores & magnitude
+   */
+  public List<UserComment> scoreComments(List<UserComment> userCommentList) {
+    List<UserComment> uncachedComments = new ArrayList<>();
+    for (UserComment comment : userCommentList) {
+      Sentiment cachedSentiment = sentimentCache.get(comment.getCommentMsg());
+      if (cachedSentiment != null) {
+        comment.setSentiment(cachedSentiment);
+      } else {
+        uncachedComments.add(comment);
+      }
+    }
+    Map<HashCode, List<UserComment>> unscoredCommentsByHash = new LinkedHashMap<>();
+    for (UserComment comment : restoreStoredSentiments(uncachedComments)) {
+      unscoredCommentsByHash
+          .computeIfAbsent(
+              SentimentCache.hashOf(comment.getCommentMsg()), hash -> new ArrayList<>())
+          .add(comment);
+    }
+    sentimentAnalyzer.analyze(
+        unscoredCommentsByHash.values().stream()
+            .map(sameTextComments -> sameTextComments.get(0))
+            .collect(Collectors.toList()));
+    List<UserComment> newlyScoredComments = new ArrayList<>();
+    for (List<UserComment> sameTextComments : unscoredCommentsByHash.values()) {
+      UserComment scoredComment = sameTextComments.get(0);
+      // Comments in an unsupported language stay unscored and are not cached
+      if (scoredComment.getScore() == null) {
+        continue;
+      }
+      Sentiment sentiment = toSentiment(scoredComment);
+      sentimentCache.put(scoredComment.getCommentMsg(), sentiment);
+      sameTextComments.forEach(comment -> comment.setSentiment(sentiment));
+      newlyScoredComments.addAll(sameTextComments);
+    }
+    storeSentiments(newlyScoredComments);
+    return userCommentList;
   }
 
   /**
-   * Perform sentiment analysis from language service for a single usercomment
+   * Set the sentiment of comments stored in the repository for their current text, and add it to
+   * the cache.
    *
-   * @param comment a comment object to retrieve the content
-   * @return a userComment with updated sentiment scores & magnitude
+   * @return the comments that were not found
    */
-  private UserComment updateSentimentForComment(UserComment comment) {
+  private List<UserComment> restoreStoredSentiments(List<UserComment> comments) {
+    if (sentimentRepository == null || comments.isEmpty()) {
+      return comments;
+    }
+    Map<String, StoredSentiment> storedById;
+    try {
+      storedById =
+          sentimentRepository.findAll(
+              comments.stream()
+                  .map(UserComment::getCommentId)
+                  .filter(Objects::nonNull)
+                  .collect(Collectors.toSet()));
+    } catch (RuntimeException e) {
+      // The store only saves work; analyze everything when it is unavailable
+      disableRepository(e);
+      return comments;
+    }
+    List<UserComment> notFoundComments = new ArrayList<>();
+    for (UserComment comment : comments) {
+      StoredSentiment stored = storedById.get(comment.getCommentId());
+      if (stored != null && stored.matchesText(comment.getCommentMsg())) {
+        comment.setScore(stored.getScore());
+        comment.setMagnitude(stored.getMagnitude());
+        sentimentCache.put(comment.getCommentMsg(), toSentiment(comment));
+      } else {
+        notFoundComments.add(comment);
+      }
+    }
+    return notFoundComments;
+  }
+
+  private void storeSentiments(List<UserComment> scoredComments) {
+    if (sentimentRepository == null || scoredComments.isEmpty()) {
+      return;
+    }
     try {
-      comment.setSentiment(
-          languageService
-              .analyzeSentiment(
-                  Document.newBuilder()
-                      .setContent(comment.getCommentMsg())
-                      .setType(Document.Type.PLAIN_TEXT)
-                      .build())
-              .getDocumentSentiment());
-    } catch (InvalidArgumentException e) {
-      System.out.println("Message with Unsupported Lnaguage: " + comment.getCommentMsg());
-      e.printStackTrace();
+      sentimentRepository.saveAll(
+          scoredComments.stream()
+              .filter(comment -> comment.getCommentId() != null)
+              .map(StoredSentiment::of)
+              .collect(Collectors.toList()));
+    } catch (RuntimeException e) {
+      disableRepository(e);
     }
-    return comment;
   }
 
+  /**
+   * Stop using the repository for the rest of this analysis after it failed, so an outage costs one
+   * failed call per analysis rather than two per page. Failures are logged at most once a minute
+   * across all analyses.
+   */
+  private void disableRepository(RuntimeException failure) {
+    sentimentRepository = null;
+    long now = System.nanoTime();
+    long last = lastRepositoryFailureLogNanos.get();
+    if (now - last < REPOSITORY_FAILURE_LOG_INTERVAL_NANOS
+        || !lastRepositoryFailureLogNanos.compareAndSet(last, now)) {
+      numUnloggedRepositoryFailures.incrementAndGet();
+      return;
+    }
+    logger.log(
+        Level.WARNING,
+        String.format(
+            "Sentiment repository unavailable, analyzing without it (%d failures not logged).",
+            numUnloggedRepositoryFailures.getAndSet(0)),
+        failure);
+  }
+
+  private static Sentiment toSentiment(UserComment scoredComment) {
+    return Sentiment.newBuilder()
+        .setScore(scoredComment.getScore().floatValue())
+        .setMagnitude(scoredComment.getMagnitude().floatValue())
+        .build();
+  }
+
+  /** Close the language service if this analysis created it; a shared service stays open. */
   public void closeLanguage() {
-    languageService.close();
+    if (ownedSentimentService != null) {
+      ownedSentimentService.close();
+    }
   }
 }
@@ -0,0 +1,354 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Staged pipeline that overlaps comment retrieval with sentiment analysis: while page N+1 is being
+ * fetched from YouTube, page N is scored on the analysis threads. Both hand-offs are bounded, so a
+ * slow stage stalls the stage in front of it instead of letting pages pile up in memory.
+ */
+public class CommentAnalysisPipeline {
+  private static final int DEFAULT_PREFETCH_PAGES = 2;
+  private static final int DEFAULT_PAGES_IN_ANALYSIS = 2;
+  private static final int DEFAULT_ANALYSIS_THREADS = 2;
+
+  private final YouTubeCommentRetriever commentRetriever;
+  private final CommentAnalysis commentAnalysis;
+  private final int prefetchPages;
+  private final int maxPagesInAnalysis;
+  private final int analysisThreads;
+  private Supplier<WordCounter> wordCounterSupplier = ExactWordCounter::new;
+  // Receives snapshots of the comments scored so far; null when progress is not reported
+  private Consumer<Statistics> progressListener;
+  private long progressIntervalNanos;
+  private final Object progressLock = new Object();
+
+  // Per-stage timings of the most recent run
+  private long retrievalNanos;
+  private final AtomicLong analysisNanos = new AtomicLong();
+  private final AtomicLong replyRetrievalNanos = new AtomicLong();
+  private long totalNanos;
+  // YouTube API requests of the most recent run, each costing one quota unit
+  private long numPageRequests;
+  private final AtomicLong numReplyRequests = new AtomicLong();
+  // Comment threads of the most recent run whose replies were cut off at the reply page limit
+  private final AtomicLong numTruncatedReplyThreads = new AtomicLong();
+  // Aggregate of the top level comments of the most recent run
+  private StatisticsAccumulator accumulator;
+
+  /**
+   * Constructor for a pipeline with default stage sizes.
+   *
+   * @param commentRetriever retriever used for the fetching stage
+   * @param commentAnalysis analysis used for the sentiment stage
+   */
+  public CommentAnalysisPipeline(
+      YouTubeCommentRetriever commentRetriever, CommentAnalysis commentAnalysis) {
+    this(
+        commentRetriever,
+        commentAnalysis,
+        DEFAULT_PREFETCH_PAGES,
+        DEFAULT_PAGES_IN_ANALYSIS,
+        DEFAULT_ANALYSIS_THREADS);
+  }
+
+  /**
+   * Constructor for a pipeline with configured stage sizes.
+   *
+   * @param commentRetriever retriever used for the fetching stage
+   * @param commentAnalysis analysis used for the sentiment stage
+   * @param prefetchPages number of fetched pages that may wait for the analysis stage
+   * @param maxPagesInAnalysis number of pages that may be scored or queued for scoring at once
+   * @param analysisThreads number of threads scoring pages
+   */
+  public CommentAnalysisPipeline(
+      YouTubeCommentRetriever commentRetriever,
+      CommentAnalysis commentAnalysis,
+      int prefetchPages,
+      int maxPagesInAnalysis,
+      int analysisThreads) {
+    if (prefetchPages < 1 || maxPagesInAnalysis < 1 || analysisThreads < 1) {
+      throw new IllegalArgumentException("Pipeline stages need at least one page and one thread.");
+    }
+    this.commentRetriever = commentRetriever;
+    this.commentAnalysis = commentAnalysis;
+    this.prefetchPages = prefetchPages;
+    this.maxPagesInAnalysis = maxPagesInAnalysis;
+    this.analysisThreads = analysisThreads;
+  }
+
+  /**
+   * Set how word frequencies are counted, such as approximately for large comment volumes.
+   *
+   * @param wordCounterSupplier supplies an empty counter for each run
+   */
+  public void setWordCounterSupplier(Supplier<WordCounter> wordCounterSupplier) {
+    this.wordCounterSupplier = wordCounterSupplier;
+  }
+
+  /**
+   * Report progress while a run is going: after a page is scored, a snapshot of the comments scored
+   * so far is handed to progressListener, at most once per interval. The first page is always
+   * reported. The listener is called on an analysis thread, one snapshot at a time, so it should
+   * hand the snapshot off rather than write it to a client. A listener that throws stops the run.
+   *
+   * @param progressListener receives partial Statistics, or null to not report progress
+   * @param minIntervalMillis minimum time between two snapshots
+   */
+  public void setProgressListener(Consumer<Statistics> progressListener, long minIntervalMillis) {
+    this.progressListener = progressListener;
+    this.progressIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+  }
+
+  /**
+   * Retrieve and score up to numComments comments of a video with the default number of top
+   * comments per bucket.
+   *
+   * @param url video id of the video to have its comments analyzed
+   * @param numComments maximum number of comments to retrieve
+   * @return a Statistics object that contains required values to display
+   */
+  public Statistics run(String url, long numComments) throws Exception {
+    return run(url, numComments, CommentAnalysis.DEFAULT_TOP_N);
+  }
+
+  /**
+   * Retrieve and score up to numComments comments of a video. Each page is submitted to the
+   * analysis threads as soon as it arrives; submitting blocks once maxPagesInAnalysis pages are
+   * outstanding, which in turn pauses retrieval when the prefetch window fills up.
+   *
+   * @param url video id of the video to have its comments analyzed
+   * @param numComments maximum number of comments to retrieve
+   * @param numTopComments number of top comments to display for each interval
+   * @return a Statistics object that contains required values to display
+   */
+  public Statistics run(String url, long numComments, int numTopComments) throws Exception {
+    return run(url, numComments, numTopComments, Statistics.DEFAULT_WORDMAP_SIZE);
+  }
+
+  /**
+   * Retrieve and score up to numComments comments of a video, keeping the wordMapSize most frequent
+   * words in the word map. If the retriever includes replies, the replies to each page are
+   * retrieved and scored on the analysis threads as well, and reported in separate reply
+   * statistics.
+   *
+   * @param url video id of the video to have its comments analyzed
+   * @param numComments maximum number of comments to retrieve
+   * @param numTopComments number of top comments to display for each interval
+   * @param wordMapSize number of most frequent words to display
+   * @return a Statistics object that contains required values to display
+   */
+  public Statistics run(String url, long numComments, int numTopComments, int wordMapSize)
+      throws Exception {
+    long startNanos = System.nanoTime();
+    analysisNanos.set(0);
+    replyRetrievalNanos.set(0);
+    numPageRequests = 0;
+    numReplyRequests.set(0);
+    numTruncatedReplyThreads.set(0);
+    accumulator = null;
+    boolean includeReplies = commentRetriever.includesReplies();
+    // Each analysis thread aggregates the pages it scored; the partials are merged at the end
+    ConcurrentMap<Thread, StatisticsAccumulator> partialByThread = new ConcurrentHashMap<>();
+    ConcurrentMap<Thread, StatisticsAccumulator> replyPartialByThread = new ConcurrentHashMap<>();
+    // Time of the last progress snapshot, set so that the first page is reported
+    AtomicLong lastProgressNanos = new AtomicLong(startNanos - progressIntervalNanos);
+    // Pages are dropped once aggregated, so memory does not grow with the number of comments
+    AtomicReference<Throwable> analysisFailure = new AtomicReference<>();
+    Semaphore analysisPermits = new Semaphore(maxPagesInAnalysis);
+    ExecutorService analysisExecutor = Executors.newFixedThreadPool(analysisThreads);
+    try {
+      // The retriever may be shared, so the window is passed per run rather than set on it
+      commentRetriever.retrieveComments(
+          url,
+          numComments,
+          prefetchPages,
+          page -> {
+            numPageRequests++;
+            analysisPermits.acquireUninterruptibly();
+            if (analysisFailure.get() != null) {
+              analysisPermits.release();
+              // Stops retrieval; the failure is rethrown below
+              throw new PageAnalysisException();
+            }
+            analysisExecutor.execute(
+                () -> {
+                  try {
+                    List<UserComment> scoredPage = scorePage(page);
+                    StatisticsAccumulator partial =
+                        partialByThread.computeIfAbsent(
+                            Thread.currentThread(), thread -> newAccumulator(numTopComments));
+                    // Progress snapshots read the partials while other pages are added
+                    synchronized (partial) {
+                      partial.addAll(scoredPage);
+                    }
+                    if (includeReplies) {
+                      List<UserComment> scoredReplies = scoreReplies(page);
+                      replyPartialByThread
+                          .computeIfAbsent(
+                              Thread.currentThread(), thread -> newAccumulator(numTopComments))
+                          .addAll(scoredReplies);
+                    }
+                    reportProgress(
+                        partialByThread.values(), lastProgressNanos, numTopComments, wordMapSize);
+                  } catch (Throwable e) {
+                    analysisFailure.compareAndSet(null, e);
+                  } finally {
+                    analysisPermits.release();
+                  }
+                });
+          });
+      retrievalNanos = System.nanoTime() - startNanos;
+      // Every permit is back once all submitted pages are done
+      analysisPermits.acquireUninterruptibly(maxPagesInAnalysis);
+    } catch (PageAnalysisException e) {
+      // Handled below with the failure that caused it
+    } finally {
+      analysisExecutor.shutdownNow();
+    }
+    Throwable failure = analysisFailure.get();
+    if (failure != null) {
+      throw failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+    }
+    accumulator = newAccumulator(numTopComments);
+    partialByThread.values().forEach(accumulator::merge);
+    Statistics statistics = accumulator.snapshot(wordMapSize);
+    if (includeReplies) {
+      Statistics replyStatistics =
+          merge(replyPartialByThread.values(), numTopComments, wordMapSize);
+      replyStatistics.setNumTruncatedThreads(numTruncatedReplyThreads.get());
+      statistics.setReplyStatistics(replyStatistics);
+    }
+    totalNanos = System.nanoTime() - startNanos;
+    return statistics;
+  }
+
+  /** Hand a snapshot of the partials to the progress listener, unless one was reported recently. */
+  private void reportProgress(
+      Collection<StatisticsAccumulator> partials,
+      AtomicLong lastProgressNanos,
+      int numTopComments,
+      int wordMapSize) {
+    if (progressListener == null) {
+      return;
+    }
+    long now = System.nanoTime();
+    long last = lastProgressNanos.get();
+    if (now - last < progressIntervalNanos || !lastProgressNanos.compareAndSet(last, now)) {
+      return;
+    }
+    synchronized (progressLock) {
+      StatisticsAccumulator snapshot = newAccumulator(numTopComments);
+      for (StatisticsAccumulator partial : partials) {
+        synchronized (partial) {
+          snapshot.merge(partial);
+        }
+      }
+      progressListener.accept(snapshot.snapshot(wordMapSize));
+    }
+  }
+
+  private StatisticsAccumulator newAccumulator(int numTopComments) {
+    return new StatisticsAccumulator(
+        numTopComments, wordCounterSupplier.get(), commentRetriever.returnsPlainText());
+  }
+
+  private Statistics merge(
+      Collection<StatisticsAccumulator> partials, int numTopComments, int wordMapSize) {
+    StatisticsAccumulator accumulator = newAccumulator(numTopComments);
+    partials.forEach(accumulator::merge);
+    return accumulator.snapshot(wordMapSize);
+  }
+
+  private List<UserComment> scoreReplies(List<CommentThreadView> page) throws Exception {
+    long replyStartNanos = System.nanoTime();
+    List<CommentView> replies =
+        commentRetriever.retrieveReplies(page, numReplyRequests, numTruncatedReplyThreads);
+    replyRetrievalNanos.addAndGet(System.nanoTime() - replyStartNanos);
+    long scoreStartNanos = System.nanoTime();
+    List<UserComment> scoredReplies =
+        commentAnalysis.scoreComments(
+            replies.stream().map(UserComment::new).collect(Collectors.toList()));
+    analysisNanos.addAndGet(System.nanoTime() - scoreStartNanos);
+    return scoredReplies;
+  }
+
+  private List<UserComment> scorePage(List<CommentThreadView> page) {
+    long pageStartNanos = System.nanoTime();
+    List<UserComment> scoredPage = commentAnalysis.scoreCommentThreads(page);
+    analysisNanos.addAndGet(System.nanoTime() - pageStartNanos);
+    return scoredPage;
+  }
+
+  /** Thrown from the page consumer to stop retrieval once a page failed to be analyzed. */
+  private static class PageAnalysisException extends RuntimeException {}
+
+  /**
+   * @return wall-clock time until the last page was handed to the analysis stage
+   */
+  public long getRetrievalMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(retrievalNanos);
+  }
+
+  /**
+   * @return time spent scoring pages, summed over all analysis threads
+   */
+  public long getAnalysisMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(analysisNanos.get());
+  }
+
+  /**
+   * @return time spent retrieving replies, summed over all analysis threads
+   */
+  public long getReplyRetrievalMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(replyRetrievalNanos.get());
+  }
+
+  /**
+   * @return YouTube API quota units spent, one per comment thread page and one per reply page
+   */
+  public long getQuotaUnits() {
+    return numPageRequests + numReplyRequests.get();
+  }
+
+  /**
+   * @return aggregate of the top level comments scored in the most recent run, which can be merged
+   *     with the aggregates of other runs; null until a run succeeds
+   */
+  public StatisticsAccumulator getAccumulator() {
+    return accumulator;
+  }
+
+  /**
+   * @return wall-clock time of the whole run, including building Statistics
+   */
+  public long getTotalMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.api.services.youtube.model.Comment;
+import com.google.api.services.youtube.model.CommentThread;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** The parts of a comment thread the analysis reads. */
+public interface CommentThreadView {
+  /**
+   * @return comment that started the thread
+   */
+  CommentView getTopLevelComment();
+
+  /**
+   * @return number of replies to the top level comment, or null if it was not requested
+   */
+  Long getTotalReplyCount();
+
+  /**
+   * @return replies returned along with the thread, empty if there are none or they were not
+   *     requested
+   */
+  List<CommentView> getInlineReplies();
+
+  /**
+   * @param commentThread comment thread parsed into the generated model
+   * @return view reading through to commentThread
+   */
+  static CommentThreadView of(CommentThread commentThread) {
+    return new CommentThreadView() {
+      @Override
+      public CommentView getTopLevelComment() {
+        return CommentView.of(commentThread.getSnippet().getTopLevelComment());
+      }
+
+      @Override
+      public Long getTotalReplyCount() {
+        return commentThread.getSnippet().getTotalReplyCount();
+      }
+
+      @Override
+      public List<CommentView> getInlineReplies() {
+        if (commentThread.getReplies() == null
+            || commentThread.getReplies().getComments() == null) {
+          return Collections.emptyList();
+        }
+        List<CommentView> replies = new ArrayList<>();
+        for (Comment reply : commentThread.getReplies().getComments()) {
+          replies.add(CommentView.of(reply));
+        }
+        return replies;
+      }
+    };
+  }
+}
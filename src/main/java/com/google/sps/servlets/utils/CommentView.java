@@ -0,0 +1,62 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.youtube.model.Comment;
+
+/**
+ * The parts of a comment the analysis reads. Implemented by lean parsed comments directly and by a
+ * wrapper around the generated model, so neither has to be converted into the other.
+ */
+public interface CommentView {
+  /**
+   * @return id of the comment
+   */
+  String getId();
+
+  /**
+   * @return text of the comment, as HTML or plain text depending on the request
+   */
+  String getTextDisplay();
+
+  /**
+   * @return time the comment was published
+   */
+  DateTime getPublishedAt();
+
+  /**
+   * @param comment comment parsed into the generated model
+   * @return view reading through to comment
+   */
+  static CommentView of(Comment comment) {
+    return new CommentView() {
+      @Override
+      public String getId() {
+        return comment.getId();
+      }
+
+      @Override
+      public String getTextDisplay() {
+        return comment.getSnippet().getTextDisplay();
+      }
+
+      @Override
+      public DateTime getPublishedAt() {
+        return comment.getSnippet().getPublishedAt();
+      }
+    };
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.common.collect.Lists;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/** Sentiment repository backed by App Engine Datastore, with one entity per comment id. */
+public class DatastoreSentimentRepository implements SentimentRepository {
+  static final String KIND = "CommentSentiment";
+  static final String TEXT_HASH_PROPERTY = "textHash";
+  static final String SCORE_PROPERTY = "score";
+  static final String MAGNITUDE_PROPERTY = "magnitude";
+  static final String PUBLISH_DATE_PROPERTY = "publishDate";
+  // Datastore limits on the number of keys per batch get and entities per batch put
+  private static final int MAX_GET_BATCH = 1000;
+  private static final int MAX_PUT_BATCH = 500;
+
+  private final DatastoreService datastore;
+
+  public DatastoreSentimentRepository() {
+    this(DatastoreServiceFactory.getDatastoreService());
+  }
+
+  public DatastoreSentimentRepository(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  @Override
+  public Map<String, StoredSentiment> findAll(Collection<String> commentIds) {
+    List<Key> keys =
+        commentIds.stream().map(id -> KeyFactory.createKey(KIND, id)).collect(Collectors.toList());
+    Map<String, StoredSentiment> sentimentById = new HashMap<>();
+    for (List<Key> keyBatch : Lists.partition(keys, MAX_GET_BATCH)) {
+      for (Entity entity : datastore.get(keyBatch).values()) {
+        StoredSentiment sentiment = fromEntity(entity);
+        sentimentById.put(sentiment.getCommentId(), sentiment);
+      }
+    }
+    return sentimentById;
+  }
+
+  @Override
+  public void saveAll(Collection<StoredSentiment> sentiments) {
+    List<Entity> entities =
+        sentiments.stream()
+            .map(DatastoreSentimentRepository::toEntity)
+            .collect(Collectors.toList());
+    for (List<Entity> entityBatch : Lists.partition(entities, MAX_PUT_BATCH)) {
+      datastore.put(entityBatch);
+    }
+  }
+
+  private static Entity toEntity(StoredSentiment sentiment) {
+    Entity entity = new Entity(KIND, sentiment.getCommentId());
+    entity.setUnindexedProperty(TEXT_HASH_PROPERTY, sentiment.getTextHash());
+    entity.setUnindexedProperty(SCORE_PROPERTY, sentiment.getScore());
+    entity.setUnindexedProperty(MAGNITUDE_PROPERTY, sentiment.getMagnitude());
+    entity.setUnindexedProperty(PUBLISH_DATE_PROPERTY, new Date(sentiment.getPublishDate()));
+    return entity;
+  }
+
+  private static StoredSentiment fromEntity(Entity entity) {
+    return new StoredSentiment(
+        entity.getKey().getName(),
+        (String) entity.getProperty(TEXT_HASH_PROPERTY),
+        (Double) entity.getProperty(SCORE_PROPERTY),
+        (Double) entity.getProperty(MAGNITUDE_PROPERTY),
+        ((Date) entity.getProperty(PUBLISH_DATE_PROPERTY)).getTime());
+  }
+}
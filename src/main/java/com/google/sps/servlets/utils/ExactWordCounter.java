@@ -0,0 +1,119 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** Counts word appearances, incrementing a mutable counter in place for repeated words. */
+public class ExactWordCounter implements WordCounter {
+  // Orders words from lowest to highest rank: lower count first, then later in the alphabet first
+  private static final Comparator<Map.Entry<String, Count>> ASCENDING_RANK_COMPARATOR =
+      Comparator.<Map.Entry<String, Count>>comparingInt(entry -> entry.getValue().value)
+          .thenComparing(Map.Entry::getKey, Comparator.reverseOrder());
+
+  private final Map<String, Count> countByWord = new HashMap<>();
+
+  @Override
+  public void add(String word) {
+    Count count = countByWord.get(word);
+    if (count == null) {
+      countByWord.put(word, new Count());
+    } else {
+      count.value++;
+    }
+  }
+
+  @Override
+  public int getCount(String word) {
+    Count count = countByWord.get(word);
+    return count == null ? 0 : count.value;
+  }
+
+  /**
+   * @return a map from each counted word to its number of appearances
+   */
+  public Map<String, Integer> toMap() {
+    Map<String, Integer> wordFrequencyMap = new HashMap<>();
+    countByWord.forEach((word, count) -> wordFrequencyMap.put(word, count.value));
+    return wordFrequencyMap;
+  }
+
+  @Override
+  public void merge(WordCounter other) {
+    if (!(other instanceof ExactWordCounter)) {
+      throw new IllegalArgumentException("Cannot merge " + other.getClass().getSimpleName());
+    }
+    ((ExactWordCounter) other)
+        .countByWord.forEach(
+            (word, otherCount) -> {
+              Count count = countByWord.get(word);
+              if (count == null) {
+                count = new Count();
+                count.value = otherCount.value;
+                countByWord.put(word, count);
+              } else {
+                count.value += otherCount.value;
+              }
+            });
+  }
+
+  /**
+   * Select the most frequent words with a min-heap of size k, in O(n log k) for n distinct words.
+   */
+  @Override
+  public Map<String, Integer> topWords(int k) {
+    if (k <= 0) {
+      return new LinkedHashMap<>();
+    }
+    // Head of the heap is the lowest ranked word kept so far
+    PriorityQueue<Map.Entry<String, Count>> topEntries =
+        new PriorityQueue<>(k, ASCENDING_RANK_COMPARATOR);
+    for (Map.Entry<String, Count> entry : countByWord.entrySet()) {
+      if (topEntries.size() < k) {
+        topEntries.add(entry);
+      } else if (ASCENDING_RANK_COMPARATOR.compare(entry, topEntries.peek()) > 0) {
+        topEntries.poll();
+        topEntries.add(entry);
+      }
+    }
+    List<Map.Entry<String, Count>> rankedEntries = new ArrayList<>(topEntries.size());
+    while (!topEntries.isEmpty()) {
+      rankedEntries.add(topEntries.poll());
+    }
+    Collections.reverse(rankedEntries);
+    Map<String, Integer> topWordMap = new LinkedHashMap<>();
+    rankedEntries.forEach(entry -> topWordMap.put(entry.getKey(), entry.getValue().value));
+    return topWordMap;
+  }
+
+  /**
+   * @return 0, as every count is exact
+   */
+  @Override
+  public int getMaxError() {
+    return 0;
+  }
+
+  private static class Count {
+    private int value = 1;
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.cloud.language.v1.Sentiment;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-bounded, in-process sentiment cache. Entries are evicted in approximately least recently
+ * used order once maxEntries is reached, and expire a fixed time after they were written.
+ */
+public class InMemorySentimentCache implements SentimentCache {
+  private static final long DEFAULT_MAX_ENTRIES = 100_000L;
+  private static final long DEFAULT_TTL_HOURS = 24L;
+
+  private final Cache<HashCode, Sentiment> sentimentByHash;
+
+  /** Constructor for a cache with default size and time to live. */
+  public InMemorySentimentCache() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_HOURS, TimeUnit.HOURS, Ticker.systemTicker());
+  }
+
+  /**
+   * Constructor for a cache with configured bounds.
+   *
+   * @param maxEntries maximum number of comment texts kept
+   * @param timeToLive how long an entry stays valid after being written
+   * @param timeUnit unit of timeToLive
+   * @param ticker time source, replaceable in tests
+   */
+  public InMemorySentimentCache(
+      long maxEntries, long timeToLive, TimeUnit timeUnit, Ticker ticker) {
+    sentimentByHash =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(timeToLive, timeUnit)
+            .ticker(ticker)
+            .recordStats()
+            .build();
+  }
+
+  @Override
+  public Sentiment get(String commentMsg) {
+    return sentimentByHash.getIfPresent(SentimentCache.hashOf(commentMsg));
+  }
+
+  @Override
+  public void put(String commentMsg, Sentiment sentiment) {
+    sentimentByHash.put(SentimentCache.hashOf(commentMsg), sentiment);
+  }
+
+  public long getHitCount() {
+    return sentimentByHash.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return sentimentByHash.stats().missCount();
+  }
+
+  /**
+   * @return number of entries dropped for size or expiry
+   */
+  public long getEvictionCount() {
+    return sentimentByHash.stats().evictionCount();
+  }
+}
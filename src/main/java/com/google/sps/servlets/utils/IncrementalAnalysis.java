@@ -0,0 +1,180 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps aggregated statistics per video and extends them with the comments posted since the last
+ * request, so re-analyzing a popular video only scores its new comments. The first request for a
+ * video fetches and scores up to numComments of its newest comments. If more comments than that
+ * were posted since the last request, the ones in between cannot be fetched, so the snapshot is
+ * started over from the newest comments and the Statistics report the reset.
+ */
+public class IncrementalAnalysis {
+  private static final long DEFAULT_MAX_VIDEOS = 1000L;
+  private static final long DEFAULT_SNAPSHOT_TTL_HOURS = 24L;
+  // Snapshots live as long as their video is requested, so their word counts use a fixed-size
+  // sketch; counts are off by at most a thousandth of the words counted
+  private static final int SNAPSHOT_MONITORED_WORDS = 1000;
+
+  private final YouTubeCommentRetriever commentRetriever;
+  private final Cache<String, VideoSnapshot> snapshotByVideoId;
+
+  /** Aggregate of a video's comments, replaced when it has to be started over. */
+  private static class VideoSnapshot {
+    private StatisticsAccumulator accumulator;
+    // Update in flight, which requests arriving meanwhile wait for instead of fetching the same
+    // comments; completes with whether the snapshot was reset
+    private CompletableFuture<Boolean> update;
+  }
+
+  /**
+   * Constructor with default snapshot bounds.
+   *
+   * @param commentRetriever retriever used to fetch new comments
+   */
+  public IncrementalAnalysis(YouTubeCommentRetriever commentRetriever) {
+    this(commentRetriever, DEFAULT_MAX_VIDEOS, DEFAULT_SNAPSHOT_TTL_HOURS, TimeUnit.HOURS);
+  }
+
+  /**
+   * Constructor with configured snapshot bounds.
+   *
+   * @param commentRetriever retriever used to fetch new comments
+   * @param maxVideos maximum number of videos whose snapshot is kept
+   * @param snapshotTimeToLive how long an unused snapshot is kept
+   * @param timeUnit unit of snapshotTimeToLive
+   */
+  public IncrementalAnalysis(
+      YouTubeCommentRetriever commentRetriever,
+      long maxVideos,
+      long snapshotTimeToLive,
+      TimeUnit timeUnit) {
+    this.commentRetriever = commentRetriever;
+    this.snapshotByVideoId =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxVideos)
+            .expireAfterAccess(snapshotTimeToLive, timeUnit)
+            .build();
+  }
+
+  /**
+   * Fetch the comments of a video posted since its snapshot, score them and merge them into it.
+   * Only one request per video fetches and scores at a time, without holding the snapshot's lock;
+   * the requests for the video arriving meanwhile wait for that update and share it.
+   *
+   * @param commentAnalysis analysis used to score the new comments
+   * @param videoId video id of the video to have its comments analyzed
+   * @param maxNewComments maximum number of new comments to fetch
+   * @param wordMapSize number of most frequent words to display
+   * @return Statistics of every comment in the updated snapshot
+   */
+  public Statistics run(
+      CommentAnalysis commentAnalysis, String videoId, long maxNewComments, int wordMapSize)
+      throws Exception {
+    VideoSnapshot snapshot;
+    try {
+      snapshot = snapshotByVideoId.get(videoId, VideoSnapshot::new);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Unable to create snapshot of " + videoId, e);
+    }
+    CompletableFuture<Boolean> update;
+    boolean updating = false;
+    synchronized (snapshot) {
+      if (snapshot.update == null) {
+        snapshot.update = new CompletableFuture<>();
+        updating = true;
+      }
+      update = snapshot.update;
+    }
+    if (updating) {
+      try {
+        update.complete(update(snapshot, commentAnalysis, videoId, maxNewComments));
+      } catch (Exception e) {
+        update.completeExceptionally(e);
+      } finally {
+        synchronized (snapshot) {
+          snapshot.update = null;
+        }
+      }
+    }
+    boolean reset;
+    try {
+      reset = update.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+    Statistics statistics;
+    synchronized (snapshot) {
+      statistics = snapshot.accumulator.snapshot(wordMapSize);
+    }
+    if (reset) {
+      statistics.setSnapshotReset(true);
+    }
+    return statistics;
+  }
+
+  /**
+   * Fetch and score the comments posted since the snapshot, then merge them into it. Only the one
+   * request updating the snapshot changes its accumulator, so the lock is only taken to publish it.
+   *
+   * @return whether the snapshot was started over
+   */
+  private boolean update(
+      VideoSnapshot snapshot, CommentAnalysis commentAnalysis, String videoId, long maxNewComments)
+      throws Exception {
+    StatisticsAccumulator accumulator;
+    synchronized (snapshot) {
+      if (snapshot.accumulator == null) {
+        snapshot.accumulator = newAccumulator();
+      }
+      accumulator = snapshot.accumulator;
+    }
+    // One comment more than is added tells whether unseen comments are left behind the new ones
+    List<CommentThreadView> newComments =
+        commentRetriever.retrieveNewComments(
+            videoId, maxNewComments + 1, thread -> accumulator.hasSeen(new UserComment(thread)));
+    boolean reset = false;
+    StatisticsAccumulator updated = accumulator;
+    if (newComments.size() > maxNewComments) {
+      newComments = newComments.subList(0, (int) maxNewComments);
+      // Adding would move the snapshot past the comments left behind, which are never counted
+      reset = !accumulator.isEmpty();
+      updated = newAccumulator();
+    }
+    // Add in publish order, oldest first
+    List<UserComment> scoredComments =
+        commentAnalysis.scoreCommentThreads(Lists.reverse(newComments));
+    synchronized (snapshot) {
+      updated.addAll(scoredComments);
+      snapshot.accumulator = updated;
+    }
+    return reset;
+  }
+
+  private StatisticsAccumulator newAccumulator() {
+    return new StatisticsAccumulator(
+        CommentAnalysis.DEFAULT_TOP_N,
+        new SpaceSavingWordCounter(SNAPSHOT_MONITORED_WORDS),
+        commentRetriever.returnsPlainText());
+  }
+}
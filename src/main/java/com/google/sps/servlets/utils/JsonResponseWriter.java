@@ -0,0 +1,161 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.common.base.Splitter;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes JSON responses, gzipped when the request's Accept-Encoding allows it. Objects are
+ * serialized straight into the response through a JsonWriter, with a Gson instance shared by all
+ * requests, instead of being built into a String first. Cached analysis results are sent with an
+ * entity tag, so a client holding the same result gets 304 Not Modified instead of the body.
+ */
+public class JsonResponseWriter {
+  // Gson is thread-safe once built, and caches its type adapters across requests
+  public static final Gson GSON = new Gson();
+  private static final String JSON_CONTENT_TYPE = "application/json";
+  private static final String GZIP_ENCODING = "gzip";
+  private static final Splitter LIST_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+  private static final Splitter PARAMETER_SPLITTER = Splitter.on(';').trimResults();
+
+  private JsonResponseWriter() {}
+
+  /**
+   * Serialize an object as the JSON body of the response.
+   *
+   * @param request request being answered, read for its Accept-Encoding
+   * @param response response to write the body to
+   * @param value object to serialize
+   */
+  public static void write(HttpServletRequest request, HttpServletResponse response, Object value)
+      throws IOException {
+    setJsonHeaders(response);
+    if (acceptsGzip(request)) {
+      response.setHeader("Content-Encoding", GZIP_ENCODING);
+      GZIPOutputStream gzipStream = new GZIPOutputStream(response.getOutputStream());
+      // Closing finishes the gzip stream and the response body
+      try (Writer writer = new OutputStreamWriter(gzipStream, StandardCharsets.UTF_8)) {
+        writeTo(writer, value);
+      }
+    } else {
+      Writer writer = response.getWriter();
+      writeTo(writer, value);
+      writer.flush();
+    }
+  }
+
+  /**
+   * Send a cached analysis result as the JSON body of the response, or 304 Not Modified if the
+   * request's If-None-Match holds the result's entity tag.
+   *
+   * @param request request being answered, read for its Accept-Encoding and If-None-Match
+   * @param response response to write the body to
+   * @param result result whose JSON is sent
+   */
+  public static void write(
+      HttpServletRequest request, HttpServletResponse response, AnalysisResult result)
+      throws IOException {
+    setJsonHeaders(response);
+    response.setHeader("ETag", result.getEntityTag());
+    if (matchesEntityTag(request.getHeader("If-None-Match"), result.getEntityTag())) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    if (acceptsGzip(request)) {
+      byte[] body = result.getGzippedJson();
+      response.setHeader("Content-Encoding", GZIP_ENCODING);
+      response.setContentLength(body.length);
+      response.getOutputStream().write(body);
+    } else {
+      response.getWriter().write(result.getJson());
+    }
+  }
+
+  private static void setJsonHeaders(HttpServletResponse response) {
+    response.setContentType(JSON_CONTENT_TYPE);
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    // Caches must keep the gzipped and identity bodies apart
+    response.addHeader("Vary", "Accept-Encoding");
+  }
+
+  private static void writeTo(Writer writer, Object value) {
+    JsonWriter jsonWriter = new JsonWriter(writer);
+    GSON.toJson(value, value.getClass(), jsonWriter);
+  }
+
+  /**
+   * @return true if Accept-Encoding lists gzip with a non-zero quality, or does not list gzip but
+   *     lists any encoding with a non-zero quality
+   */
+  static boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    Boolean acceptsAny = null;
+    for (String coding : LIST_SPLITTER.split(acceptEncoding)) {
+      Iterable<String> parameters = PARAMETER_SPLITTER.split(coding);
+      String name = parameters.iterator().next();
+      // An explicit gzip entry takes precedence over the wildcard, wherever each is listed
+      if (name.equalsIgnoreCase(GZIP_ENCODING)) {
+        return !hasZeroQuality(parameters);
+      }
+      if (name.equals("*") && acceptsAny == null) {
+        acceptsAny = !hasZeroQuality(parameters);
+      }
+    }
+    return acceptsAny != null && acceptsAny;
+  }
+
+  private static boolean hasZeroQuality(Iterable<String> parameters) {
+    for (String parameter : parameters) {
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2)) == 0;
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Compare entity tags weakly, as If-None-Match requires. */
+  private static boolean matchesEntityTag(String ifNoneMatch, String entityTag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String opaqueTag = stripWeakPrefix(entityTag);
+    for (String candidate : LIST_SPLITTER.split(ifNoneMatch)) {
+      if (candidate.equals("*") || stripWeakPrefix(candidate).equals(opaqueTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeakPrefix(String entityTag) {
+    return entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.client.util.Key;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Slim view of a commentThreads.list response holding only the fields the analysis reads. Parsing
+ * into it skips the generated model, which keeps every field of the response as a generic map, and
+ * the parsed comments are consumed as they are through CommentThreadView and CommentView.
+ */
+public class LeanCommentPage {
+  // Fields projection requesting exactly what this class holds
+  static final String FIELDS =
+      "nextPageToken,items/snippet/topLevelComment(id,snippet(textDisplay,publishedAt))";
+  // Fields projection that also requests the inline replies and the number of replies
+  static final String FIELDS_WITH_REPLIES =
+      "nextPageToken,items(snippet(totalReplyCount,topLevelComment(id,snippet(textDisplay,"
+          + "publishedAt))),replies/comments(id,snippet(textDisplay,publishedAt)))";
+  // Fields projection of a comments.list response, as read by ReplyPage
+  static final String REPLY_FIELDS = "nextPageToken,items(id,snippet(textDisplay,publishedAt))";
+
+  @Key private String nextPageToken;
+  @Key private List<Item> items;
+
+  /**
+   * @return token of the next page, or null if this is the last page
+   */
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+
+  /**
+   * @return comment threads of the page, with only the projected fields set
+   */
+  public List<CommentThreadView> getItems() {
+    return items == null ? Collections.emptyList() : Collections.unmodifiableList(items);
+  }
+
+  /** Slim view of a comments.list response, which pages through the replies to a comment. */
+  public static class ReplyPage {
+    @Key private String nextPageToken;
+    @Key private List<LeanComment> items;
+
+    /**
+     * @return token of the next page, or null if this is the last page
+     */
+    public String getNextPageToken() {
+      return nextPageToken;
+    }
+
+    /**
+     * @return replies of the page, with only the projected fields set
+     */
+    public List<CommentView> getItems() {
+      return items == null ? Collections.emptyList() : Collections.unmodifiableList(items);
+    }
+  }
+
+  /** Comment thread of the page. */
+  public static class Item implements CommentThreadView {
+    @Key private ThreadSnippet snippet;
+    @Key private Replies replies;
+
+    @Override
+    public CommentView getTopLevelComment() {
+      return snippet.topLevelComment;
+    }
+
+    @Override
+    public Long getTotalReplyCount() {
+      return snippet.totalReplyCount;
+    }
+
+    @Override
+    public List<CommentView> getInlineReplies() {
+      if (replies == null || replies.comments == null) {
+        return Collections.emptyList();
+      }
+      return Collections.unmodifiableList(replies.comments);
+    }
+  }
+
+  /** Snippet of a comment thread. */
+  public static class ThreadSnippet {
+    @Key private Long totalReplyCount;
+    @Key private LeanComment topLevelComment;
+  }
+
+  /** Replies returned inline with a comment thread. */
+  public static class Replies {
+    @Key private List<LeanComment> comments;
+  }
+
+  /** Id, text and publish date of a comment. */
+  public static class LeanComment implements CommentView {
+    @Key private String id;
+    @Key private TextSnippet snippet;
+
+    @Override
+    public String getId() {
+      return id;
+    }
+
+    @Override
+    public String getTextDisplay() {
+      return snippet.textDisplay;
+    }
+
+    @Override
+    public DateTime getPublishedAt() {
+      return snippet.publishedAt;
+    }
+  }
+
+  /** Text and publish date of a comment. */
+  public static class TextSnippet {
+    @Key private String textDisplay;
+    @Key private DateTime publishedAt;
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.gson.Gson;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sentiment repository kept in memory and appended to a local file with one JSON record per line,
+ * for tests and running offline. The file is replayed on construction, later records of a comment
+ * replacing earlier ones.
+ */
+public class LocalFileSentimentRepository implements SentimentRepository {
+  private static final Gson GSON = new Gson();
+
+  private final Path file;
+  private final Map<String, StoredSentiment> sentimentById = new ConcurrentHashMap<>();
+
+  /**
+   * @param file file holding the stored sentiments, created on the first save if missing
+   */
+  public LocalFileSentimentRepository(Path file) {
+    this.file = file;
+    if (Files.exists(file)) {
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (!line.isEmpty()) {
+            StoredSentiment sentiment = GSON.fromJson(line, StoredSentiment.class);
+            sentimentById.put(sentiment.getCommentId(), sentiment);
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to read sentiment store " + file, e);
+      }
+    }
+  }
+
+  @Override
+  public Map<String, StoredSentiment> findAll(Collection<String> commentIds) {
+    Map<String, StoredSentiment> foundById = new HashMap<>();
+    for (String commentId : commentIds) {
+      StoredSentiment sentiment = sentimentById.get(commentId);
+      if (sentiment != null) {
+        foundById.put(commentId, sentiment);
+      }
+    }
+    return foundById;
+  }
+
+  @Override
+  public synchronized void saveAll(Collection<StoredSentiment> sentiments) {
+    try (Writer writer =
+        Files.newBufferedWriter(
+            file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      for (StoredSentiment sentiment : sentiments) {
+        writer.write(GSON.toJson(sentiment));
+        writer.write('\n');
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to write sentiment store " + file, e);
+    }
+    sentiments.forEach(sentiment -> sentimentById.put(sentiment.getCommentId(), sentiment));
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands progress snapshots of a running analysis to the streams showing it. The analysis thread
+ * only replaces the latest snapshot, so a slow client never holds up scoring; each stream reads the
+ * latest snapshot when it is ready to write and skips the ones it missed. Once every stream has
+ * gone, publishing fails, which stops the run.
+ */
+public class ProgressHandoff {
+  private final AtomicReference<Statistics> latest = new AtomicReference<>();
+  private final AtomicInteger numSubscribers = new AtomicInteger();
+
+  /** Register a stream showing the analysis. */
+  public void subscribe() {
+    numSubscribers.incrementAndGet();
+  }
+
+  /**
+   * Unregister a stream that is done or disconnected.
+   *
+   * @return whether streams still show the analysis
+   */
+  public boolean unsubscribe() {
+    return numSubscribers.decrementAndGet() > 0;
+  }
+
+  /**
+   * Replace the latest snapshot without waiting for the streams.
+   *
+   * @param statistics Statistics of the comments scored so far
+   * @throws CancellationException if no stream shows the analysis anymore
+   */
+  public void publish(Statistics statistics) {
+    if (numSubscribers.get() == 0) {
+      throw new CancellationException("Every stream of the analysis disconnected.");
+    }
+    latest.set(statistics);
+  }
+
+  /**
+   * @return the latest snapshot, or null if none was published yet; every snapshot is a new object,
+   *     so streams tell a new one from the one they last sent by identity
+   */
+  public Statistics getLatest() {
+    return latest.get();
+  }
+}
@@ -0,0 +1,59 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Quota units one job, such as a batch of videos, may spend on YouTube API requests. Units are
+ * charged for each request a retriever actually sends, so pages read from a fetch shared with other
+ * requests cost nothing, and requests beyond the budget are refused before they reach the limiter.
+ */
+public class QuotaBudget {
+  private final long budgetUnits;
+  private final AtomicLong spentUnits = new AtomicLong();
+
+  /**
+   * @param budgetUnits quota units the job may spend, at least 1
+   */
+  public QuotaBudget(long budgetUnits) {
+    if (budgetUnits < 1) {
+      throw new IllegalArgumentException("A quota budget needs at least one unit: " + budgetUnits);
+    }
+    this.budgetUnits = budgetUnits;
+  }
+
+  /**
+   * Charge the units of a request about to be sent.
+   *
+   * @param units quota units the request costs
+   * @throws YouTubeQuotaException if the request would exceed the budget; it is not sent then
+   */
+  public void spend(int units) throws YouTubeQuotaException {
+    long spent = spentUnits.addAndGet(units);
+    if (spent > budgetUnits) {
+      spentUnits.addAndGet(-units);
+      // The budget is not refilled, so there is no point in retrying
+      throw new YouTubeQuotaException("Quota budget of the job is used up.", 0);
+    }
+  }
+
+  /**
+   * @return quota units charged so far
+   */
+  public long getSpentUnits() {
+    return spentUnits.get();
+  }
+}
@@ -0,0 +1,56 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.cloud.language.v1.Sentiment;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+
+/**
+ * Stores sentiment results by comment content so that identical comments, within one analysis or
+ * across analyses, are only sent to the Natural Language API once.
+ */
+public interface SentimentCache {
+  /**
+   * Look up the sentiment previously stored for a comment text.
+   *
+   * @param commentMsg content of the comment
+   * @return stored sentiment, or null if the text has not been scored or its entry expired
+   */
+  Sentiment get(String commentMsg);
+
+  /**
+   * Store the sentiment computed for a comment text.
+   *
+   * @param commentMsg content of the comment
+   * @param sentiment sentiment returned by the Natural Language API
+   */
+  void put(String commentMsg, Sentiment sentiment);
+
+  /**
+   * Hash the normalized comment text, so that texts differing only in Unicode composition or
+   * surrounding and repeated whitespace share an entry.
+   *
+   * @param commentMsg content of the comment
+   * @return SHA-256 hash of the normalized content
+   */
+  static HashCode hashOf(String commentMsg) {
+    String normalizedMsg =
+        Normalizer.normalize(commentMsg, Normalizer.Form.NFC).trim().replaceAll("\\s+", " ");
+    return Hashing.sha256().hashString(normalizedMsg, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Counts comments into SCORE_INTERVAL wide sentiment buckets from LOWER_SCORE to UPPER_SCORE and
+ * keeps the comments with the highest magnitude in each bucket. Each comment is placed in a single
+ * pass with primitive arithmetic; bucket boundaries are still defined in exact decimal arithmetic,
+ * so a score on a boundary such as -0.6 lands in the same bucket as before.
+ */
+public class SentimentHistogram {
+  private static final double LOWER_SCORE_VAL = -1.0;
+  private static final double UPPER_SCORE_VAL = 1.0;
+  private static final double SCORE_INTERVAL_VAL = 0.2;
+  private static final BigDecimal SCORE_INTERVAL = BigDecimal.valueOf(SCORE_INTERVAL_VAL);
+  private static final BigDecimal UPPER_SCORE = BigDecimal.valueOf(UPPER_SCORE_VAL);
+  private static final BigDecimal LOWER_SCORE = BigDecimal.valueOf(LOWER_SCORE_VAL);
+  // Ranges of all buckets in ascending order; the last one also holds UPPER_SCORE itself
+  private static final List<Range> BUCKET_RANGES = createBucketRanges();
+  private static final int NUM_BUCKETS = BUCKET_RANGES.size();
+  // Closest double to each bucket's inclusive start, used to correct the computed index
+  private static final double[] BUCKET_STARTS =
+      BUCKET_RANGES.stream()
+          .mapToDouble(range -> range.getInclusiveStart().doubleValue())
+          .toArray();
+
+  private final int topNComments;
+  private final int[] frequencies = new int[NUM_BUCKETS];
+  // Per bucket, up to topNComments comments in ascending order of magnitude, then score
+  private final UserComment[][] topComments;
+  private final int[] numTopComments = new int[NUM_BUCKETS];
+
+  /**
+   * Constructor of an empty histogram.
+   *
+   * @param topNComments the number of highest magnitudes to keep per bucket
+   */
+  public SentimentHistogram(int topNComments) {
+    this.topNComments = topNComments;
+    this.topComments = new UserComment[NUM_BUCKETS][topNComments];
+  }
+
+  private static List<Range> createBucketRanges() {
+    List<Range> bucketRanges = new ArrayList<>();
+    for (BigDecimal tempPoint = LOWER_SCORE;
+        tempPoint.compareTo(UPPER_SCORE) < 0;
+        tempPoint = tempPoint.add(SCORE_INTERVAL)) {
+      BigDecimal nextPoint = UPPER_SCORE.min(tempPoint.add(SCORE_INTERVAL));
+      bucketRanges.add(new Range(tempPoint, nextPoint));
+    }
+    return Collections.unmodifiableList(bucketRanges);
+  }
+
+  /**
+   * Find the bucket of a score. Scores below LOWER_SCORE fall into the first bucket and scores at
+   * or above UPPER_SCORE into the last one.
+   *
+   * @param score sentiment score of a comment
+   * @return index of the bucket whose range holds the score
+   */
+  static int findBucketIndex(double score) {
+    int bucketIndex = (int) Math.floor((score - LOWER_SCORE_VAL) / SCORE_INTERVAL_VAL);
+    bucketIndex = Math.max(0, Math.min(NUM_BUCKETS - 1, bucketIndex));
+    // The division may be off by one next to a boundary, so compare against the boundaries
+    while (bucketIndex > 0 && score < BUCKET_STARTS[bucketIndex]) {
+      bucketIndex--;
+    }
+    while (bucketIndex < NUM_BUCKETS - 1 && score >= BUCKET_STARTS[bucketIndex + 1]) {
+      bucketIndex++;
+    }
+    return bucketIndex;
+  }
+
+  /**
+   * Count a comment in its bucket and keep it if it is among the bucket's top N magnitudes.
+   *
+   * @param comment userComment with updated score and magnitude
+   */
+  public void add(UserComment comment) {
+    int bucketIndex = findBucketIndex(comment.getScore());
+    frequencies[bucketIndex]++;
+    addToTopComments(comment, topComments[bucketIndex], bucketIndex);
+  }
+
+  /**
+   * Add the counts and top comments of another histogram, as if its comments had been added here
+   * after this histogram's own.
+   *
+   * @param other histogram to merge in, left unchanged
+   * @throws IllegalArgumentException if other keeps a different number of top comments
+   */
+  public void merge(SentimentHistogram other) {
+    if (other.topNComments != topNComments) {
+      throw new IllegalArgumentException(
+          "Cannot merge histograms keeping " + other.topNComments + " and " + topNComments);
+    }
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      frequencies[i] += other.frequencies[i];
+      // In ascending order, so ties keep the same order as adding the comments one by one
+      for (int j = 0; j < other.numTopComments[i]; j++) {
+        addToTopComments(other.topComments[i][j], topComments[i], i);
+      }
+    }
+  }
+
+  /**
+   * Insert a comment into a bucket's sorted top comments. When the bucket is full the comment
+   * replaces the lowest one if it ranks at least as high; on equal magnitude the higher score ranks
+   * higher, and on equal score as well the later comment wins.
+   */
+  private void addToTopComments(UserComment comment, UserComment[] bucketTop, int bucketIndex) {
+    int size = numTopComments[bucketIndex];
+    if (topNComments == 0) {
+      return;
+    }
+    if (size == topNComments) {
+      if (compareRank(comment, bucketTop[0]) < 0) {
+        return;
+      }
+      // Drop the lowest ranked comment
+      System.arraycopy(bucketTop, 1, bucketTop, 0, size - 1);
+      size--;
+    }
+    int insertIndex = size;
+    while (insertIndex > 0 && compareRank(bucketTop[insertIndex - 1], comment) > 0) {
+      bucketTop[insertIndex] = bucketTop[insertIndex - 1];
+      insertIndex--;
+    }
+    bucketTop[insertIndex] = comment;
+    numTopComments[bucketIndex] = size + 1;
+  }
+
+  private static int compareRank(UserComment first, UserComment second) {
+    int magnitudeOrder = Double.compare(first.getMagnitude(), second.getMagnitude());
+    return magnitudeOrder != 0
+        ? magnitudeOrder
+        : Double.compare(first.getScore(), second.getScore());
+  }
+
+  /**
+   * @return sentiment buckets in ascending order of range, each with its frequency and top comments
+   *     in ascending order of magnitude
+   */
+  public List<SentimentBucket> toBucketList() {
+    List<SentimentBucket> sentimentBucketList = new ArrayList<>(NUM_BUCKETS);
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      sentimentBucketList.add(
+          new SentimentBucket(
+              new ArrayList<>(Arrays.asList(topComments[i]).subList(0, numTopComments[i])),
+              frequencies[i],
+              BUCKET_RANGES.get(i)));
+    }
+    return sentimentBucketList;
+  }
+}
@@ -0,0 +1,34 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.Collection;
+import java.util.Map;
+
+/** Persistent store of comment sentiments, read and written in batches. */
+public interface SentimentRepository {
+  /**
+   * @param commentIds ids of the comments to look up
+   * @return stored sentiments of the comments found, keyed by comment id
+   */
+  Map<String, StoredSentiment> findAll(Collection<String> commentIds);
+
+  /**
+   * Store sentiments, replacing any stored for the same comment ids.
+   *
+   * @param sentiments sentiments to store
+   */
+  void saveAll(Collection<StoredSentiment> sentiments);
+}
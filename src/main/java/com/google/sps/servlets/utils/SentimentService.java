@@ -0,0 +1,197 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.LanguageServiceSettings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application-scoped access to the Natural Language API. A single client, with its gRPC channels
+ * and credentials, is created on first use and shared by every request, together with the sentiment
+ * cache. A semaphore caps the number of sentiment calls in flight across all requests.
+ */
+public class SentimentService {
+  private static final int DEFAULT_CHANNEL_POOL_SIZE = 2;
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 32;
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+  // System property naming a local file to store sentiments in instead of Datastore
+  private static final String SENTIMENT_STORE_FILE_PROPERTY = "sentiment-store-file";
+  private static SentimentService sharedInstance;
+
+  private final LanguageServiceClient languageService;
+  private final SentimentCache sentimentCache;
+  private final Semaphore requestPermits;
+  private final ExecutorService sentimentExecutor;
+  // Null when sentiments are not persisted
+  private SentimentRepository sentimentRepository;
+
+  /**
+   * Constructor for mocked test to pass in mocked language client service.
+   *
+   * @param languageService language service that has been created
+   */
+  public SentimentService(LanguageServiceClient languageService) {
+    this(languageService, new InMemorySentimentCache());
+  }
+
+  /**
+   * Constructor for mocked test to pass in mocked language client service and sentiment cache.
+   *
+   * @param languageService language service that has been created
+   * @param sentimentCache cache shared by every analysis using this service
+   */
+  public SentimentService(LanguageServiceClient languageService, SentimentCache sentimentCache) {
+    this(languageService, sentimentCache, DEFAULT_MAX_CONCURRENT_REQUESTS);
+  }
+
+  /**
+   * Constructor to pass in a language service, cache and concurrency limit.
+   *
+   * @param languageService language service that has been created
+   * @param sentimentCache cache shared by every analysis using this service
+   * @param maxConcurrentRequests maximum number of sentiment calls in flight at once, which is also
+   *     the number of threads of the sentiment executor
+   */
+  public SentimentService(
+      LanguageServiceClient languageService,
+      SentimentCache sentimentCache,
+      int maxConcurrentRequests) {
+    this.languageService = languageService;
+    this.sentimentCache = sentimentCache;
+    this.requestPermits = new Semaphore(maxConcurrentRequests);
+    this.sentimentExecutor =
+        Executors.newFixedThreadPool(
+            maxConcurrentRequests,
+            new ThreadFactoryBuilder().setNameFormat("sentiment-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Get the service shared by all requests, creating its client on first use.
+   *
+   * @return the application-scoped sentiment service
+   * @throws IOException error when the language service cannot be started successfully
+   */
+  public static synchronized SentimentService getSharedInstance() throws IOException {
+    if (sharedInstance == null) {
+      LanguageServiceSettings settings =
+          LanguageServiceSettings.newBuilder()
+              .setTransportChannelProvider(
+                  LanguageServiceSettings.defaultGrpcTransportProviderBuilder()
+                      .setPoolSize(DEFAULT_CHANNEL_POOL_SIZE)
+                      .build())
+              .build();
+      sharedInstance =
+          new SentimentService(
+              LanguageServiceClient.create(settings),
+              new InMemorySentimentCache(),
+              DEFAULT_MAX_CONCURRENT_REQUESTS);
+      String sentimentStoreFile = System.getProperty(SENTIMENT_STORE_FILE_PROPERTY);
+      sharedInstance.setSentimentRepository(
+          sentimentStoreFile != null
+              ? new LocalFileSentimentRepository(Paths.get(sentimentStoreFile))
+              : new DatastoreSentimentRepository());
+    }
+    return sharedInstance;
+  }
+
+  /** Close the shared service, if it was ever created, waiting for in-flight calls to finish. */
+  public static synchronized void shutdownSharedInstance() {
+    if (sharedInstance != null) {
+      sharedInstance.close();
+      sharedInstance = null;
+    }
+  }
+
+  public SentimentCache getSentimentCache() {
+    return sentimentCache;
+  }
+
+  /**
+   * @return repository that persists sentiments across restarts, or null if there is none
+   */
+  public SentimentRepository getSentimentRepository() {
+    return sentimentRepository;
+  }
+
+  /**
+   * Set the repository every analysis using this service reads and writes sentiments through.
+   *
+   * @param sentimentRepository repository to use, or null to not persist sentiments
+   */
+  public void setSentimentRepository(SentimentRepository sentimentRepository) {
+    this.sentimentRepository = sentimentRepository;
+  }
+
+  /**
+   * @return executor dedicated to blocking sentiment calls
+   */
+  public Executor getSentimentExecutor() {
+    return sentimentExecutor;
+  }
+
+  /**
+   * Analyze the sentiment of a single document once a request permit is available.
+   *
+   * @param document document to analyze
+   * @return response of the language service
+   */
+  public AnalyzeSentimentResponse analyzeSentiment(Document document) {
+    requestPermits.acquireUninterruptibly();
+    try {
+      return languageService.analyzeSentiment(document);
+    } finally {
+      requestPermits.release();
+    }
+  }
+
+  /**
+   * Analyze the sentiment of a request once a request permit is available.
+   *
+   * @param request request to send
+   * @return response of the language service
+   */
+  public AnalyzeSentimentResponse analyzeSentiment(AnalyzeSentimentRequest request) {
+    requestPermits.acquireUninterruptibly();
+    try {
+      return languageService.analyzeSentiment(request);
+    } finally {
+      requestPermits.release();
+    }
+  }
+
+  /** Stop accepting calls and release the executor and the client's channels. */
+  public void close() {
+    sentimentExecutor.shutdown();
+    languageService.shutdown();
+    try {
+      languageService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      languageService.close();
+    }
+  }
+}
@@ -0,0 +1,233 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Approximate word counter using the SpaceSaving algorithm. At most capacity words are monitored at
+ * a time; a new word replaces the least frequent one and inherits its count as error. Memory is
+ * fixed by the capacity regardless of vocabulary size, and with n words counted every reported
+ * count exceeds the true count by at most n / capacity. Any word appearing more than n / capacity
+ * times is guaranteed to be monitored.
+ */
+public class SpaceSavingWordCounter implements WordCounter {
+  private static final Comparator<Counter> DESCENDING_RANK_COMPARATOR =
+      Comparator.<Counter>comparingInt(counter -> counter.count)
+          .reversed()
+          .thenComparing(counter -> counter.word);
+
+  private final Map<String, Counter> counterByWord;
+  // Binary min-heap on count; each counter tracks its own index for in-place updates
+  private final Counter[] heap;
+  private int size = 0;
+
+  /**
+   * @param capacity maximum number of words monitored at a time
+   */
+  public SpaceSavingWordCounter(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    counterByWord = new HashMap<>(capacity * 4 / 3 + 1);
+    heap = new Counter[capacity];
+  }
+
+  /**
+   * Create a counter whose counts exceed the true counts by at most errorRate times the number of
+   * words counted.
+   *
+   * @param errorRate maximum error as a fraction of the number of words counted, in (0, 1]
+   * @return a counter monitoring ceil(1 / errorRate) words
+   */
+  public static SpaceSavingWordCounter withErrorRate(double errorRate) {
+    if (!(errorRate > 0 && errorRate <= 1)) {
+      throw new IllegalArgumentException("errorRate must be in (0, 1]");
+    }
+    return new SpaceSavingWordCounter((int) Math.ceil(1 / errorRate));
+  }
+
+  @Override
+  public void add(String word) {
+    Counter counter = counterByWord.get(word);
+    if (counter != null) {
+      counter.count++;
+      siftDown(counter.heapIndex);
+    } else if (size < heap.length) {
+      counter = new Counter(word, size);
+      heap[size++] = counter;
+      counterByWord.put(word, counter);
+      siftUp(counter.heapIndex);
+    } else {
+      // Replace the least frequent word; the new word may have appeared up to that many times
+      counter = heap[0];
+      counterByWord.remove(counter.word);
+      counter.word = word;
+      counter.error = counter.count;
+      counter.count++;
+      counterByWord.put(word, counter);
+      siftDown(0);
+    }
+  }
+
+  @Override
+  public int getCount(String word) {
+    Counter counter = counterByWord.get(word);
+    return counter == null ? 0 : counter.count;
+  }
+
+  /**
+   * @param word word to look up
+   * @return how much getCount(word) may exceed the true count
+   */
+  public int getError(String word) {
+    Counter counter = counterByWord.get(word);
+    return counter == null ? 0 : counter.error;
+  }
+
+  @Override
+  public Map<String, Integer> topWords(int k) {
+    Counter[] ranked = Arrays.copyOf(heap, size);
+    Arrays.sort(ranked, DESCENDING_RANK_COMPARATOR);
+    Map<String, Integer> topWordMap = new LinkedHashMap<>();
+    for (int i = 0; i < Math.min(k, ranked.length); i++) {
+      topWordMap.put(ranked[i].word, ranked[i].count);
+    }
+    return topWordMap;
+  }
+
+  /**
+   * Merge another summary: a word missing from a full summary may have appeared up to that
+   * summary's minimum count, so it is counted with that much added to both its count and error. The
+   * capacity most frequent words of the union are kept.
+   */
+  @Override
+  public void merge(WordCounter other) {
+    if (!(other instanceof SpaceSavingWordCounter)) {
+      throw new IllegalArgumentException("Cannot merge " + other.getClass().getSimpleName());
+    }
+    SpaceSavingWordCounter otherCounter = (SpaceSavingWordCounter) other;
+    int missingCount = getMinCount();
+    int otherMissingCount = otherCounter.getMinCount();
+    Map<String, Counter> mergedByWord = new HashMap<>();
+    for (Counter counter : otherCounter.counterByWord.values()) {
+      Counter merged = new Counter(counter.word, 0);
+      merged.count = counter.count + missingCount;
+      merged.error = counter.error + missingCount;
+      mergedByWord.put(counter.word, merged);
+    }
+    for (Counter counter : counterByWord.values()) {
+      Counter merged = mergedByWord.get(counter.word);
+      if (merged == null) {
+        merged = new Counter(counter.word, 0);
+        merged.count = counter.count + otherMissingCount;
+        merged.error = counter.error + otherMissingCount;
+        mergedByWord.put(counter.word, merged);
+      } else {
+        // Both summaries monitor the word, so undo the allowance for missing it here
+        merged.count += counter.count - missingCount;
+        merged.error += counter.error - missingCount;
+      }
+    }
+    Counter[] ranked = mergedByWord.values().toArray(new Counter[0]);
+    Arrays.sort(ranked, DESCENDING_RANK_COMPARATOR);
+    counterByWord.clear();
+    size = 0;
+    for (int i = 0; i < Math.min(heap.length, ranked.length); i++) {
+      heap[size++] = ranked[i];
+      counterByWord.put(ranked[i].word, ranked[i]);
+    }
+    // Descending order is a valid min-heap once reversed
+    for (int i = 0; i < size / 2; i++) {
+      Counter swapped = heap[i];
+      heap[i] = heap[size - 1 - i];
+      heap[size - 1 - i] = swapped;
+    }
+    for (int i = 0; i < size; i++) {
+      heap[i].heapIndex = i;
+    }
+  }
+
+  /**
+   * @return the largest error of a monitored word, which is at most the number of words counted
+   *     divided by the capacity; 0 while no word has been replaced
+   */
+  @Override
+  public int getMaxError() {
+    int maxError = 0;
+    for (int i = 0; i < size; i++) {
+      maxError = Math.max(maxError, heap[i].error);
+    }
+    return maxError;
+  }
+
+  // Upper bound on the count of any word not monitored
+  private int getMinCount() {
+    return size < heap.length ? 0 : heap[0].count;
+  }
+
+  private void siftUp(int index) {
+    Counter counter = heap[index];
+    while (index > 0) {
+      int parent = (index - 1) / 2;
+      if (heap[parent].count <= counter.count) {
+        break;
+      }
+      place(heap[parent], index);
+      index = parent;
+    }
+    place(counter, index);
+  }
+
+  private void siftDown(int index) {
+    Counter counter = heap[index];
+    while (true) {
+      int child = 2 * index + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+        child++;
+      }
+      if (counter.count <= heap[child].count) {
+        break;
+      }
+      place(heap[child], index);
+      index = child;
+    }
+    place(counter, index);
+  }
+
+  private void place(Counter counter, int index) {
+    heap[index] = counter;
+    counter.heapIndex = index;
+  }
+
+  private static class Counter {
+    private String word;
+    private int count = 1;
+    private int error = 0;
+    private int heapIndex;
+
+    private Counter(String word, int heapIndex) {
+      this.word = word;
+      this.heapIndex = heapIndex;
+    }
+  }
+}
@@ -14,36 +14,30 @@
 
 package com.google.sps.servlets.utils;
 
-import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import net.htmlparser.jericho.Source;
 
 public class Statistics {
-  private static final int MAXIMUM_WORDMAP_SIZE = 10;
+  static final int DEFAULT_WORDMAP_SIZE = 10;
   private static final int MINIMUM_WORDMAP_SIZE = 2;
-  private static final double LOWER_SCORE_VAL = -1.0;
-  private static final double UPPER_SCORE_VAL = 1.0;
-  private static final double SCORE_INTERVAL_VAL = 0.2;
-  private static final BigDecimal SCORE_INTERVAL = BigDecimal.valueOf(SCORE_INTERVAL_VAL);
-  private static final BigDecimal UPPER_SCORE = BigDecimal.valueOf(UPPER_SCORE_VAL);
-  private static final BigDecimal LOWER_SCORE = BigDecimal.valueOf(LOWER_SCORE_VAL);
-  private static final Comparator<UserComment> ascendingScoreComparator =
-      (UserComment o1, UserComment o2) -> Double.compare(o1.getScore(), o2.getScore());
-  private static final Comparator<UserComment> descendingMagnitudeComparator =
-      (UserComment o1, UserComment o2) -> Double.compare(o1.getMagnitude(), o2.getMagnitude());
 
   // Contains sentiment bucket information for all SCORE_INTERVALs
   private List<SentimentBucket> sentimentBucketList;
   private Map<String, Integer> wordFrequencyMap;
+  // Largest amount by which a count in wordFrequencyMap may exceed the true count
+  private int wordFrequencyMaxError;
   private double averageMagnitude;
   private double averageScore;
+  // Number of comments with a score
+  private long numComments;
+  // Statistics of the replies to the comments, only set when replies are analyzed
+  private Statistics replyStatistics;
+  // Only set on reply statistics: number of comment threads with more replies than the reply page
+  // limit lets through, whose remaining replies are left out
+  private Long numTruncatedThreads;
+  // Only set in incremental mode, when more comments were posted since the last run than a run
+  // fetches; the aggregate then restarts from the newest comments instead of skipping the others
+  private Boolean snapshotReset;
 
   public List<SentimentBucket> getSentimentBucketList() {
     return sentimentBucketList;
@@ -61,162 +55,102 @@ public class Statistics {
     return wordFrequencyMap;
   }
 
+  public int getWordFrequencyMaxError() {
+    return wordFrequencyMaxError;
+  }
+
+  public long getNumComments() {
+    return numComments;
+  }
+
+  public Statistics getReplyStatistics() {
+    return replyStatistics;
+  }
+
+  void setReplyStatistics(Statistics replyStatistics) {
+    this.replyStatistics = replyStatistics;
+  }
+
   /**
-   * Constructor of Statistics to get average score and magnitude and create aggregate sorted
-   * sentiment bucket list based on SCORE_INTERVALs' ascending ranges.
-   *
-   * @param userCommentList given list of userComment objects
-   * @param topNComments the number of highest magnitudes to retrieve
+   * @return number of comment threads whose replies were cut off, on reply statistics; null
+   *     otherwise
    */
-  public Statistics(List<UserComment> userCommentList, int topNComments) {
-    sentimentBucketList = categorizeToBucketList(userCommentList, topNComments);
-    averageScore = getAverageValue(userCommentList, "score");
-    averageMagnitude = getAverageValue(userCommentList, "Magnitude");
-    wordFrequencyMap = countWordFrequencyMap(userCommentList);
+  public Long getNumTruncatedThreads() {
+    return numTruncatedThreads;
+  }
+
+  void setNumTruncatedThreads(Long numTruncatedThreads) {
+    this.numTruncatedThreads = numTruncatedThreads;
   }
 
   /**
-   * Convert given userCommentList into a word map: {word: frequency}
-   *
-   * @param userCommentList a list of userComment with all fields updated
-   * @return wordFrequencyMap to represent each word appearance time
+   * @return true if this incremental run dropped the comments aggregated before it, null otherwise
    */
-  private Map<String, Integer> countWordFrequencyMap(List<UserComment> userCommentList) {
-    List<String> wordsToIgnore = CommonWordsRetriever.getCommonWords();
-    // Flatten all user comment message into a list of words
-    Stream<String> allWordStream =
-        // Text extractor removes all HTML tags and returns only the text
-        userCommentList.stream()
-            .map(
-                comment ->
-                    new Source(comment.getCommentMsg())
-                        .getTextExtractor()
-                        .toString()
-                        .replaceAll("[^a-zA-Z0-9\\s]", "")
-                        .toLowerCase()
-                        .split("\\s+"))
-            .flatMap(wordArray -> Arrays.stream(wordArray))
-            .filter(word -> !(wordsToIgnore.contains(word) || word.equals("")));
-    // Group and sum the appearances of each word
-    Map<String, Integer> wordPairMap =
-        allWordStream.collect(
-            Collectors.groupingBy(word -> word, Collectors.summingInt(word -> 1)));
-
-    return wordPairMap.entrySet().stream()
-        .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-        .limit(MAXIMUM_WORDMAP_SIZE)
-        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+  public Boolean getSnapshotReset() {
+    return snapshotReset;
+  }
+
+  void setSnapshotReset(Boolean snapshotReset) {
+    this.snapshotReset = snapshotReset;
   }
 
   /**
-   * Categorize all score values into different range SCORE_INTERVALs and count the frequency for
-   * each SCORE_INTERVAL, and set the aggregatedValues.
+   * Constructor of Statistics to get average score and magnitude and create aggregate sorted
+   * sentiment bucket list based on SCORE_INTERVALs' ascending ranges.
    *
-   * @param userCommentList a list of userComment analyzed from sentiment analysis with upadted
-   *     score and magnitude
-   * @return a categorized map based on userCommentList from LOWER_SCORE to UPPER_SCORE with
-   *     SCORE_INTERVAL
+   * @param userCommentList given list of userComment objects
+   * @param topNComments the number of highest magnitudes to retrieve
    */
-  private List<SentimentBucket> categorizeToBucketList(
-      List<UserComment> userCommentList, int topNumComments) {
-    List<SentimentBucket> sentimentBucketList = new ArrayList<>();
-    // Add score's SCORE_INTERVAL to different ranges two sorting with and two pointers pop-up
-    userCommentList.sort(ascendingScoreComparator);
-    int updatingScoreIdx = 0;
-    BigDecimal tempPoint;
-    for (tempPoint = LOWER_SCORE;
-        tempPoint.compareTo(UPPER_SCORE) < 0;
-        tempPoint = tempPoint.add(SCORE_INTERVAL)) {
-      BigDecimal nextPoint = UPPER_SCORE.min(tempPoint.add(SCORE_INTERVAL));
-      Range currentRange = new Range(tempPoint, nextPoint);
-      int currentFrequency = 0;
-      PriorityQueue<UserComment> descendingCommentMagnitudeQueue =
-          new PriorityQueue<>(topNumComments, descendingMagnitudeComparator);
-      // loop through sorted scores within currentRange from updated score pointer, update its
-      // corresponding appearance frequency, and store the comments with topNumComments high
-      // magnitude
-      for (updatingScoreIdx = updatingScoreIdx;
-          updatingScoreIdx < userCommentList.size();
-          updatingScoreIdx++) {
-        BigDecimal scorePoint =
-            BigDecimal.valueOf(userCommentList.get(updatingScoreIdx).getScore());
-        if ((scorePoint.compareTo(nextPoint) < 0) || nextPoint.compareTo(UPPER_SCORE) == 0) {
-          currentFrequency += 1;
-          addToFixedQueue(
-              userCommentList.get(updatingScoreIdx),
-              descendingCommentMagnitudeQueue,
-              topNumComments);
-        } else {
-          break;
-        }
-      }
-      sentimentBucketList.add(
-          new SentimentBucket(
-              convertQueueToDescendingList(descendingCommentMagnitudeQueue),
-              currentFrequency,
-              currentRange));
-    }
-    return sentimentBucketList;
+  public Statistics(List<UserComment> userCommentList, int topNComments) {
+    this(userCommentList, topNComments, DEFAULT_WORDMAP_SIZE);
   }
 
   /**
-   * Convert a priority queue of userComments with high magnitude to a list of userComments with
-   * descending magnitudes. Note: direcly call toArray() will not preserve the order of priority
-   * queue
+   * Constructor of Statistics with a configured number of words in the word map.
    *
-   * @param inputQueue fixed size priority queue that stores userComment based on descending order
-   *     of magnitude
-   * @return a list of userComment with descending magnitudes
+   * @param userCommentList given list of userComment objects
+   * @param topNComments the number of highest magnitudes to retrieve
+   * @param wordMapSize the number of most frequent words to retrieve
    */
-  private ArrayList<UserComment> convertQueueToDescendingList(
-      PriorityQueue<UserComment> inputQueue) {
-    ArrayList<UserComment> returnList = new ArrayList<>();
-    while (!inputQueue.isEmpty()) {
-      returnList.add(inputQueue.poll());
-    }
-    return returnList;
+  public Statistics(List<UserComment> userCommentList, int topNComments, int wordMapSize) {
+    this(userCommentList, topNComments, wordMapSize, new ExactWordCounter());
   }
 
   /**
-   * Set the average value of given sentiment magnitude.
+   * Constructor of Statistics counting words with the given counter, which may be approximate.
    *
-   * @param userCommentList a list of userComment to calculate the average value or magnitude for
-   * @param scoreMagCheck parameter to set whether it it returns average score or magnitude
-   * @return the average score or magnitude of userCommentList
+   * @param userCommentList given list of userComment objects
+   * @param topNComments the number of highest magnitudes to retrieve
+   * @param wordMapSize the number of most frequent words to retrieve
+   * @param wordCounter empty counter used to count word frequencies
    */
-  private double getAverageValue(List<UserComment> userCommentList, String scoreMagCheck) {
-    return userCommentList.stream()
-        .mapToDouble(
-            userComment ->
-                scoreMagCheck == "score" ? userComment.getScore() : userComment.getMagnitude())
-        .average()
-        .orElseThrow(
-            () ->
-                new RuntimeException(
-                    "Unable to calculate average magnitude due to empty input list."));
+  public Statistics(
+      List<UserComment> userCommentList,
+      int topNComments,
+      int wordMapSize,
+      WordCounter wordCounter) {
+    this(accumulate(userCommentList, topNComments, wordCounter), wordMapSize);
   }
 
   /**
-   * Add a new comment to priority queue. If the priority queue has not been filled to maxQueueSize,
-   * directly add the comment in; If the last element in priority queue has smaller magnitude,
-   * replace that with new comment; If they have the same magnitude, replace the last element with
-   * new incoming comment that has higher score.
+   * Constructor of Statistics from a snapshot of aggregated comments.
    *
-   * @param newComment userComment to add into currentQueue
-   * @param currentQueue priority queue of userComment sorted based on descending order of magnitude
-   * @param maxQueueSize maximum size of priority queue
+   * @param accumulator aggregation state of the comments
+   * @param wordMapSize the number of most frequent words to retrieve
    */
-  private void addToFixedQueue(
-      UserComment newComment, PriorityQueue<UserComment> currentQueue, int maxQueueSize) {
-    UserComment commentToAdd = newComment;
-    if (currentQueue.size() == maxQueueSize) {
-      commentToAdd = currentQueue.poll();
-      // Since userCommentList has been sorted, if newComment and commentToAdd have same magnitude,
-      // add newComment since it has higher score.
-      if (newComment.getMagnitude() >= commentToAdd.getMagnitude()) {
-        commentToAdd = newComment;
-      }
-    }
-    currentQueue.add(commentToAdd);
+  Statistics(StatisticsAccumulator accumulator, int wordMapSize) {
+    sentimentBucketList = accumulator.getSentimentBucketList();
+    averageScore = accumulator.getAverageScore();
+    averageMagnitude = accumulator.getAverageMagnitude();
+    wordFrequencyMap = accumulator.getTopWords(wordMapSize);
+    wordFrequencyMaxError = accumulator.getWordFrequencyMaxError();
+    numComments = accumulator.getNumComments();
+  }
+
+  private static StatisticsAccumulator accumulate(
+      List<UserComment> userCommentList, int topNComments, WordCounter wordCounter) {
+    StatisticsAccumulator accumulator = new StatisticsAccumulator(topNComments, wordCounter);
+    accumulator.addAll(userCommentList);
+    return accumulator;
   }
 }
@@ -0,0 +1,209 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.htmlparser.jericho.Source;
+
+/**
+ * Aggregation state behind Statistics: sentiment bucket counts with the top comments per bucket,
+ * word counts, and score and magnitude sums. Comments can be added at any time and a Statistics
+ * snapshot taken after each batch, so an aggregate can be kept and extended with new comments
+ * instead of being recomputed from all of them. Accumulators filled separately, such as one per
+ * thread, can be merged into one. Also remembers the newest comments added, so that comments
+ * fetched newest first can be checked against what was already counted.
+ */
+public class StatisticsAccumulator {
+  private final SentimentHistogram sentimentHistogram;
+  private final WordCounter wordCounter;
+  private final WordTokenizer wordTokenizer = WordTokenizer.ignoringCommonWords();
+  private final boolean plainText;
+  private double scoreSum = 0;
+  private double magnitudeSum = 0;
+  private long numComments = 0;
+  // Publish date in milliseconds of the newest comments added, and the ids of those comments
+  private long newestPublishDate = Long.MIN_VALUE;
+  private final Set<String> newestCommentIds = new HashSet<>();
+
+  /**
+   * Constructor of an empty accumulator counting words exactly.
+   *
+   * @param topNComments the number of highest magnitudes to keep per bucket
+   */
+  public StatisticsAccumulator(int topNComments) {
+    this(topNComments, new ExactWordCounter());
+  }
+
+  /**
+   * Constructor of an empty accumulator.
+   *
+   * @param topNComments the number of highest magnitudes to keep per bucket
+   * @param wordCounter empty counter used to count word frequencies
+   */
+  public StatisticsAccumulator(int topNComments, WordCounter wordCounter) {
+    this(topNComments, wordCounter, false);
+  }
+
+  /**
+   * Constructor of an empty accumulator.
+   *
+   * @param topNComments the number of highest magnitudes to keep per bucket
+   * @param wordCounter empty counter used to count word frequencies
+   * @param plainText true if comment texts are plain text, so HTML tags need not be stripped
+   */
+  public StatisticsAccumulator(int topNComments, WordCounter wordCounter, boolean plainText) {
+    this.sentimentHistogram = new SentimentHistogram(topNComments);
+    this.wordCounter = wordCounter;
+    this.plainText = plainText;
+  }
+
+  /**
+   * Add a comment to the aggregate. Comments without a score, such as those in an unsupported
+   * language, are skipped.
+   *
+   * @param comment userComment with updated score and magnitude
+   */
+  public void add(UserComment comment) {
+    // Unscored comments are still seen, so that they are not fetched again
+    long publishDate = getPublishMillis(comment);
+    if (publishDate > newestPublishDate) {
+      newestPublishDate = publishDate;
+      newestCommentIds.clear();
+    }
+    if (publishDate == newestPublishDate) {
+      newestCommentIds.add(comment.getCommentId());
+    }
+    if (comment.getScore() == null) {
+      return;
+    }
+    sentimentHistogram.add(comment);
+    scoreSum += comment.getScore();
+    magnitudeSum += comment.getMagnitude();
+    numComments++;
+    // Text extractor removes all HTML tags and returns only the text
+    String text =
+        plainText
+            ? comment.getCommentMsg()
+            : new Source(comment.getCommentMsg()).getTextExtractor().toString();
+    wordTokenizer.tokenize(text, wordCounter::add);
+  }
+
+  /**
+   * @param comments userComments with updated score and magnitude
+   */
+  public void addAll(Collection<UserComment> comments) {
+    comments.forEach(this::add);
+  }
+
+  /**
+   * Merge the comments of another accumulator into this one, as if they had been added here.
+   *
+   * @param other accumulator with the same number of top comments and kind of word counter, left
+   *     unchanged
+   */
+  public void merge(StatisticsAccumulator other) {
+    sentimentHistogram.merge(other.sentimentHistogram);
+    wordCounter.merge(other.wordCounter);
+    scoreSum += other.scoreSum;
+    magnitudeSum += other.magnitudeSum;
+    numComments += other.numComments;
+    if (other.newestPublishDate > newestPublishDate) {
+      newestPublishDate = other.newestPublishDate;
+      newestCommentIds.clear();
+    }
+    if (other.newestPublishDate == newestPublishDate) {
+      newestCommentIds.addAll(other.newestCommentIds);
+    }
+  }
+
+  /**
+   * Check whether a comment is not newer than the comments added so far, assuming comments are
+   * added newest last.
+   *
+   * @param comment comment fetched in descending order of publish date
+   * @return true if the comment is older than the newest comment added, or is one of them
+   */
+  public boolean hasSeen(UserComment comment) {
+    long publishDate = getPublishMillis(comment);
+    return publishDate < newestPublishDate
+        || (publishDate == newestPublishDate && newestCommentIds.contains(comment.getCommentId()));
+  }
+
+  /**
+   * @return true if no comment was added, scored or not
+   */
+  boolean isEmpty() {
+    return newestPublishDate == Long.MIN_VALUE;
+  }
+
+  /**
+   * @return number of scored comments added
+   */
+  public long getNumComments() {
+    return numComments;
+  }
+
+  /**
+   * Take a snapshot of the aggregate with the default number of words in the word map.
+   *
+   * @return Statistics of all comments added so far
+   */
+  public Statistics snapshot() {
+    return snapshot(Statistics.DEFAULT_WORDMAP_SIZE);
+  }
+
+  /**
+   * Take a snapshot of the aggregate; later additions do not change it. Without comments, every
+   * bucket is empty, the word map is empty and both averages are 0.
+   *
+   * @param wordMapSize the number of most frequent words to retrieve
+   * @return Statistics of all comments added so far
+   */
+  public Statistics snapshot(int wordMapSize) {
+    return new Statistics(this, wordMapSize);
+  }
+
+  List<SentimentBucket> getSentimentBucketList() {
+    return sentimentHistogram.toBucketList();
+  }
+
+  Map<String, Integer> getTopWords(int wordMapSize) {
+    return wordCounter.topWords(wordMapSize);
+  }
+
+  int getWordFrequencyMaxError() {
+    return wordCounter.getMaxError();
+  }
+
+  double getAverageScore() {
+    return getAverage(scoreSum);
+  }
+
+  double getAverageMagnitude() {
+    return getAverage(magnitudeSum);
+  }
+
+  private double getAverage(double sum) {
+    return numComments == 0 ? 0 : sum / numComments;
+  }
+
+  private static long getPublishMillis(UserComment comment) {
+    return comment.getPublishDate() == null ? 0 : comment.getPublishDate().getValue();
+  }
+}
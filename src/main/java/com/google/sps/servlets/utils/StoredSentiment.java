@@ -0,0 +1,85 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+/** Sentiment of one comment as persisted across restarts. */
+public final class StoredSentiment {
+  private final String commentId;
+  // Hash of the comment text when it was scored, so edited comments are scored again
+  private final String textHash;
+  private final double score;
+  private final double magnitude;
+  // Milliseconds since the epoch, or 0 if unknown
+  private final long publishDate;
+
+  /**
+   * @param commentId YouTube id of the comment
+   * @param textHash SentimentCache.hashOf of the scored text, as a hexadecimal string
+   * @param score sentiment score of the comment
+   * @param magnitude sentiment magnitude of the comment
+   * @param publishDate publish date of the comment in milliseconds since the epoch, or 0
+   */
+  public StoredSentiment(
+      String commentId, String textHash, double score, double magnitude, long publishDate) {
+    this.commentId = commentId;
+    this.textHash = textHash;
+    this.score = score;
+    this.magnitude = magnitude;
+    this.publishDate = publishDate;
+  }
+
+  /**
+   * Create the record of a comment whose sentiment has been computed.
+   *
+   * @param comment comment with its score and magnitude set
+   * @return the record to store for comment
+   */
+  public static StoredSentiment of(UserComment comment) {
+    return new StoredSentiment(
+        comment.getCommentId(),
+        SentimentCache.hashOf(comment.getCommentMsg()).toString(),
+        comment.getScore(),
+        comment.getMagnitude(),
+        comment.getPublishDate() == null ? 0 : comment.getPublishDate().getValue());
+  }
+
+  public String getCommentId() {
+    return commentId;
+  }
+
+  public String getTextHash() {
+    return textHash;
+  }
+
+  public double getScore() {
+    return score;
+  }
+
+  public double getMagnitude() {
+    return magnitude;
+  }
+
+  public long getPublishDate() {
+    return publishDate;
+  }
+
+  /**
+   * @param commentMsg current text of the comment
+   * @return true if this sentiment was computed for commentMsg
+   */
+  public boolean matchesText(String commentMsg) {
+    return textHash.equals(SentimentCache.hashOf(commentMsg).toString());
+  }
+}
@@ -32,10 +32,37 @@ public class UserComment {
    * @param commentThread given comment thread retrieved from Youtube API
    */
   public UserComment(CommentThread commentThread) {
-    Comment topLevelComment = commentThread.getSnippet().getTopLevelComment();
-    this.commentId = topLevelComment.getId();
-    this.commentMsg = topLevelComment.getSnippet().getTextDisplay();
-    this.publishDate = topLevelComment.getSnippet().getPublishedAt();
+    this(commentThread.getSnippet().getTopLevelComment());
+  }
+
+  /**
+   * Encapsulate a single comment, such as a reply, into an User Comment object.
+   *
+   * @param comment given comment retrieved from Youtube API
+   */
+  public UserComment(Comment comment) {
+    this(CommentView.of(comment));
+  }
+
+  /**
+   * Encapsulate the top level comment of a retrieved comment thread into an User Comment object.
+   *
+   * @param commentThread given comment thread, parsed leanly or into the generated model
+   */
+  public UserComment(CommentThreadView commentThread) {
+    this(commentThread.getTopLevelComment());
+  }
+
+  /**
+   * Encapsulate a single comment, parsed leanly or into the generated model, into an User Comment
+   * object.
+   *
+   * @param comment given comment retrieved from Youtube API
+   */
+  public UserComment(CommentView comment) {
+    this.commentId = comment.getId();
+    this.commentMsg = comment.getTextDisplay();
+    this.publishDate = comment.getPublishedAt();
   }
 
   /** This is an easy way to construct a new userComment object for testing purpose. */
@@ -81,6 +108,10 @@ public class UserComment {
     return publishDate;
   }
 
+  public String getCommentId() {
+    return commentId;
+  }
+
   public void setCommentId(String commentId) {
     this.commentId = commentId;
   }
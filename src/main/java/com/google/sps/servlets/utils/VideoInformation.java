@@ -1,6 +1,5 @@
 package com.google.sps.servlets.utils;
 
-import com.google.api.services.youtube.model.Video;
 import com.google.api.services.youtube.model.VideoListResponse;
 import com.google.api.services.youtube.model.VideoSnippet;
 import com.google.api.services.youtube.model.VideoStatistics;
@@ -19,15 +18,24 @@ public class VideoInformation {
   String publishDateString;
 
   public VideoInformation(VideoListResponse videoResponse) {
-    Video video = Iterables.getOnlyElement(videoResponse.getItems());
-    VideoSnippet videoSnippet = video.getSnippet();
-    VideoStatistics videoStats = video.getStatistics();
+    this(
+        Iterables.getOnlyElement(videoResponse.getItems()).getSnippet(),
+        Iterables.getOnlyElement(videoResponse.getItems()).getStatistics());
+  }
+
+  /**
+   * @param videoSnippet snippet holding the video's title, channel and publish date
+   * @param videoStats statistics holding the video's like and dislike counts
+   */
+  public VideoInformation(VideoSnippet videoSnippet, VideoStatistics videoStats) {
     this.videoName = videoSnippet.getTitle();
     this.videoAuthor = videoSnippet.getChannelTitle();
     // Remove the specific time of the day at the end of the dateString; Convert to yyyy-mm-dd
     // format.
     this.publishDateString = videoSnippet.getPublishedAt().toStringRfc3339().substring(0, 10);
-    this.numLikes = videoStats.getLikeCount().intValue();
-    this.numDislikes = videoStats.getDislikeCount().intValue();
+    // Counts hidden by the video's owner are absent from the statistics
+    this.numLikes = videoStats.getLikeCount() != null ? videoStats.getLikeCount().intValue() : 0;
+    this.numDislikes =
+        videoStats.getDislikeCount() != null ? videoStats.getDislikeCount().intValue() : 0;
   }
 }
@@ -0,0 +1,249 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.api.services.youtube.model.Video;
+import com.google.api.services.youtube.model.VideoListResponse;
+import com.google.api.services.youtube.model.VideoSnippet;
+import com.google.api.services.youtube.model.VideoStatistics;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the video metadata shown next to an analysis. A video's title, channel and publish date
+ * rarely change and are kept for a long time, while its like and dislike counts are kept briefly.
+ * Lookups that miss are not fetched one by one: those arriving within a short window are collected
+ * and fetched with one videos.list request of up to MAX_BATCH_SIZE ids, which costs a single quota
+ * unit. A batch only asks for the statistics part if every video in it has a cached snippet.
+ */
+public class VideoMetadataCache {
+  // Most ids videos.list accepts in one request
+  public static final int MAX_BATCH_SIZE = 50;
+  private static final long DEFAULT_SNIPPET_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+  private static final long DEFAULT_STATISTICS_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long DEFAULT_BATCH_WINDOW_MILLIS = 5L;
+  private static final long MAX_CACHED_VIDEOS = 10_000L;
+  private static final int FETCH_THREADS = 4;
+  private static final long LOOKUP_TIMEOUT_SECONDS = 15L;
+
+  private final VideoFetcher videoFetcher;
+  private final long batchWindowMillis;
+  private final Cache<String, VideoSnippet> snippetCache;
+  private final Cache<String, VideoStatistics> statisticsCache;
+  private final ScheduledExecutorService fetchExecutor;
+  // Lookups waiting for the next batch, in arrival order; guarded by itself
+  private final Map<String, PendingLookup> pendingLookups = new LinkedHashMap<>();
+  private final AtomicLong requestCount = new AtomicLong();
+
+  /** Fetches the metadata of several videos with one request. */
+  public interface VideoFetcher {
+    /**
+     * @param videoIds ids of the videos, at most MAX_BATCH_SIZE of them
+     * @param includeSnippet true to fetch the snippet part along with the statistics part
+     * @return the videos found, in any order
+     */
+    VideoListResponse fetch(List<String> videoIds, boolean includeSnippet) throws IOException;
+  }
+
+  /** A video waiting for the next batch, and the callers waiting for it. */
+  private static class PendingLookup {
+    private final CompletableFuture<Video> video = new CompletableFuture<>();
+    private boolean includeSnippet;
+  }
+
+  /**
+   * Constructor for a cache with the default lifetimes and batch window.
+   *
+   * @param videoFetcher fetches the videos that miss
+   */
+  public VideoMetadataCache(VideoFetcher videoFetcher) {
+    this(
+        videoFetcher,
+        DEFAULT_SNIPPET_TTL_MILLIS,
+        DEFAULT_STATISTICS_TTL_MILLIS,
+        DEFAULT_BATCH_WINDOW_MILLIS,
+        Ticker.systemTicker());
+  }
+
+  /**
+   * @param videoFetcher fetches the videos that miss
+   * @param snippetTtlMillis time for which a video's title, channel and publish date are kept
+   * @param statisticsTtlMillis time for which a video's like and dislike counts are kept
+   * @param batchWindowMillis time for which a missed lookup waits for others to share its request
+   * @param ticker time source of the lifetimes
+   */
+  public VideoMetadataCache(
+      VideoFetcher videoFetcher,
+      long snippetTtlMillis,
+      long statisticsTtlMillis,
+      long batchWindowMillis,
+      Ticker ticker) {
+    this.videoFetcher = videoFetcher;
+    this.batchWindowMillis = batchWindowMillis;
+    this.snippetCache =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_VIDEOS)
+            .expireAfterWrite(snippetTtlMillis, TimeUnit.MILLISECONDS)
+            .ticker(ticker)
+            .build();
+    this.statisticsCache =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_VIDEOS)
+            .expireAfterWrite(statisticsTtlMillis, TimeUnit.MILLISECONDS)
+            .ticker(ticker)
+            .build();
+    this.fetchExecutor =
+        Executors.newScheduledThreadPool(
+            FETCH_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("video-metadata-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Get a video's metadata, from the cache if it is fresh and otherwise with the next batch.
+   *
+   * @param videoId id of the video
+   * @return the video's title, channel, publish date and like and dislike counts
+   * @throws IllegalArgumentException if videoId is empty or holds a comma, which would make it
+   *     several ids of the batched request
+   * @throws IOException if the video does not exist or could not be fetched
+   */
+  public VideoInformation get(String videoId) throws IOException {
+    if (videoId == null || videoId.isEmpty() || videoId.indexOf(',') >= 0) {
+      throw new IllegalArgumentException("Invalid video id: " + videoId);
+    }
+    VideoSnippet snippet = snippetCache.getIfPresent(videoId);
+    VideoStatistics statistics = statisticsCache.getIfPresent(videoId);
+    if (snippet != null && statistics != null) {
+      return new VideoInformation(snippet, statistics);
+    }
+    Video video = await(enqueue(videoId, snippet == null), videoId);
+    return new VideoInformation(
+        video.getSnippet() != null ? video.getSnippet() : snippet, video.getStatistics());
+  }
+
+  private CompletableFuture<Video> enqueue(String videoId, boolean includeSnippet) {
+    synchronized (pendingLookups) {
+      PendingLookup lookup = pendingLookups.get(videoId);
+      if (lookup == null) {
+        lookup = new PendingLookup();
+        pendingLookups.put(videoId, lookup);
+        if (pendingLookups.size() == 1) {
+          fetchExecutor.schedule(this::fetchPending, batchWindowMillis, TimeUnit.MILLISECONDS);
+        } else if (pendingLookups.size() == MAX_BATCH_SIZE) {
+          // A full batch cannot grow, so it need not wait out the window
+          fetchExecutor.execute(this::fetchPending);
+        }
+      }
+      lookup.includeSnippet |= includeSnippet;
+      return lookup.video;
+    }
+  }
+
+  /** Fetch up to MAX_BATCH_SIZE pending lookups with one request. */
+  private void fetchPending() {
+    Map<String, PendingLookup> batch = new LinkedHashMap<>();
+    boolean includeSnippet = false;
+    synchronized (pendingLookups) {
+      Iterator<Map.Entry<String, PendingLookup>> pending = pendingLookups.entrySet().iterator();
+      while (pending.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+        Map.Entry<String, PendingLookup> lookup = pending.next();
+        batch.put(lookup.getKey(), lookup.getValue());
+        includeSnippet |= lookup.getValue().includeSnippet;
+        pending.remove();
+      }
+      if (!pendingLookups.isEmpty()) {
+        fetchExecutor.schedule(this::fetchPending, batchWindowMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      requestCount.incrementAndGet();
+      VideoListResponse response =
+          videoFetcher.fetch(new ArrayList<>(batch.keySet()), includeSnippet);
+      // No items at all when none of the videos exist
+      List<Video> videos = response.getItems() != null ? response.getItems() : new ArrayList<>();
+      for (Video video : videos) {
+        PendingLookup lookup = batch.remove(video.getId());
+        if (lookup == null) {
+          continue;
+        }
+        if (video.getSnippet() != null) {
+          snippetCache.put(video.getId(), video.getSnippet());
+        }
+        // A part missing from one video fails its lookup only, not the rest of the batch
+        if (video.getStatistics() == null
+            || (lookup.includeSnippet && video.getSnippet() == null)) {
+          lookup.video.completeExceptionally(
+              new IOException("Incomplete metadata for video " + video.getId()));
+          continue;
+        }
+        statisticsCache.put(video.getId(), video.getStatistics());
+        lookup.video.complete(video);
+      }
+      // Whatever is left was not returned, so it does not exist
+      batch.forEach(
+          (videoId, lookup) ->
+              lookup.video.completeExceptionally(new IOException("No video with id " + videoId)));
+    } catch (Exception e) {
+      batch.values().forEach(lookup -> lookup.video.completeExceptionally(e));
+    }
+  }
+
+  private static Video await(CompletableFuture<Video> video, String videoId) throws IOException {
+    try {
+      return video.get(LOOKUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while fetching video " + videoId);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Unable to fetch video " + videoId, e.getCause());
+    } catch (TimeoutException e) {
+      throw new IOException("Timed out fetching video " + videoId, e);
+    }
+  }
+
+  /**
+   * @return number of videos.list requests made
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /** Stop fetching; lookups still waiting time out. */
+  public void shutdown() {
+    fetchExecutor.shutdownNow();
+  }
+}
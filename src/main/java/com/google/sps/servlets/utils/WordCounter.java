@@ -0,0 +1,53 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.util.Map;
+
+/** Counts word appearances and reports the most frequent words. */
+public interface WordCounter {
+  /**
+   * Count one appearance of a word.
+   *
+   * @param word word to count
+   */
+  void add(String word);
+
+  /**
+   * @param word word to look up
+   * @return number of appearances of word so far, overestimated by at most getMaxError()
+   */
+  int getCount(String word);
+
+  /**
+   * @param k maximum number of words to return
+   * @return up to k words ordered by descending count; words with equal counts are in alphabetical
+   *     order
+   */
+  Map<String, Integer> topWords(int k);
+
+  /**
+   * Add the counts of another counter of the same kind, as if its words had been added here.
+   *
+   * @param other counter to merge in, left unchanged
+   * @throws IllegalArgumentException if other is a different kind of counter
+   */
+  void merge(WordCounter other);
+
+  /**
+   * @return the largest amount by which any reported count can exceed the true count
+   */
+  int getMaxError();
+}
@@ -0,0 +1,89 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Splits comment text into lower-case words for the word map with a single character scan. Only
+ * ASCII letters and digits are kept, other characters are dropped without breaking a word (so
+ * "don't" becomes "dont"), words are separated by whitespace, and words to ignore are skipped.
+ */
+public class WordTokenizer {
+  private final Set<String> wordsToIgnore;
+
+  /**
+   * Constructor of a tokenizer skipping the given words.
+   *
+   * @param wordsToIgnore lower-case words left out of the output
+   */
+  public WordTokenizer(Collection<String> wordsToIgnore) {
+    this.wordsToIgnore = ImmutableSet.copyOf(wordsToIgnore);
+  }
+
+  /**
+   * @return the shared tokenizer that skips the words of CommonWordsRetriever
+   */
+  public static WordTokenizer ignoringCommonWords() {
+    return CommonWordsTokenizerHolder.INSTANCE;
+  }
+
+  /**
+   * Pass every word of text that is not ignored to wordConsumer, in order of appearance.
+   *
+   * @param text plain text of a comment
+   * @param wordConsumer receives each word
+   */
+  public void tokenize(String text, Consumer<String> wordConsumer) {
+    StringBuilder currentWord = new StringBuilder();
+    for (int i = 0; i < text.length(); i++) {
+      char currentChar = text.charAt(i);
+      if ((currentChar >= 'a' && currentChar <= 'z')
+          || (currentChar >= '0' && currentChar <= '9')) {
+        currentWord.append(currentChar);
+      } else if (currentChar >= 'A' && currentChar <= 'Z') {
+        currentWord.append((char) (currentChar + ('a' - 'A')));
+      } else if (isWhitespace(currentChar)) {
+        acceptWord(currentWord, wordConsumer);
+      }
+    }
+    acceptWord(currentWord, wordConsumer);
+  }
+
+  private void acceptWord(StringBuilder currentWord, Consumer<String> wordConsumer) {
+    if (currentWord.length() == 0) {
+      return;
+    }
+    String word = currentWord.toString();
+    currentWord.setLength(0);
+    if (!wordsToIgnore.contains(word)) {
+      wordConsumer.accept(word);
+    }
+  }
+
+  /** Same characters as the regular expression class \s. */
+  private static boolean isWhitespace(char currentChar) {
+    return currentChar == ' ' || (currentChar >= '\t' && currentChar <= '\r');
+  }
+
+  /** Loads the common words on first use of the shared tokenizer. */
+  private static class CommonWordsTokenizerHolder {
+    private static final WordTokenizer INSTANCE =
+        new WordTokenizer(CommonWordsRetriever.getCommonWords());
+  }
+}
@@ -13,91 +13,500 @@
 // limitations under the License.
 package com.google.sps.servlets.utils;
 
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /*
  * Class to retrieve YouTube comments from a designated URL with certain parameters
  */
 public class YouTubeCommentRetriever {
-  private final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
   // Limit of comments that can be obtained in one request
-  private final Long COMMENT_LIMIT = 100L;
+  protected final Long COMMENT_LIMIT = 100L;
   // Parameters required by YouTube API to retrieve the comment threads
   private final String SNIPPET_PARAMETERS = "snippet,replies";
+  // Lean retrieval only needs the top level comment, as plain text rather than HTML
+  private final String LEAN_SNIPPET_PARAMETERS = "snippet";
+  private final String PLAIN_TEXT_FORMAT = "plainText";
+  // Part of comments.list holding the text of each reply
+  private final String REPLY_PARAMETERS = "snippet";
   private final String ORDER_PARAMETER = "relevance";
+  // Newest comments first, for fetching only comments posted since the last analysis
+  private final String TIME_ORDER_PARAMETER = "time";
 
-  private final String APPLICATION_NAME = "SAY";
+  // Number of fetched pages allowed to wait for the consumer before fetching pauses
+  private static final int DEFAULT_PREFETCH_WINDOW = 2;
+  // Number of comment threads whose replies are paged through at the same time
+  private static final int DEFAULT_REPLY_FAN_OUT = 4;
+  // Number of comments.list pages read per comment thread, each costing one quota unit
+  private static final int DEFAULT_MAX_REPLY_PAGES = 5;
+  // Marks the end of the page stream in pipelined retrieval; compared by reference
+  private static final List<CommentThreadView> END_OF_PAGES = new ArrayList<>();
+  // Runs the fetching side of pipelined retrieval; idle threads exit after a minute
+  private static final ExecutorService PAGE_FETCHER =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("comment-fetcher-%d").setDaemon(true).build());
 
-  private String DEVELOPER_KEY = KeyRetriever.getApiKey();
+  private final String DEVELOPER_KEY;
 
-  private YouTube youtubeService = null;
+  private final YouTube youtubeService;
+  private int prefetchWindow = DEFAULT_PREFETCH_WINDOW;
+  private boolean leanRetrieval = false;
+  private boolean includeReplies = false;
+  private YouTubeQuotaLimiter quotaLimiter = YouTubeQuotaLimiter.getSharedInstance();
+  // Charged for every request sent, if set
+  private QuotaBudget quotaBudget;
+  // Pages through replies for every caller of the retriever, so its fan-out bounds the reply
+  // requests of all of them together rather than of each call
+  private volatile ExecutorService replyFetcher = newReplyFetcher(DEFAULT_REPLY_FAN_OUT);
+  private int maxReplyPages = DEFAULT_MAX_REPLY_PAGES;
 
   public YouTubeCommentRetriever() throws Exception {
-    youtubeService = getService();
+    this(YouTubeProvider.getSharedInstance());
   }
 
   public YouTubeCommentRetriever(YouTube youTube) {
     youtubeService = youTube;
+    DEVELOPER_KEY = KeyRetriever.getApiKey();
   }
 
-  public List<CommentThread> retrieveComments(String url, long maxComments) throws Exception {
+  /**
+   * Constructor to retrieve through a shared client.
+   *
+   * @param youTubeProvider provider of the client and the API key
+   */
+  public YouTubeCommentRetriever(YouTubeProvider youTubeProvider) {
+    youtubeService = youTubeProvider.getYouTube();
+    DEVELOPER_KEY = youTubeProvider.getDeveloperKey();
+  }
+
+  /**
+   * Set how many fetched pages may be buffered ahead of the consumer in pipelined retrieval.
+   *
+   * @param prefetchWindow maximum number of pages waiting to be consumed, at least 1
+   */
+  public void setPrefetchWindow(int prefetchWindow) {
+    if (prefetchWindow < 1) {
+      throw new IllegalArgumentException("Prefetch window must be at least 1: " + prefetchWindow);
+    }
+    this.prefetchWindow = prefetchWindow;
+  }
+
+  /**
+   * Set whether to request only the fields the analysis reads. Lean retrieval drops the replies
+   * part, projects the response down to each top level comment's id, text and publish date, asks
+   * for the text as plain text and parses the response without the generated model.
+   *
+   * @param leanRetrieval true to request lean pages
+   */
+  public void setLeanRetrieval(boolean leanRetrieval) {
+    this.leanRetrieval = leanRetrieval;
+  }
+
+  /**
+   * @return true if retrieved comment texts are plain text, false if they are HTML
+   */
+  public boolean returnsPlainText() {
+    return leanRetrieval;
+  }
+
+  /**
+   * Set the limiter every YouTube call of this retriever goes through.
+   *
+   * @param quotaLimiter limiter throttling and retrying the calls
+   */
+  public void setQuotaLimiter(YouTubeQuotaLimiter quotaLimiter) {
+    this.quotaLimiter = quotaLimiter;
+  }
+
+  /**
+   * Set the budget every YouTube call of this retriever is charged to. Requests beyond it fail with
+   * a YouTubeQuotaException without being sent. Only set it on a retriever used by a single job.
+   *
+   * @param quotaBudget budget charged for each request, or null for none
+   */
+  public void setQuotaBudget(QuotaBudget quotaBudget) {
+    this.quotaBudget = quotaBudget;
+  }
+
+  /**
+   * Set whether comment threads are requested with their inline replies, so that their replies can
+   * be retrieved with retrieveReplies.
+   *
+   * @param includeReplies true to request inline replies
+   */
+  public void setIncludeReplies(boolean includeReplies) {
+    this.includeReplies = includeReplies;
+  }
+
+  /**
+   * @return true if comment threads are requested with their inline replies
+   */
+  public boolean includesReplies() {
+    return includeReplies;
+  }
+
+  /**
+   * Set how many comment threads may have their replies paged through at the same time, across all
+   * callers of the retriever.
+   *
+   * @param replyFanOut maximum number of concurrent reply retrievals, at least 1
+   */
+  public void setReplyFanOut(int replyFanOut) {
+    if (replyFanOut < 1) {
+      throw new IllegalArgumentException("Reply fan-out must be at least 1: " + replyFanOut);
+    }
+    ExecutorService previousFetcher = replyFetcher;
+    replyFetcher = newReplyFetcher(replyFanOut);
+    // Lets the retrievals already queued finish
+    previousFetcher.shutdown();
+  }
+
+  /** Create the reply fetcher, whose idle threads exit after a minute. */
+  private static ExecutorService newReplyFetcher(int replyFanOut) {
+    ThreadPoolExecutor replyFetcher =
+        new ThreadPoolExecutor(
+            replyFanOut,
+            replyFanOut,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("comment-replies-%d").setDaemon(true).build());
+    replyFetcher.allowCoreThreadTimeOut(true);
+    return replyFetcher;
+  }
+
+  /**
+   * Set how many pages of replies are read for each comment thread. A thread with more replies
+   * keeps only those of the first maxReplyPages pages, so one popular thread cannot spend the daily
+   * quota on its own.
+   *
+   * @param maxReplyPages maximum number of comments.list requests per thread, at least 1
+   */
+  public void setMaxReplyPages(int maxReplyPages) {
+    if (maxReplyPages < 1) {
+      throw new IllegalArgumentException("Reply page limit must be at least 1: " + maxReplyPages);
+    }
+    this.maxReplyPages = maxReplyPages;
+  }
+
+  public List<CommentThreadView> retrieveComments(String url, long maxComments) throws Exception {
+    List<CommentThreadView> allComments = new ArrayList<>();
+    fetchCommentPages(url, maxComments, allComments::addAll);
+    return allComments;
+  }
+
+  /**
+   * Retrieve comments in pipelined mode: pages are fetched on a background thread and handed to
+   * pageConsumer on the calling thread as they arrive, so page N+1 is requested while page N is
+   * being consumed. Fetching pauses once prefetchWindow pages are waiting for the consumer.
+   *
+   * @param url video id of the video to have its comments analyzed
+   * @param maxComments maximum number of comments to retrieve
+   * @param pageConsumer receives each page of comment threads in retrieval order
+   * @throws Exception any error raised while fetching a page or consuming it
+   */
+  public void retrieveComments(
+      String url, long maxComments, Consumer<List<CommentThreadView>> pageConsumer)
+      throws Exception {
+    retrieveComments(url, maxComments, prefetchWindow, pageConsumer);
+  }
+
+  /**
+   * Retrieve comments in pipelined mode with a prefetch window of the caller's own, leaving the
+   * retriever's setting to its other users.
+   *
+   * @param url video id of the video to have its comments analyzed
+   * @param maxComments maximum number of comments to retrieve
+   * @param prefetchWindow maximum number of pages waiting to be consumed, at least 1
+   * @param pageConsumer receives each page of comment threads in retrieval order
+   * @throws Exception any error raised while fetching a page or consuming it
+   */
+  public void retrieveComments(
+      String url,
+      long maxComments,
+      int prefetchWindow,
+      Consumer<List<CommentThreadView>> pageConsumer)
+      throws Exception {
+    BlockingQueue<List<CommentThreadView>> pageQueue = new ArrayBlockingQueue<>(prefetchWindow);
+    AtomicBoolean consumerStopped = new AtomicBoolean();
+    Future<?> fetchResult =
+        PAGE_FETCHER.submit(
+            () -> {
+              try {
+                fetchCommentPages(url, maxComments, pageQueue::put);
+              } finally {
+                // Nobody takes the marker once the consumer stopped, so it would block forever
+                if (!consumerStopped.get()) {
+                  try {
+                    pageQueue.put(END_OF_PAGES);
+                  } catch (InterruptedException e) {
+                    // The consumer stopped while the queue was full
+                    Thread.currentThread().interrupt();
+                  }
+                }
+              }
+              return null;
+            });
+    try {
+      List<CommentThreadView> page = pageQueue.take();
+      while (page != END_OF_PAGES) {
+        pageConsumer.accept(page);
+        page = pageQueue.take();
+      }
+      // Surface any exception thrown while fetching
+      fetchResult.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    } finally {
+      // Unblocks the fetcher if the consumer failed while the queue was full
+      consumerStopped.set(true);
+      fetchResult.cancel(true);
+    }
+  }
+
+  /**
+   * Retrieve comments newest first until reaching a comment that was already seen.
+   *
+   * @param url video id of the video to have its comments analyzed
+   * @param maxComments maximum number of comments to retrieve
+   * @param isSeen tells whether a comment was already seen; checked in descending publish order
+   * @return comment threads newer than the first seen one, newest first
+   */
+  public List<CommentThreadView> retrieveNewComments(
+      String url, long maxComments, Predicate<CommentThreadView> isSeen) throws Exception {
+    List<CommentThreadView> newComments = new ArrayList<>();
+    String nextPageToken = null;
+    do {
+      CommentPage commentPage =
+          generateYouTubeRequest(
+              url,
+              Math.min(COMMENT_LIMIT, maxComments - newComments.size()),
+              nextPageToken,
+              TIME_ORDER_PARAMETER);
+      nextPageToken = commentPage.getNextPageToken();
+      for (CommentThreadView commentThread : commentPage.getThreads()) {
+        if (isSeen.test(commentThread) || newComments.size() == maxComments) {
+          return newComments;
+        }
+        newComments.add(commentThread);
+      }
+    } while (nextPageToken != null && newComments.size() < maxComments);
+    return newComments;
+  }
+
+  /**
+   * Retrieve every reply to the given comment threads, up to maxReplyPages pages per thread.
+   *
+   * @param commentThreads threads retrieved with inline replies included
+   * @param requestCount incremented for each comments.list request made
+   * @return replies of all the threads
+   */
+  public List<CommentView> retrieveReplies(
+      List<CommentThreadView> commentThreads, AtomicLong requestCount) throws Exception {
+    return retrieveReplies(commentThreads, requestCount, new AtomicLong());
+  }
+
+  /**
+   * Retrieve every reply to the given comment threads. Replies returned inline are used as is;
+   * threads with more replies than returned inline have them paged through with comments.list,
+   * replyFanOut threads at a time and up to maxReplyPages pages per thread.
+   *
+   * @param commentThreads threads retrieved with inline replies included
+   * @param requestCount incremented for each comments.list request made
+   * @param truncatedThreadCount incremented for each thread with replies left after maxReplyPages
+   *     pages
+   * @return replies of all the threads
+   */
+  public List<CommentView> retrieveReplies(
+      List<CommentThreadView> commentThreads,
+      AtomicLong requestCount,
+      AtomicLong truncatedThreadCount)
+      throws Exception {
+    List<CommentView> replies = new ArrayList<>();
+    List<String> parentIdsToExpand = new ArrayList<>();
+    for (CommentThreadView commentThread : commentThreads) {
+      Long totalReplyCount = commentThread.getTotalReplyCount();
+      List<CommentView> inlineReplies = commentThread.getInlineReplies();
+      if (totalReplyCount == null || inlineReplies.size() >= totalReplyCount) {
+        replies.addAll(inlineReplies);
+      } else {
+        parentIdsToExpand.add(commentThread.getTopLevelComment().getId());
+      }
+    }
+    if (parentIdsToExpand.isEmpty()) {
+      return replies;
+    }
+    ExecutorService fetcher = replyFetcher;
+    List<Future<List<CommentView>>> threadReplies = new ArrayList<>();
+    try {
+      for (String parentId : parentIdsToExpand) {
+        threadReplies.add(
+            fetcher.submit(() -> fetchReplies(parentId, requestCount, truncatedThreadCount)));
+      }
+      for (Future<List<CommentView>> reply : threadReplies) {
+        replies.addAll(reply.get());
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    } finally {
+      // Stops the retrievals left once one failed, without touching those of other callers
+      threadReplies.forEach(reply -> reply.cancel(true));
+    }
+    return replies;
+  }
+
+  /** Page through the replies to a top level comment, stopping after maxReplyPages pages. */
+  private List<CommentView> fetchReplies(
+      String parentId, AtomicLong requestCount, AtomicLong truncatedThreadCount)
+      throws IOException {
+    List<CommentView> replies = new ArrayList<>();
+    String nextPageToken = null;
+    int numPages = 0;
+    do {
+      YouTube.Comments.List replyRequest = youtubeService.comments().list(REPLY_PARAMETERS);
+      replyRequest
+          .setKey(DEVELOPER_KEY)
+          .setParentId(parentId)
+          .setMaxResults(COMMENT_LIMIT)
+          .setPageToken(nextPageToken);
+      if (leanRetrieval) {
+        replyRequest.setFields(LeanCommentPage.REPLY_FIELDS).setTextFormat(PLAIN_TEXT_FORMAT);
+        LeanCommentPage.ReplyPage replyPage =
+            execute(
+                YouTubeQuotaLimiter.CallType.COMMENTS_LIST,
+                () -> replyRequest.executeUnparsed().parseAs(LeanCommentPage.ReplyPage.class));
+        replies.addAll(replyPage.getItems());
+        nextPageToken = replyPage.getNextPageToken();
+      } else {
+        CommentListResponse replyResponse =
+            execute(YouTubeQuotaLimiter.CallType.COMMENTS_LIST, replyRequest::execute);
+        for (Comment reply : replyResponse.getItems()) {
+          replies.add(CommentView.of(reply));
+        }
+        nextPageToken = replyResponse.getNextPageToken();
+      }
+      requestCount.incrementAndGet();
+      numPages++;
+    } while (nextPageToken != null && numPages < maxReplyPages);
+    if (nextPageToken != null) {
+      truncatedThreadCount.incrementAndGet();
+    }
+    return replies;
+  }
+
+  /**
+   * Fetch comment pages one after another following nextPageToken, handing each page to pageHandler
+   * as soon as it is received.
+   */
+  private void fetchCommentPages(String url, long maxComments, PageHandler pageHandler)
+      throws GeneralSecurityException, IOException, InterruptedException {
     String nextPageToken = null;
     long numCommentsLeft = maxComments;
     long commentQueryLimit = 0;
-    ArrayList allComments = new ArrayList<>();
     do {
       // If commentQueryLimit exceeds the number of comments on the video,
       // The API will simply return all the comments on a video.
       commentQueryLimit = Math.min(COMMENT_LIMIT, numCommentsLeft);
       numCommentsLeft -= COMMENT_LIMIT;
-      CommentThreadListResponse commentResponse =
-          generateYouTubeRequest(url, commentQueryLimit, nextPageToken);
-      nextPageToken = commentResponse.getNextPageToken();
-      allComments.addAll(commentResponse.getItems());
+      CommentPage commentPage = generateYouTubeRequest(url, commentQueryLimit, nextPageToken);
+      nextPageToken = commentPage.getNextPageToken();
+      pageHandler.handle(commentPage.getThreads());
       // Continue retrieving comments until either reaching desired number or end of nextPageTokens.
     } while (nextPageToken != null && numCommentsLeft > 0);
-    return allComments;
   }
 
   /**
    * @param url video id of the video to have its comments analyzed
    * @param maxResults is how many comments to be retrieved; Capped out at 100 per request but may
    *     be reduced for specific queries.
-   * @return A list of comment threads to be aggregated to the overall list.
+   * @return A page of comment threads to be aggregated to the overall list.
    */
-  private CommentThreadListResponse generateYouTubeRequest(
-      String url, long maxResults, String nextPageToken)
+  protected CommentPage generateYouTubeRequest(String url, long maxResults, String nextPageToken)
+      throws GeneralSecurityException, IOException {
+    return generateYouTubeRequest(url, maxResults, nextPageToken, ORDER_PARAMETER);
+  }
+
+  private CommentPage generateYouTubeRequest(
+      String url, long maxResults, String nextPageToken, String order)
       throws GeneralSecurityException, IOException {
     YouTube.CommentThreads.List commentRequest =
-        youtubeService.commentThreads().list(SNIPPET_PARAMETERS);
+        youtubeService
+            .commentThreads()
+            .list(
+                (leanRetrieval && !includeReplies) ? LEAN_SNIPPET_PARAMETERS : SNIPPET_PARAMETERS);
     commentRequest
         .setKey(DEVELOPER_KEY)
         .setVideoId(url)
-        .setOrder(ORDER_PARAMETER)
+        .setOrder(order)
         .setMaxResults(maxResults)
         .setPageToken(nextPageToken);
-    return commentRequest.execute();
+    if (!leanRetrieval) {
+      CommentThreadListResponse commentResponse =
+          execute(YouTubeQuotaLimiter.CallType.COMMENT_THREADS_LIST, commentRequest::execute);
+      List<CommentThreadView> commentThreads = new ArrayList<>();
+      for (CommentThread commentThread : commentResponse.getItems()) {
+        commentThreads.add(CommentThreadView.of(commentThread));
+      }
+      return new CommentPage(commentThreads, commentResponse.getNextPageToken());
+    }
+    commentRequest
+        .setFields(includeReplies ? LeanCommentPage.FIELDS_WITH_REPLIES : LeanCommentPage.FIELDS)
+        .setTextFormat(PLAIN_TEXT_FORMAT);
+    LeanCommentPage leanPage =
+        execute(
+            YouTubeQuotaLimiter.CallType.COMMENT_THREADS_LIST,
+            () -> commentRequest.executeUnparsed().parseAs(LeanCommentPage.class));
+    return new CommentPage(leanPage.getItems(), leanPage.getNextPageToken());
   }
 
-  /**
-   * Build and return an authorized API client service.
-   *
-   * @return an authorized API client service
-   * @throws GeneralSecurityException, IOException
-   */
-  public YouTube getService() throws GeneralSecurityException, IOException {
-    final NetHttpTransport httpTransport = GoogleNetHttpTransport.newTrustedTransport();
-    return new YouTube.Builder(httpTransport, JSON_FACTORY, null)
-        .setApplicationName(APPLICATION_NAME)
-        .build();
+  /** Charge a call to the quota budget, if any, and execute it through the limiter. */
+  private <T> T execute(YouTubeQuotaLimiter.CallType callType, YouTubeQuotaLimiter.ApiCall<T> call)
+      throws IOException {
+    if (quotaBudget != null) {
+      quotaBudget.spend(callType.getUnits());
+    }
+    return quotaLimiter.execute(callType, call);
+  }
+
+  /** Receives each page of comment threads as it is fetched. */
+  private interface PageHandler {
+    void handle(List<CommentThreadView> page) throws InterruptedException;
+  }
+
+  /** One page of comment threads and the token of the page after it. */
+  protected static class CommentPage {
+    private final List<CommentThreadView> threads;
+    private final String nextPageToken;
+
+    CommentPage(List<CommentThreadView> threads, String nextPageToken) {
+      this.threads = threads;
+      this.nextPageToken = nextPageToken;
+    }
+
+    List<CommentThreadView> getThreads() {
+      return threads;
+    }
+
+    String getNextPageToken() {
+      return nextPageToken;
+    }
   }
 }
@@ -0,0 +1,91 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.api.client.googleapis.apache.GoogleApacheHttpTransport;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.youtube.YouTube;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Application-scoped access to the YouTube Data API. A single client is created on first use and
+ * shared by every servlet and request. It runs on a pooled HTTP transport that keeps connections
+ * alive, so TLS handshakes and connection setup are paid once per connection rather than once per
+ * request. The API key is read once along with it.
+ */
+public class YouTubeProvider {
+  private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+  private static final String APPLICATION_NAME = "SAY";
+  private static YouTubeProvider sharedInstance;
+
+  private final HttpTransport httpTransport;
+  private final YouTube youtubeService;
+  private final String developerKey;
+
+  /**
+   * Constructor for a provider over a given transport, such as a mocked one in tests.
+   *
+   * @param httpTransport transport shared by every call of the client
+   * @param developerKey API key sent with every call
+   */
+  public YouTubeProvider(HttpTransport httpTransport, String developerKey) {
+    this.httpTransport = httpTransport;
+    this.developerKey = developerKey;
+    this.youtubeService =
+        new YouTube.Builder(httpTransport, JSON_FACTORY, null)
+            .setApplicationName(APPLICATION_NAME)
+            .build();
+  }
+
+  /**
+   * Returns the provider shared by the application, creating its pooled transport on first use.
+   *
+   * @return the application-scoped provider
+   * @throws GeneralSecurityException error when the trusted certificates cannot be loaded
+   * @throws IOException error when the transport cannot be created
+   */
+  public static synchronized YouTubeProvider getSharedInstance()
+      throws GeneralSecurityException, IOException {
+    if (sharedInstance == null) {
+      sharedInstance =
+          new YouTubeProvider(
+              GoogleApacheHttpTransport.newTrustedTransport(), KeyRetriever.getApiKey());
+    }
+    return sharedInstance;
+  }
+
+  /** Close the pooled connections of the shared provider, if it was ever created. */
+  public static synchronized void shutdownSharedInstance() {
+    if (sharedInstance != null) {
+      try {
+        sharedInstance.httpTransport.shutdown();
+      } catch (IOException e) {
+        e.printStackTrace(System.err);
+      }
+      sharedInstance = null;
+    }
+  }
+
+  public YouTube getYouTube() {
+    return youtubeService;
+  }
+
+  public String getDeveloperKey() {
+    return developerKey;
+  }
+}
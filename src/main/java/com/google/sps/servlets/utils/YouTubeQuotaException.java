@@ -0,0 +1,47 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import java.io.IOException;
+
+/**
+ * Signals that a YouTube API call was refused because the quota is used up or calls keep failing.
+ */
+public class YouTubeQuotaException extends IOException {
+  private final long retryAfterMillis;
+
+  /**
+   * @param message reason the call was refused
+   * @param retryAfterMillis time after which calls may succeed again
+   */
+  public YouTubeQuotaException(String message, long retryAfterMillis) {
+    super(message);
+    this.retryAfterMillis = retryAfterMillis;
+  }
+
+  /**
+   * @param message reason the call was refused
+   * @param retryAfterMillis time after which calls may succeed again
+   * @param cause error returned by the YouTube API
+   */
+  public YouTubeQuotaException(String message, long retryAfterMillis, Throwable cause) {
+    super(message, cause);
+    this.retryAfterMillis = retryAfterMillis;
+  }
+
+  public long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+}
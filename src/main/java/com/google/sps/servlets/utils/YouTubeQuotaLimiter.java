@@ -0,0 +1,398 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets.utils;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.util.Sleeper;
+import com.google.common.base.Ticker;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limiting layer shared by every YouTube Data API call. A token bucket holding a burst of
+ * units refills continuously at the daily quota spread over a day, and each call takes the units
+ * its type costs; at most a burst more than the daily quota can be spent in any day. Calls failing
+ * with a rate limit, a server error or a transport error such as a timeout are retried after a
+ * jittered exponential backoff. After repeated failures, or once the API reports the quota used up,
+ * a circuit breaker refuses calls for a while instead of spending quota on requests that are bound
+ * to fail.
+ */
+public class YouTubeQuotaLimiter {
+  // Default daily quota of a YouTube Data API project
+  private static final long DEFAULT_DAILY_UNITS = 10_000L;
+  // System property overriding the daily quota of the shared limiter
+  private static final String DAILY_UNITS_PROPERTY = "youtube-daily-quota";
+  // Default burst of the bucket, as a fraction of the daily quota: an hour's worth
+  private static final long DEFAULT_BURST_DIVISOR = 24L;
+  private static final int DEFAULT_MAX_RETRIES = 4;
+  private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 250L;
+  private static final long DEFAULT_MAX_BACKOFF_MILLIS = 8_000L;
+  // Longest a call waits for the bucket to refill before it is refused
+  private static final long DEFAULT_MAX_WAIT_MILLIS = 5_000L;
+  private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  private static final long DEFAULT_OPEN_MILLIS = 30_000L;
+  private static final int TOO_MANY_REQUESTS = 429;
+  private static final int FORBIDDEN = 403;
+  private static final int SERVER_ERROR = 500;
+  private static YouTubeQuotaLimiter sharedInstance;
+
+  /** Types of YouTube API calls and the quota units each costs. */
+  public enum CallType {
+    COMMENT_THREADS_LIST(1),
+    COMMENTS_LIST(1),
+    VIDEOS_LIST(1);
+
+    private final int units;
+
+    CallType(int units) {
+      this.units = units;
+    }
+
+    public int getUnits() {
+      return units;
+    }
+  }
+
+  /** A YouTube API call, which may be executed more than once when retried. */
+  public interface ApiCall<T> {
+    T execute() throws IOException;
+  }
+
+  private enum CircuitState {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final long burstUnits;
+  private final double unitsPerNano;
+  private final int maxRetries;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final long maxWaitNanos;
+  private final int failureThreshold;
+  private final long openNanos;
+  private final Ticker ticker;
+  private final Sleeper sleeper;
+  private final Random random;
+
+  // Token bucket state; availableUnits goes negative while calls wait for reserved units
+  private double availableUnits;
+  private long lastRefillNanos;
+  // Circuit breaker state
+  private CircuitState circuitState = CircuitState.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openUntilNanos;
+  private boolean trialCallInFlight = false;
+
+  private final AtomicLong unitsConsumed = new AtomicLong();
+  private final AtomicLong retryCount = new AtomicLong();
+  private final AtomicLong refusedCount = new AtomicLong();
+
+  /**
+   * Constructor for a limiter with default burst, retry and circuit breaker settings.
+   *
+   * @param dailyUnits quota units available per day
+   */
+  public YouTubeQuotaLimiter(long dailyUnits) {
+    this(
+        dailyUnits,
+        Math.max(1, dailyUnits / DEFAULT_BURST_DIVISOR),
+        DEFAULT_MAX_RETRIES,
+        DEFAULT_INITIAL_BACKOFF_MILLIS,
+        DEFAULT_MAX_BACKOFF_MILLIS,
+        DEFAULT_MAX_WAIT_MILLIS,
+        DEFAULT_FAILURE_THRESHOLD,
+        DEFAULT_OPEN_MILLIS,
+        Ticker.systemTicker(),
+        Sleeper.DEFAULT,
+        new Random());
+  }
+
+  /**
+   * Constructor for a limiter with configured settings.
+   *
+   * @param dailyUnits quota units available per day, which sets the refill rate of the bucket
+   * @param burstUnits size of the bucket, the most units that can be spent at once
+   * @param maxRetries number of times a failed call is retried
+   * @param initialBackoffMillis upper bound of the wait before the first retry, doubled for each
+   *     further retry
+   * @param maxBackoffMillis largest upper bound of the wait before a retry
+   * @param maxWaitMillis longest a call waits for the bucket to refill before it is refused
+   * @param failureThreshold number of consecutive failed calls that opens the circuit
+   * @param openMillis time the circuit stays open before a trial call is let through
+   * @param ticker time source, replaceable in tests
+   * @param sleeper waits between retries, replaceable in tests
+   * @param random source of the backoff jitter
+   */
+  public YouTubeQuotaLimiter(
+      long dailyUnits,
+      long burstUnits,
+      int maxRetries,
+      long initialBackoffMillis,
+      long maxBackoffMillis,
+      long maxWaitMillis,
+      int failureThreshold,
+      long openMillis,
+      Ticker ticker,
+      Sleeper sleeper,
+      Random random) {
+    if (dailyUnits < 1 || burstUnits < 1 || maxRetries < 0 || failureThreshold < 1) {
+      throw new IllegalArgumentException(
+          "Quota, burst, retries and failure threshold must be positive.");
+    }
+    this.burstUnits = burstUnits;
+    this.unitsPerNano = (double) dailyUnits / TimeUnit.DAYS.toNanos(1);
+    this.maxRetries = maxRetries;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.ticker = ticker;
+    this.sleeper = sleeper;
+    this.random = random;
+    this.availableUnits = burstUnits;
+    this.lastRefillNanos = ticker.read();
+  }
+
+  /**
+   * Returns the limiter shared by every YouTube call of the application, creating it on first use.
+   * Its daily quota is read from the youtube-daily-quota system property, if set.
+   *
+   * @return the application-scoped limiter
+   */
+  public static synchronized YouTubeQuotaLimiter getSharedInstance() {
+    if (sharedInstance == null) {
+      sharedInstance =
+          new YouTubeQuotaLimiter(Long.getLong(DAILY_UNITS_PROPERTY, DEFAULT_DAILY_UNITS));
+    }
+    return sharedInstance;
+  }
+
+  /**
+   * Execute a call once the circuit allows it and its units are available, retrying it after a
+   * backoff while it fails with a retryable error. Transport errors, such as timeouts, are
+   * retryable and count towards opening the circuit.
+   *
+   * @param callType type of the call, which determines its cost
+   * @param call the call to execute
+   * @return result of the first successful attempt
+   * @throws YouTubeQuotaException if the call is refused or the API reports the quota used up
+   * @throws IOException the error of the last attempt, or a non-retryable error
+   */
+  public <T> T execute(CallType callType, ApiCall<T> call) throws IOException {
+    for (int attempt = 0; ; attempt++) {
+      boolean trialCall = enterCircuit();
+      try {
+        acquire(callType.getUnits());
+        IOException failure;
+        try {
+          T result = call.execute();
+          recordSuccess();
+          return result;
+        } catch (HttpResponseException e) {
+          if (isQuotaExhausted(e)) {
+            openCircuit();
+            throw new YouTubeQuotaException(
+                "YouTube quota exceeded.", TimeUnit.NANOSECONDS.toMillis(openNanos), e);
+          }
+          if (!isRetryable(e)) {
+            // The API answered, so it is healthy even if this request was rejected
+            recordSuccess();
+            throw e;
+          }
+          failure = e;
+        } catch (IOException e) {
+          // No answer from the API, such as a timeout or a dropped connection
+          failure = e;
+        }
+        if (trialCall || attempt >= maxRetries) {
+          recordFailure();
+          throw failure;
+        }
+      } finally {
+        if (trialCall) {
+          endTrialCall();
+        }
+      }
+      retryCount.incrementAndGet();
+      backOff(attempt);
+    }
+  }
+
+  /**
+   * Check whether a call may go through the circuit.
+   *
+   * @return true if the call is the trial call of a half open circuit
+   */
+  private synchronized boolean enterCircuit() throws YouTubeQuotaException {
+    if (circuitState == CircuitState.OPEN) {
+      long remainingNanos = openUntilNanos - ticker.read();
+      if (remainingNanos > 0) {
+        throw refuse("YouTube calls are suspended after repeated failures.", remainingNanos);
+      }
+      circuitState = CircuitState.HALF_OPEN;
+    }
+    if (circuitState == CircuitState.HALF_OPEN) {
+      if (trialCallInFlight) {
+        throw refuse("YouTube calls are suspended until a trial call succeeds.", openNanos);
+      }
+      trialCallInFlight = true;
+      return true;
+    }
+    return false;
+  }
+
+  private synchronized void endTrialCall() {
+    trialCallInFlight = false;
+  }
+
+  private synchronized void recordSuccess() {
+    circuitState = CircuitState.CLOSED;
+    consecutiveFailures = 0;
+  }
+
+  private synchronized void recordFailure() {
+    consecutiveFailures++;
+    if (circuitState == CircuitState.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      openCircuit();
+    }
+  }
+
+  private synchronized void openCircuit() {
+    circuitState = CircuitState.OPEN;
+    openUntilNanos = ticker.read() + openNanos;
+  }
+
+  /** Take units from the bucket, waiting for them to be refilled if needed. */
+  private void acquire(int units) throws IOException {
+    long waitNanos = reserve(units);
+    if (waitNanos > 0) {
+      sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+  }
+
+  /**
+   * Reserve units from the bucket.
+   *
+   * @return time to wait until the reserved units are refilled
+   */
+  private synchronized long reserve(int units) throws YouTubeQuotaException {
+    refill();
+    long waitNanos =
+        availableUnits >= units ? 0 : (long) Math.ceil((units - availableUnits) / unitsPerNano);
+    if (waitNanos > maxWaitNanos) {
+      throw refuse("YouTube quota budget is used up.", waitNanos);
+    }
+    availableUnits -= units;
+    unitsConsumed.addAndGet(units);
+    return waitNanos;
+  }
+
+  /** Add the units accrued since the last refill, up to a full bucket. */
+  private synchronized void refill() {
+    long now = ticker.read();
+    availableUnits = Math.min(burstUnits, availableUnits + (now - lastRefillNanos) * unitsPerNano);
+    lastRefillNanos = now;
+  }
+
+  private YouTubeQuotaException refuse(String message, long retryAfterNanos) {
+    refusedCount.incrementAndGet();
+    return new YouTubeQuotaException(message, TimeUnit.NANOSECONDS.toMillis(retryAfterNanos));
+  }
+
+  /** Wait a random time up to an exponentially growing bound, so retries do not line up. */
+  private void backOff(int attempt) throws IOException {
+    long bound = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 30));
+    sleep((long) (random.nextDouble() * bound));
+  }
+
+  private void sleep(long millis) throws IOException {
+    try {
+      sleeper.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to call YouTube.", e);
+    }
+  }
+
+  private static boolean isRetryable(HttpResponseException e) {
+    int status = e.getStatusCode();
+    if (status == TOO_MANY_REQUESTS || status >= SERVER_ERROR) {
+      return true;
+    }
+    String reason = getReason(e);
+    return status == FORBIDDEN
+        && ("rateLimitExceeded".equals(reason) || "userRateLimitExceeded".equals(reason));
+  }
+
+  private static boolean isQuotaExhausted(HttpResponseException e) {
+    String reason = getReason(e);
+    return e.getStatusCode() == FORBIDDEN
+        && ("quotaExceeded".equals(reason) || "dailyLimitExceeded".equals(reason));
+  }
+
+  private static String getReason(HttpResponseException e) {
+    if (!(e instanceof GoogleJsonResponseException)) {
+      return null;
+    }
+    GoogleJsonError details = ((GoogleJsonResponseException) e).getDetails();
+    if (details == null || details.getErrors() == null || details.getErrors().isEmpty()) {
+      return null;
+    }
+    return details.getErrors().get(0).getReason();
+  }
+
+  /**
+   * @return quota units taken from the bucket since the limiter was created
+   */
+  public long getUnitsConsumed() {
+    return unitsConsumed.get();
+  }
+
+  /**
+   * @return quota units currently left in the bucket
+   */
+  public synchronized long getAvailableUnits() {
+    refill();
+    return (long) Math.max(0, availableUnits);
+  }
+
+  /**
+   * @return number of retried attempts since the limiter was created
+   */
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  /**
+   * @return number of calls refused by the bucket or the open circuit
+   */
+  public long getRefusedCount() {
+    return refusedCount.get();
+  }
+
+  /**
+   * @return true if calls are currently being refused by the circuit breaker
+   */
+  public synchronized boolean isCircuitOpen() {
+    return circuitState != CircuitState.CLOSED;
+  }
+}
@@ -34,6 +34,18 @@ function extractYouTubeUrl(url) {
   }
 }
 
+/**
+ * Escape text so that it can be inserted into HTML as is
+ * @param {String} text untrusted text, such as a comment written by a user
+ * @return {String} the text with HTML special characters replaced by entities
+ */
+function escapeHtml(text) {
+  const entities = {
+    '&': '&amp;', '<': '&lt;', '>': '&gt;', '"': '&quot;', '\'': '&#39;',
+  };
+  return String(text).replace(/[&<>"']/g, (character) => entities[character]);
+}
+
 /**
  * Clear all children of an element
  * @param {String} elementId element name to be cleared
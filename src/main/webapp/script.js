@@ -58,6 +58,38 @@ async function getYouTubeComments(url) {
   return comments;
 }
 
+/**
+ * Stream the analysis of the youtube comments given the URL, receiving
+ * partial statistics as pages of comments are scored
+ * @param {String} url to pass into backend
+ * @param {Function} onStatistics called with each partial statistics
+ *     object, and finally with the complete one
+ * @return {Promise<JSON>} the complete statistics object
+ */
+function streamYouTubeComments(url, onStatistics) {
+  url = extractYouTubeUrl(url);
+  const numComments = document.getElementById(SLIDER_NAME).value;
+  return new Promise((resolve, reject) => {
+    const source = new EventSource('/YouTubeCommentsStream?url=' + url +
+        '&numComments=' + numComments);
+    source.addEventListener('progress', (event) => {
+      onStatistics(JSON.parse(event.data));
+    });
+    source.addEventListener('result', (event) => {
+      // Closing keeps the browser from reconnecting and analyzing again
+      source.close();
+      const comments = JSON.parse(event.data);
+      onStatistics(comments);
+      resolve(comments);
+    });
+    source.addEventListener('error', (event) => {
+      source.close();
+      reject(new Error(event.data ? JSON.parse(event.data).message :
+          'Lost connection to the analysis stream'));
+    });
+  });
+}
+
 /**
  * Wrapper function for preparing onClick function
  */
@@ -104,22 +136,39 @@ async function displayOverallResults(url, idPrefix) {
   clearElement(idPrefix + 'chart-container');
   clearElement(idPrefix + 'word-cloud-container');
   try {
-    commentStats = await getYouTubeComments(url);
-    sentimentBucketList = commentStats.sentimentBucketList;
-    wordFrequencyMap = commentStats.wordFrequencyMap;
-    displaySentimentBucketChart(sentimentBucketList, idPrefix);
-    displayWordCloudChart(wordFrequencyMap, idPrefix);
-
-    hideLoadingGif(idPrefix);
-
-    averageScore = commentStats.averageScore;
-    averageContainer.innerHTML = 'Average Sentiment Score: ' + averageScore.toFixed(2);
+    if (window.EventSource) {
+      // Show partial results as soon as the first page of comments is scored
+      await streamYouTubeComments(url,
+          (commentStats) => displayStatistics(commentStats, idPrefix));
+    } else {
+      displayStatistics(await getYouTubeComments(url), idPrefix);
+    }
   } catch (err) {
     err.message = 'Error in overall display: ' + err.message;
     displayError(err, idPrefix);
   }
 }
 
+/**
+ * Draw the charts and average score of a statistics object, replacing
+ * the ones drawn for an earlier partial result
+ * @param {JSON} commentStats statistics of the comments scored so far
+ * @param {string} idPrefix prefix of div id to be altered
+ */
+function displayStatistics(commentStats, idPrefix) {
+  clearElement(idPrefix + 'chart-container');
+  clearElement(idPrefix + 'word-cloud-container');
+  displaySentimentBucketChart(commentStats.sentimentBucketList, idPrefix);
+  displayWordCloudChart(commentStats.wordFrequencyMap, idPrefix);
+
+  hideLoadingGif(idPrefix);
+
+  const averageContainer = document.getElementById(idPrefix +
+      'average-score-container');
+  averageContainer.innerHTML = 'Average Sentiment Score: ' +
+      commentStats.averageScore.toFixed(2);
+}
+
 /**
  * Create a bar chart of sentiment score interval, frequency
  * and high magnitude comments
@@ -198,7 +247,9 @@ function toTooltipString(userComments) {
  */
 function userCommentAsString(comment) {
   commentMagnitude = comment.magnitudeScore;
-  return comment.commentMsg + '<br> Magnitude Score: ' + commentMagnitude.toFixed(2);
+  // Comments arrive as plain text written by anyone, and the tooltip is HTML
+  return escapeHtml(comment.commentMsg) + '<br> Magnitude Score: ' +
+      commentMagnitude.toFixed(2);
 }
 
 /**
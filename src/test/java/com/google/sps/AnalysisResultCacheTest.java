@@ -0,0 +1,144 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.base.Ticker;
+import com.google.sps.servlets.utils.AnalysisRequest;
+import com.google.sps.servlets.utils.AnalysisResult;
+import com.google.sps.servlets.utils.AnalysisResultCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for caching analysis results with background refreshes */
+@RunWith(JUnit4.class)
+public class AnalysisResultCacheTest {
+  private static final AnalysisRequest FIRST_REQUEST = new AnalysisRequest("first", 100, 10, null);
+
+  private final AtomicLong fakeNanos = new AtomicLong();
+  private final Ticker fakeTicker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return fakeNanos.get();
+        }
+      };
+  // Refreshes only run when the test drains them
+  private final List<Runnable> pendingRefreshes = new ArrayList<>();
+  private final AtomicInteger loadCount = new AtomicInteger();
+  private AnalysisResultCache resultCache;
+
+  private AnalysisResult load(AnalysisRequest request) {
+    return new AnalysisResult(
+        request.getVideoId() + "#" + loadCount.incrementAndGet(), "total;dur=1");
+  }
+
+  private AnalysisResultCache createCache(long maxBytes) {
+    return new AnalysisResultCache(
+        this::load, pendingRefreshes::add, maxBytes, 1, 10, TimeUnit.MINUTES, fakeTicker);
+  }
+
+  private void runPendingRefreshes() {
+    List<Runnable> refreshes = new ArrayList<>(pendingRefreshes);
+    pendingRefreshes.clear();
+    refreshes.forEach(Runnable::run);
+  }
+
+  @Before
+  public void setUp() {
+    resultCache = createCache(1024 * 1024);
+  }
+
+  @Test
+  public void testRepeatedRequestIsServedFromCache() throws Exception {
+    Assert.assertEquals("first#1", resultCache.get(FIRST_REQUEST).getJson());
+    Assert.assertEquals(
+        "first#1", resultCache.get(new AnalysisRequest("first", 100, 10, null)).getJson());
+    Assert.assertEquals(1, loadCount.get());
+    Assert.assertEquals(1, resultCache.getHitCount());
+    Assert.assertEquals(1, resultCache.getMissCount());
+    Assert.assertEquals(0.5, resultCache.getHitRate(), 0);
+  }
+
+  @Test
+  public void testDifferentParametersAreCachedSeparately() throws Exception {
+    resultCache.get(FIRST_REQUEST);
+    resultCache.get(new AnalysisRequest("first", 200, 10, null));
+    resultCache.get(new AnalysisRequest("first", 100, 20, null));
+    resultCache.get(new AnalysisRequest("first", 100, 10, 0.01));
+    Assert.assertEquals(4, loadCount.get());
+  }
+
+  @Test
+  public void testStaleResultIsServedWhileRefreshing() throws Exception {
+    resultCache.get(FIRST_REQUEST);
+    fakeNanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+
+    // The stale result is returned at once and a refresh is scheduled
+    Assert.assertEquals("first#1", resultCache.get(FIRST_REQUEST).getJson());
+    Assert.assertEquals(1, pendingRefreshes.size());
+    Assert.assertEquals(1, loadCount.get());
+
+    runPendingRefreshes();
+    Assert.assertEquals("first#2", resultCache.get(FIRST_REQUEST).getJson());
+    Assert.assertTrue(pendingRefreshes.isEmpty());
+  }
+
+  @Test
+  public void testExpiredResultIsRecomputed() throws Exception {
+    resultCache.get(FIRST_REQUEST);
+    fakeNanos.addAndGet(TimeUnit.MINUTES.toNanos(11));
+
+    Assert.assertEquals("first#2", resultCache.get(FIRST_REQUEST).getJson());
+    Assert.assertTrue(pendingRefreshes.isEmpty());
+  }
+
+  @Test
+  public void testMemoryIsBoundedByBytes() throws Exception {
+    // Each small result weighs a little over 200 bytes, so at most 9 fit
+    resultCache = createCache(2000);
+    for (int i = 0; i < 20; i++) {
+      resultCache.get(new AnalysisRequest("video" + i, 100, 10, null));
+    }
+    Assert.assertTrue(resultCache.getEvictionCount() >= 11);
+  }
+
+  @Test
+  public void testRequestToStringListsEveryParameter() {
+    Assert.assertEquals(
+        "AnalysisRequest{videoId=first, numComments=100, wordMapSize=10, wordCountError=null,"
+            + " incremental=false, includeReplies=true}",
+        new AnalysisRequest("first", 100, 10, null, false, true).toString());
+  }
+
+  @Test(expected = IOException.class)
+  public void testLoadFailureIsRethrown() throws Exception {
+    AnalysisResultCache failingCache =
+        new AnalysisResultCache(
+            request -> {
+              throw new IOException("quota exceeded");
+            },
+            Runnable::run);
+    failingCache.get(FIRST_REQUEST);
+  }
+}
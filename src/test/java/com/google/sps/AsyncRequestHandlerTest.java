@@ -0,0 +1,191 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.sps.servlets.utils.AsyncRequestHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+/** JUnit test for serving requests asynchronously and timing them out */
+@RunWith(JUnit4.class)
+public class AsyncRequestHandlerTest {
+  private static final long TIMEOUT_MILLIS = 60_000L;
+
+  private final AsyncRequestHandler asyncRequestHandler =
+      new AsyncRequestHandler("async-test-%d", 2, 2, TIMEOUT_MILLIS);
+  private final ExecutorService timeoutExecutor = Executors.newSingleThreadExecutor();
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private AsyncContext asyncContext;
+  private final CountDownLatch completed = new CountDownLatch(1);
+
+  @Before
+  public void setUp() {
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    asyncContext = mock(AsyncContext.class);
+    when(request.startAsync(request, response)).thenReturn(asyncContext);
+    doAnswer(
+            invocation -> {
+              completed.countDown();
+              return null;
+            })
+        .when(asyncContext)
+        .complete();
+  }
+
+  @After
+  public void tearDown() {
+    asyncRequestHandler.shutdown();
+    timeoutExecutor.shutdownNow();
+  }
+
+  private AsyncListener listener() {
+    ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+    verify(asyncContext).addListener(listener.capture());
+    return listener.getValue();
+  }
+
+  /** Output stream whose first write blocks until released, like a write to a slow client. */
+  private static class SlowOutputStream extends ServletOutputStream {
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final CountDownLatch writeStarted = new CountDownLatch(1);
+    private final CountDownLatch writeReleased = new CountDownLatch(1);
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      writeStarted.countDown();
+      try {
+        writeReleased.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      written.write(bytes, offset, length);
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {}
+  }
+
+  @Test
+  public void timeoutDuringWriteWaitsForItAndRefusesLaterWrites() throws Exception {
+    SlowOutputStream outputStream = new SlowOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStream);
+    // A streamed response is committed by its first events
+    when(response.isCommitted()).thenReturn(true);
+    doThrow(new IllegalStateException("Committed")).when(response).sendError(anyInt(), anyString());
+    AtomicReference<Exception> laterWriteFailure = new AtomicReference<>();
+    CountDownLatch handled = new CountDownLatch(1);
+    CountDownLatch timedOut = new CountDownLatch(1);
+
+    asyncRequestHandler.start(
+        request,
+        response,
+        (servedRequest, servedResponse) -> {
+          try {
+            servedResponse.getOutputStream().write("first".getBytes(StandardCharsets.UTF_8));
+            // Like the blocking calls of an analysis, the wait ignores the worker's interruption
+            Uninterruptibles.awaitUninterruptibly(timedOut);
+            try {
+              servedResponse.getOutputStream().write("second".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+              laterWriteFailure.set(e);
+            }
+          } finally {
+            handled.countDown();
+          }
+        });
+    Assert.assertTrue(outputStream.writeStarted.await(5, TimeUnit.SECONDS));
+    Future<?> timeout =
+        timeoutExecutor.submit(
+            () -> {
+              listener().onTimeout(null);
+              return null;
+            });
+
+    // The timeout does not finish the request under the write in progress
+    Thread.sleep(100);
+    Assert.assertFalse(timeout.isDone());
+    verify(asyncContext, never()).complete();
+    outputStream.writeReleased.countDown();
+    timeout.get(5, TimeUnit.SECONDS);
+    timedOut.countDown();
+
+    Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+    Assert.assertTrue(handled.await(5, TimeUnit.SECONDS));
+    Assert.assertNotNull(laterWriteFailure.get());
+    Assert.assertEquals("first", outputStream.written.toString("UTF-8"));
+    verify(response, never()).sendError(anyInt(), anyString());
+    // The worker does not complete the request a second time
+    Thread.sleep(100);
+    verify(asyncContext, times(1)).complete();
+  }
+
+  @Test
+  public void timeoutCompletesEvenIfErrorCannotBeSent() throws Exception {
+    CountDownLatch released = new CountDownLatch(1);
+    doThrow(new IllegalStateException("Committed")).when(response).sendError(anyInt(), anyString());
+
+    asyncRequestHandler.start(
+        request, response, (servedRequest, servedResponse) -> released.await());
+    listener().onTimeout(null);
+
+    Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+    released.countDown();
+    Thread.sleep(100);
+    verify(asyncContext, times(1)).complete();
+  }
+}
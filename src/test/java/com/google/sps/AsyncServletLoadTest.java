@@ -0,0 +1,223 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.Video;
+import com.google.api.services.youtube.model.VideoListResponse;
+import com.google.api.services.youtube.model.VideoSnippet;
+import com.google.api.services.youtube.model.VideoStatistics;
+import com.google.sps.servlets.ContextServlet;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Load test of serving requests asynchronously, against a stubbed YouTube API. The container is
+ * simulated by a small pool of request threads; a synchronous servlet holds its request thread
+ * until the response is complete, an asynchronous one hands the request off and takes the next one.
+ */
+@RunWith(JUnit4.class)
+public class AsyncServletLoadTest {
+  private static final int CONTAINER_THREADS = 4;
+  private static final int NUM_REQUESTS = 64;
+  private static final long BACKEND_LATENCY_MILLIS = 100L;
+  private static final String TEST_TITLE = "Test Title";
+
+  private ExecutorService containerThreads;
+  private ContextServlet contextServlet;
+  private long backendLatencyMillis = BACKEND_LATENCY_MILLIS;
+  private final AtomicInteger nextVideo = new AtomicInteger();
+
+  @Before
+  public void setUp() throws Exception {
+    // For the API key
+    System.setProperty("resources-folder", "/src/main/webapp");
+    containerThreads = Executors.newFixedThreadPool(CONTAINER_THREADS);
+    YouTube mockedYoutube = mock(YouTube.class, RETURNS_DEEP_STUBS);
+    when(mockedYoutube.videos().list(anyString()).setKey(any()).setId(anyString()))
+        .thenAnswer(invocation -> videoRequest(invocation.getArgument(0)));
+    contextServlet = new ContextServlet(mockedYoutube);
+  }
+
+  @After
+  public void tearDown() {
+    containerThreads.shutdownNow();
+    contextServlet.destroy();
+  }
+
+  /** Request for the comma-separated videos, answered after the backend latency. */
+  private YouTube.Videos.List videoRequest(String videoIds) throws Exception {
+    YouTube.Videos.List request = mock(YouTube.Videos.List.class, RETURNS_SELF);
+    when(request.execute())
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(backendLatencyMillis);
+              return videoListResponse(videoIds.split(","));
+            });
+    return request;
+  }
+
+  private static VideoListResponse videoListResponse(String[] videoIds) {
+    List<Video> videos = new ArrayList<>();
+    for (String videoId : videoIds) {
+      videos.add(video(videoId));
+    }
+    return new VideoListResponse().setItems(videos);
+  }
+
+  private static Video video(String videoId) {
+    return new Video()
+        .setId(videoId)
+        .setSnippet(
+            new VideoSnippet()
+                .setPublishedAt(new DateTime(new Date()))
+                .setTitle(TEST_TITLE)
+                .setChannelTitle("Test Channel"))
+        .setStatistics(
+            new VideoStatistics().setLikeCount(BigInteger.TEN).setDislikeCount(BigInteger.ONE));
+  }
+
+  /** A request whose completion counts down the latch, and whose body goes to the writer. */
+  private AsyncContext mockRequest(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      StringWriter body,
+      CountDownLatch completed)
+      throws Exception {
+    AsyncContext asyncContext = mock(AsyncContext.class);
+    doAnswer(
+            invocation -> {
+              completed.countDown();
+              return null;
+            })
+        .when(asyncContext)
+        .complete();
+    when(request.startAsync(request, response)).thenReturn(asyncContext);
+    // Distinct videos, so that every request waits for the backend instead of the metadata cache
+    when(request.getParameter("url")).thenReturn("video" + nextVideo.incrementAndGet());
+    when(response.getWriter()).thenReturn(new PrintWriter(body, true));
+    return asyncContext;
+  }
+
+  /**
+   * Serve NUM_REQUESTS requests on the container threads.
+   *
+   * @param holdContainerThread whether each container thread waits for its response to complete, as
+   *     it would with a synchronous servlet
+   * @return requests served per second
+   */
+  private double serveAll(boolean holdContainerThread) throws Exception {
+    CountDownLatch allCompleted = new CountDownLatch(NUM_REQUESTS);
+    List<StringWriter> bodies = new ArrayList<>();
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < NUM_REQUESTS; i++) {
+      HttpServletRequest request = mock(HttpServletRequest.class);
+      HttpServletResponse response = mock(HttpServletResponse.class);
+      StringWriter body = new StringWriter();
+      bodies.add(body);
+      CountDownLatch completed = new CountDownLatch(1);
+      mockRequest(request, response, body, completed);
+      containerThreads.execute(
+          () -> {
+            contextServlet.doGet(request, response);
+            try {
+              if (holdContainerThread) {
+                completed.await();
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            allCompleted.countDown();
+          });
+    }
+    Assert.assertTrue(allCompleted.await(30, TimeUnit.SECONDS));
+    for (StringWriter body : bodies) {
+      // Requests counted by a released container thread may still be in flight
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!body.toString().contains(TEST_TITLE) && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertTrue(body.toString(), body.toString().contains(TEST_TITLE));
+    }
+    double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+    return NUM_REQUESTS / elapsedSeconds;
+  }
+
+  @Test
+  public void asyncServingRaisesThroughput() throws Exception {
+    double blockingThroughput = serveAll(true);
+    double asyncThroughput = serveAll(false);
+
+    System.out.printf(
+        "Requests per second with %d container threads: blocking %.1f, async %.1f%n",
+        CONTAINER_THREADS, blockingThroughput, asyncThroughput);
+    // Blocking is capped at CONTAINER_THREADS requests per latency, async at the request threads
+    Assert.assertTrue(
+        "Async " + asyncThroughput + " vs blocking " + blockingThroughput,
+        asyncThroughput > 2 * blockingThroughput);
+  }
+
+  @Test
+  public void timedOutRequestIsAnsweredOnce() throws Exception {
+    backendLatencyMillis = TimeUnit.SECONDS.toMillis(30);
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    CountDownLatch completed = new CountDownLatch(1);
+    AsyncContext asyncContext = mockRequest(request, response, new StringWriter(), completed);
+
+    contextServlet.doGet(request, response);
+    // The container fires the timeout through the listener
+    ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+    verify(asyncContext).addListener(listener.capture());
+    listener.getValue().onTimeout(null);
+
+    Assert.assertTrue(completed.await(1, TimeUnit.SECONDS));
+    verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Request timed out.");
+    // The interrupted worker does not complete the request a second time
+    Thread.sleep(200);
+    verify(asyncContext, times(1)).complete();
+  }
+}
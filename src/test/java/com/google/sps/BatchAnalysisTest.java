@@ -0,0 +1,249 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.Comment;
+import com.google.api.services.youtube.model.CommentSnippet;
+import com.google.api.services.youtube.model.CommentThread;
+import com.google.api.services.youtube.model.CommentThreadListResponse;
+import com.google.api.services.youtube.model.CommentThreadSnippet;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.sps.servlets.utils.BatchAnalysis;
+import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.Statistics;
+import com.google.sps.servlets.utils.YouTubeCommentRetriever;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for analyzing several videos under one budget */
+@RunWith(JUnit4.class)
+public class BatchAnalysisTest {
+  private static final int PAGE_SIZE = 100;
+  private static final long PAGE_LATENCY_MILLIS = 50L;
+  private static final String NEXT_PAGE_TOKEN = "Some Page Token";
+  private static final String FAILING_VIDEO = "commentsDisabled";
+  private static final float TEST_SCORE = 0.23f;
+  private static final float TEST_MAGNITUDE = 1.5f;
+
+  private YouTubeCommentRetriever commentRetriever;
+  private CommentAnalysis commentAnalysis;
+  private final AtomicInteger runningRequests = new AtomicInteger();
+  private final AtomicInteger maxRunningRequests = new AtomicInteger();
+
+  /** Records the outcome of each video in the order they are reported. */
+  private static class RecordingListener implements BatchAnalysis.VideoListener {
+    private final List<String> analyzedVideos = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> failedVideos = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void onVideoAnalyzed(String videoId, Statistics statistics) {
+      analyzedVideos.add(videoId);
+    }
+
+    @Override
+    public void onVideoFailed(String videoId, Exception failure) {
+      failedVideos.add(videoId);
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    // For the common words file
+    System.setProperty("resources-folder", "/src/main/webapp");
+    YouTube mockedYoutube = mock(YouTube.class, RETURNS_DEEP_STUBS);
+    when(mockedYoutube.commentThreads().list(anyString()))
+        .thenAnswer(invocation -> commentThreadRequest());
+    commentRetriever = new YouTubeCommentRetriever(mockedYoutube);
+
+    // Packed documents get no sentences back, so every comment is then scored on its own
+    AnalyzeSentimentResponse sentimentResponse =
+        AnalyzeSentimentResponse.newBuilder()
+            .setDocumentSentiment(
+                Sentiment.newBuilder().setScore(TEST_SCORE).setMagnitude(TEST_MAGNITUDE))
+            .build();
+    LanguageServiceClient mockedLanguageService = mock(LanguageServiceClient.class);
+    when(mockedLanguageService.analyzeSentiment(any(Document.class))).thenReturn(sentimentResponse);
+    when(mockedLanguageService.analyzeSentiment(any(AnalyzeSentimentRequest.class)))
+        .thenReturn(sentimentResponse);
+    commentAnalysis = new CommentAnalysis(mockedLanguageService);
+  }
+
+  /**
+   * Request for full pages of a video's comments, with always another page to come. Requests for
+   * FAILING_VIDEO fail the way videos with comments disabled do.
+   */
+  private YouTube.CommentThreads.List commentThreadRequest() throws IOException {
+    YouTube.CommentThreads.List request = mock(YouTube.CommentThreads.List.class, RETURNS_SELF);
+    AtomicReference<String> videoId = new AtomicReference<>();
+    doAnswer(
+            invocation -> {
+              videoId.set(invocation.getArgument(0));
+              return request;
+            })
+        .when(request)
+        .setVideoId(anyString());
+    doAnswer(
+            invocation -> {
+              int running = runningRequests.incrementAndGet();
+              maxRunningRequests.accumulateAndGet(running, Math::max);
+              try {
+                Thread.sleep(PAGE_LATENCY_MILLIS);
+              } finally {
+                runningRequests.decrementAndGet();
+              }
+              if (FAILING_VIDEO.equals(videoId.get())) {
+                throw new HttpResponseException.Builder(403, "Forbidden", new HttpHeaders())
+                    .setMessage("Comments are disabled for " + videoId.get())
+                    .build();
+              }
+              List<CommentThread> page = new ArrayList<>();
+              for (int i = 0; i < PAGE_SIZE; i++) {
+                page.add(commentThread(videoId.get() + " comment " + i));
+              }
+              return new CommentThreadListResponse()
+                  .setItems(page)
+                  .setNextPageToken(NEXT_PAGE_TOKEN);
+            })
+        .when(request)
+        .execute();
+    return request;
+  }
+
+  private static CommentThread commentThread(String text) {
+    Comment topComment = new Comment().setSnippet(new CommentSnippet().setTextDisplay(text));
+    topComment.setId(text);
+    return new CommentThread()
+        .setSnippet(new CommentThreadSnippet().setTopLevelComment(topComment));
+  }
+
+  @Test
+  public void testBatchReportsEveryVideoAndAggregatesThem() throws Exception {
+    BatchAnalysis batchAnalysis = new BatchAnalysis(commentRetriever, commentAnalysis, 2, 100);
+    RecordingListener listener = new RecordingListener();
+    List<String> videoIds = Arrays.asList("first", "second", "third");
+
+    Statistics aggregate =
+        batchAnalysis.run(videoIds, PAGE_SIZE, CommentAnalysis.DEFAULT_TOP_N, 10, listener);
+
+    Assert.assertEquals(3, listener.analyzedVideos.size());
+    Assert.assertTrue(listener.analyzedVideos.containsAll(videoIds));
+    Assert.assertEquals(3 * PAGE_SIZE, aggregate.getNumComments());
+    Assert.assertEquals(TEST_SCORE, aggregate.getAverageScore(), 0.01);
+    Assert.assertEquals(3, batchAnalysis.getQuotaUnits());
+    Assert.assertEquals(0, batchAnalysis.getNumFailedVideos());
+  }
+
+  @Test
+  public void testFailedVideoIsLeftOutOfAggregate() throws Exception {
+    BatchAnalysis batchAnalysis = new BatchAnalysis(commentRetriever, commentAnalysis, 2, 100);
+    RecordingListener listener = new RecordingListener();
+
+    Statistics aggregate =
+        batchAnalysis.run(
+            Arrays.asList("first", FAILING_VIDEO, "second"),
+            PAGE_SIZE,
+            CommentAnalysis.DEFAULT_TOP_N,
+            10,
+            listener);
+
+    Assert.assertEquals(Collections.singletonList(FAILING_VIDEO), listener.failedVideos);
+    Assert.assertEquals(2, listener.analyzedVideos.size());
+    Assert.assertEquals(2 * PAGE_SIZE, aggregate.getNumComments());
+    Assert.assertEquals(1, batchAnalysis.getNumFailedVideos());
+  }
+
+  @Test
+  public void testVideosShareConcurrencyLimit() throws Exception {
+    BatchAnalysis batchAnalysis = new BatchAnalysis(commentRetriever, commentAnalysis, 2, 100);
+    RecordingListener listener = new RecordingListener();
+
+    batchAnalysis.run(
+        Arrays.asList("a", "b", "c", "d", "e", "f"),
+        PAGE_SIZE,
+        CommentAnalysis.DEFAULT_TOP_N,
+        10,
+        listener);
+
+    Assert.assertEquals(6, listener.analyzedVideos.size());
+    Assert.assertTrue(
+        "Max running requests: " + maxRunningRequests.get(), maxRunningRequests.get() <= 2);
+  }
+
+  @Test
+  public void testQuotaBudgetIsSplitAmongVideos() throws Exception {
+    BatchAnalysis batchAnalysis = new BatchAnalysis(commentRetriever, commentAnalysis, 2, 4);
+    RecordingListener listener = new RecordingListener();
+
+    Statistics aggregate =
+        batchAnalysis.run(
+            Arrays.asList("first", "second"),
+            5 * PAGE_SIZE,
+            CommentAnalysis.DEFAULT_TOP_N,
+            10,
+            listener);
+
+    // Two pages per video, although every video has more
+    Assert.assertEquals(4, batchAnalysis.getQuotaUnits());
+    Assert.assertEquals(4 * PAGE_SIZE, aggregate.getNumComments());
+    Assert.assertEquals(50, batchAnalysis.getCommentsPerVideo(2, 50));
+    // Every video gets at least one page, even when the budget is smaller than the batch
+    Assert.assertEquals(PAGE_SIZE, batchAnalysis.getCommentsPerVideo(10, 5 * PAGE_SIZE));
+  }
+
+  @Test
+  public void testRequestsBeyondBudgetAreRefused() throws Exception {
+    // One page per video, but only two of them are paid for
+    BatchAnalysis batchAnalysis = new BatchAnalysis(commentRetriever, commentAnalysis, 1, 2);
+    RecordingListener listener = new RecordingListener();
+
+    Statistics aggregate =
+        batchAnalysis.run(
+            Arrays.asList("first", "second", "third"),
+            PAGE_SIZE,
+            CommentAnalysis.DEFAULT_TOP_N,
+            10,
+            listener);
+
+    Assert.assertEquals(Arrays.asList("first", "second"), listener.analyzedVideos);
+    Assert.assertEquals(Collections.singletonList("third"), listener.failedVideos);
+    Assert.assertEquals(2 * PAGE_SIZE, aggregate.getNumComments());
+    Assert.assertEquals(2, batchAnalysis.getQuotaUnits());
+  }
+}
@@ -0,0 +1,206 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.util.DateTime;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.sps.servlets.utils.BatchSentimentAnalyzer;
+import com.google.sps.servlets.utils.SentimentService;
+import com.google.sps.servlets.utils.UserComment;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for packing several comments into one sentiment request */
+@RunWith(JUnit4.class)
+public class BatchSentimentAnalyzerTest {
+  private static final String SENTENCE_DELIMITER = "\n\n";
+  private static final int NUM_COMMENTS = 200;
+
+  private LanguageServiceClient mockedLanguageService;
+
+  /** Score every text by its length, so that each comment has a recognizable sentiment. */
+  private static Sentiment sentimentOf(String text) {
+    return Sentiment.newBuilder()
+        .setScore(text.length() / 100f)
+        .setMagnitude(text.length() / 10f)
+        .build();
+  }
+
+  /** Split a document into sentences at blank lines, reporting offsets like the real API. */
+  private static AnalyzeSentimentResponse splitIntoSentences(String content) {
+    AnalyzeSentimentResponse.Builder response = AnalyzeSentimentResponse.newBuilder();
+    int sentenceStart = 0;
+    while (sentenceStart <= content.length()) {
+      int sentenceEnd = content.indexOf(SENTENCE_DELIMITER, sentenceStart);
+      sentenceEnd = sentenceEnd < 0 ? content.length() : sentenceEnd;
+      String sentence = content.substring(sentenceStart, sentenceEnd);
+      response.addSentences(
+          Sentence.newBuilder()
+              .setText(TextSpan.newBuilder().setContent(sentence).setBeginOffset(sentenceStart))
+              .setSentiment(sentimentOf(sentence)));
+      sentenceStart = sentenceEnd + SENTENCE_DELIMITER.length();
+    }
+    return response.build();
+  }
+
+  @Before
+  public void setUp() {
+    mockedLanguageService = mock(LanguageServiceClient.class);
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              Document document = invocation.getArgument(0);
+              return AnalyzeSentimentResponse.newBuilder()
+                  .setDocumentSentiment(sentimentOf(document.getContent()))
+                  .build();
+            });
+    when(mockedLanguageService.analyzeSentiment(any(AnalyzeSentimentRequest.class)))
+        .thenAnswer(
+            invocation -> {
+              AnalyzeSentimentRequest request = invocation.getArgument(0);
+              return splitIntoSentences(request.getDocument().getContent());
+            });
+  }
+
+  private static List<UserComment> createComments(String textPrefix) {
+    List<UserComment> comments = new ArrayList<>();
+    for (int i = 0; i < NUM_COMMENTS; i++) {
+      comments.add(
+          new UserComment(String.valueOf(i), textPrefix + i, new DateTime(new Date()), 0, 0));
+    }
+    return comments;
+  }
+
+  private static void assertScoredIndividually(List<UserComment> comments) {
+    for (UserComment comment : comments) {
+      Sentiment expectedSentiment = sentimentOf(comment.getCommentMsg());
+      Assert.assertEquals(expectedSentiment.getScore(), comment.getScore(), 1e-6);
+      Assert.assertEquals(expectedSentiment.getMagnitude(), comment.getMagnitude(), 1e-6);
+    }
+  }
+
+  @Test
+  public void testPacksCommentsIntoFewRequests() {
+    BatchSentimentAnalyzer sentimentAnalyzer =
+        new BatchSentimentAnalyzer(mockedLanguageService, 1000);
+    List<UserComment> comments = createComments("Nice video number ");
+    sentimentAnalyzer.analyze(comments);
+
+    // About 20 bytes per comment, so roughly 50 comments share each request
+    Assert.assertTrue(sentimentAnalyzer.getRequestCount() <= NUM_COMMENTS / 40);
+    assertScoredIndividually(comments);
+  }
+
+  @Test
+  public void testOversizedCommentSentAlone() {
+    BatchSentimentAnalyzer sentimentAnalyzer = new BatchSentimentAnalyzer(mockedLanguageService, 5);
+    List<UserComment> comments = createComments("Too long for a batch ");
+    sentimentAnalyzer.analyze(comments);
+
+    Assert.assertEquals(NUM_COMMENTS, sentimentAnalyzer.getRequestCount());
+    assertScoredIndividually(comments);
+  }
+
+  @Test
+  public void testFallsBackWhenSentenceCrossesComments() {
+    // The API sees the whole document as one sentence, so no comment can be attributed
+    when(mockedLanguageService.analyzeSentiment(any(AnalyzeSentimentRequest.class)))
+        .thenAnswer(
+            invocation -> {
+              String content =
+                  ((AnalyzeSentimentRequest) invocation.getArgument(0)).getDocument().getContent();
+              return AnalyzeSentimentResponse.newBuilder()
+                  .addSentences(
+                      Sentence.newBuilder()
+                          .setText(TextSpan.newBuilder().setContent(content).setBeginOffset(0))
+                          .setSentiment(sentimentOf(content)))
+                  .build();
+            });
+    BatchSentimentAnalyzer sentimentAnalyzer =
+        new BatchSentimentAnalyzer(mockedLanguageService, 1000);
+    List<UserComment> comments = createComments("run on ");
+    sentimentAnalyzer.analyze(comments);
+
+    assertScoredIndividually(comments);
+  }
+
+  @Test
+  public void testMultipleSentencesInOneComment() {
+    BatchSentimentAnalyzer sentimentAnalyzer =
+        new BatchSentimentAnalyzer(mockedLanguageService, 1000);
+    List<UserComment> comments = new ArrayList<>();
+    comments.add(new UserComment("0", "ab" + SENTENCE_DELIMITER + "cdef", null, 0, 0));
+    comments.add(new UserComment("1", "ghi", null, 0, 0));
+    sentimentAnalyzer.analyze(comments);
+
+    Assert.assertEquals(1, sentimentAnalyzer.getRequestCount());
+    // Mean score and summed magnitude of "ab" and "cdef"
+    Assert.assertEquals(0.03, comments.get(0).getScore(), 1e-6);
+    Assert.assertEquals(0.6, comments.get(0).getMagnitude(), 1e-6);
+    Assert.assertEquals(0.03, comments.get(1).getScore(), 1e-6);
+  }
+
+  @Test
+  public void testLimitsFanOutPerRequest() {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              Thread.sleep(5);
+              inFlight.decrementAndGet();
+              return AnalyzeSentimentResponse.getDefaultInstance();
+            });
+    BatchSentimentAnalyzer sentimentAnalyzer =
+        new BatchSentimentAnalyzer(new SentimentService(mockedLanguageService), 1, 3);
+    sentimentAnalyzer.analyze(createComments("alone "));
+
+    Assert.assertEquals(NUM_COMMENTS, sentimentAnalyzer.getRequestCount());
+    Assert.assertTrue(maxInFlight.get() <= 3);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testFailsAfterRequestDeadline() {
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(1000);
+              return AnalyzeSentimentResponse.getDefaultInstance();
+            });
+    BatchSentimentAnalyzer sentimentAnalyzer =
+        new BatchSentimentAnalyzer(new SentimentService(mockedLanguageService), 1, 1);
+    sentimentAnalyzer.setRequestTimeout(50, TimeUnit.MILLISECONDS);
+    sentimentAnalyzer.analyze(createComments("slow "));
+  }
+}
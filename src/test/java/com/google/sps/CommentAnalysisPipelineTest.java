@@ -0,0 +1,167 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.Comment;
+import com.google.api.services.youtube.model.CommentSnippet;
+import com.google.api.services.youtube.model.CommentThread;
+import com.google.api.services.youtube.model.CommentThreadListResponse;
+import com.google.api.services.youtube.model.CommentThreadSnippet;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.CommentAnalysisPipeline;
+import com.google.sps.servlets.utils.Statistics;
+import com.google.sps.servlets.utils.YouTubeCommentRetriever;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for overlapping comment retrieval with sentiment analysis */
+@RunWith(JUnit4.class)
+public class CommentAnalysisPipelineTest {
+  private static final int NUM_PAGES = 5;
+  private static final long NUM_COMMENTS = NUM_PAGES * 100L;
+  private static final long STAGE_LATENCY_MILLIS = 100L;
+  private static final String NEXT_PAGE_TOKEN = "Some Page Token";
+  private static final String VIDEO_ID = "dummyVideo";
+  private static final float TEST_SCORE = 0.23f;
+  private static final float TEST_MAGNITUDE = 1.5f;
+
+  private YouTubeCommentRetriever commentRetriever;
+  private CommentAnalysis commentAnalysis;
+
+  @Before
+  public void setUp() throws Exception {
+    // For the common words file
+    System.setProperty("resources-folder", "/src/main/webapp");
+    // Every page holds a single comment, so fetching and scoring a page take equally long
+    YouTube mockedYoutube = mock(YouTube.class, RETURNS_DEEP_STUBS);
+    YouTube.CommentThreads.List mockedCommentThreadList =
+        mock(YouTube.CommentThreads.List.class, RETURNS_DEEP_STUBS);
+    AtomicInteger pagesServed = new AtomicInteger();
+    when(mockedCommentThreadList.execute())
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(STAGE_LATENCY_MILLIS);
+              int pageIndex = pagesServed.incrementAndGet();
+              return new CommentThreadListResponse()
+                  .setItems(Collections.singletonList(commentThread(String.valueOf(pageIndex))))
+                  .setNextPageToken(pageIndex == NUM_PAGES ? null : NEXT_PAGE_TOKEN);
+            });
+    when(mockedYoutube.commentThreads().list(anyString())).thenReturn(mockedCommentThreadList);
+    commentRetriever = new YouTubeCommentRetriever(mockedYoutube);
+
+    LanguageServiceClient mockedLanguageService = mock(LanguageServiceClient.class);
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(STAGE_LATENCY_MILLIS);
+              return AnalyzeSentimentResponse.newBuilder()
+                  .setDocumentSentiment(
+                      Sentiment.newBuilder().setScore(TEST_SCORE).setMagnitude(TEST_MAGNITUDE))
+                  .build();
+            });
+    commentAnalysis = new CommentAnalysis(mockedLanguageService);
+  }
+
+  private static CommentThread commentThread(String commentId) {
+    Comment topComment =
+        new Comment().setSnippet(new CommentSnippet().setTextDisplay("Comment " + commentId));
+    topComment.setId(commentId);
+    return new CommentThread()
+        .setSnippet(new CommentThreadSnippet().setTopLevelComment(topComment));
+  }
+
+  @Test
+  public void testPipelineScoresEveryPage() throws Exception {
+    CommentAnalysisPipeline pipeline =
+        new CommentAnalysisPipeline(commentRetriever, commentAnalysis);
+    Statistics statistics = pipeline.run(VIDEO_ID, NUM_COMMENTS);
+
+    int totalFrequency =
+        statistics.getSentimentBucketList().stream()
+            .mapToInt(bucket -> bucket.getFrequency())
+            .sum();
+    Assert.assertEquals(NUM_PAGES, totalFrequency);
+    Assert.assertEquals(TEST_SCORE, statistics.getAverageScore(), 0.01);
+    Assert.assertEquals(TEST_MAGNITUDE, statistics.getAverageMagnitude(), 0.01);
+  }
+
+  @Test
+  public void testPipelineOverlapsRetrievalAndAnalysis() throws Exception {
+    CommentAnalysisPipeline pipeline =
+        new CommentAnalysisPipeline(commentRetriever, commentAnalysis, 1, 1, 1);
+    // Warm up the mocks and the common word list so that only pipeline latency is measured
+    pipeline.run(VIDEO_ID, NUM_COMMENTS);
+    pipeline.run(VIDEO_ID, NUM_COMMENTS);
+
+    long sequentialMillis = 2 * NUM_PAGES * STAGE_LATENCY_MILLIS;
+    Assert.assertTrue(pipeline.getRetrievalMillis() >= NUM_PAGES * STAGE_LATENCY_MILLIS);
+    Assert.assertTrue(pipeline.getAnalysisMillis() >= NUM_PAGES * STAGE_LATENCY_MILLIS);
+    // Close to max(retrieval, analysis) plus one page, rather than their sum
+    Assert.assertTrue(
+        "Pipeline took " + pipeline.getTotalMillis() + "ms",
+        pipeline.getTotalMillis() < sequentialMillis * 0.8);
+  }
+
+  @Test
+  public void testPipelineReportsProgressAfterEachPage() throws Exception {
+    CommentAnalysisPipeline pipeline =
+        new CommentAnalysisPipeline(commentRetriever, commentAnalysis, 1, 1, 1);
+    List<Long> numCommentsReported = new ArrayList<>();
+    AtomicLong firstProgressNanos = new AtomicLong();
+    long startNanos = System.nanoTime();
+    pipeline.setProgressListener(
+        partialStatistics -> {
+          firstProgressNanos.compareAndSet(0, System.nanoTime() - startNanos);
+          numCommentsReported.add(partialStatistics.getNumComments());
+        },
+        0);
+
+    Statistics statistics = pipeline.run(VIDEO_ID, NUM_COMMENTS);
+
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), numCommentsReported);
+    Assert.assertEquals(NUM_PAGES, statistics.getNumComments());
+    // The first page is reported after fetching and scoring it, long before the run is done
+    long firstProgressMillis = TimeUnit.NANOSECONDS.toMillis(firstProgressNanos.get());
+    Assert.assertTrue(
+        "First progress after " + firstProgressMillis + "ms",
+        firstProgressMillis < pipeline.getTotalMillis() / 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyAnalysisStage() {
+    new CommentAnalysisPipeline(commentRetriever, commentAnalysis, 1, 1, 0);
+  }
+}
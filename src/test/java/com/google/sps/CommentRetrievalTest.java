@@ -18,12 +18,25 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.mock;
 
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.CommentThread;
 import com.google.api.services.youtube.model.CommentThreadListResponse;
+import com.google.sps.servlets.utils.CommentThreadView;
+import com.google.sps.servlets.utils.UserComment;
 import com.google.sps.servlets.utils.YouTubeCommentRetriever;
+import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -42,6 +55,8 @@ public class CommentRetrievalTest {
   private final String NEXT_PAGE_TOKEN = "Some Page Token";
   private final String FIRST_TOKEN_COMMENT = "First";
   private final String SECOND_TOKEN_COMMENT = "Second";
+  private final int NUM_LATENCY_PAGES = 5;
+  private final long PAGE_LATENCY_MILLIS = 100L;
 
   // Simulate a CommentThreadListResponse with exactly as many comments as expected
   public void setUpYouTubeMocks(int numExpectedComments) throws Exception {
@@ -75,6 +90,34 @@ public class CommentRetrievalTest {
     commentRetriever = new YouTubeCommentRetriever(mockedYoutube);
   }
 
+  // Simulate NUM_LATENCY_PAGES full pages where every page request takes PAGE_LATENCY_MILLIS
+  private void setUpSlowYouTubeMocks() throws Exception {
+    YouTube mockedYoutube = mock(YouTube.class, RETURNS_DEEP_STUBS);
+    YouTube.CommentThreads.List mockedCommentThreadList =
+        mock(YouTube.CommentThreads.List.class, RETURNS_DEEP_STUBS);
+    AtomicInteger pagesServed = new AtomicInteger();
+    when(mockedCommentThreadList.execute())
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(PAGE_LATENCY_MILLIS);
+              boolean isLastPage = pagesServed.incrementAndGet() == NUM_LATENCY_PAGES;
+              return mockThreadListResponse(
+                  MAX_COMMENTS_PER_TOKEN, isLastPage ? null : NEXT_PAGE_TOKEN, FIRST_TOKEN_COMMENT);
+            });
+    when(mockedYoutube.commentThreads().list(anyString())).thenReturn(mockedCommentThreadList);
+    commentRetriever = new YouTubeCommentRetriever(mockedYoutube);
+  }
+
+  // Stand-in for downstream work that takes as long as fetching a page
+  private void consumePage(List<CommentThreadView> page, List<CommentThreadView> consumed) {
+    try {
+      Thread.sleep(PAGE_LATENCY_MILLIS);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    consumed.addAll(page);
+  }
+
   // Creates list of comments of desired length.
   // Page token is needed for iteration but its contents are irrelevant.
   private CommentThreadListResponse mockThreadListResponse(
@@ -96,7 +139,7 @@ public class CommentRetrievalTest {
   @Test
   public void testBasicExraction() throws Exception {
     setUpYouTubeMocks(HUNDRED);
-    List<CommentThread> comments = commentRetriever.retrieveComments(videoUrl, HUNDRED);
+    List<CommentThreadView> comments = commentRetriever.retrieveComments(videoUrl, HUNDRED);
     Assert.assertEquals(comments.size(), HUNDRED);
   }
 
@@ -104,7 +147,7 @@ public class CommentRetrievalTest {
   @Test
   public void doesNotAttemptRetrieveExcess() throws Exception {
     setUpYouTubeMocks(1);
-    List<CommentThread> comments = commentRetriever.retrieveComments(videoUrl, EXCESS_HUNDRED);
+    List<CommentThreadView> comments = commentRetriever.retrieveComments(videoUrl, EXCESS_HUNDRED);
     Assert.assertEquals(comments.size(), 1);
   }
 
@@ -112,7 +155,7 @@ public class CommentRetrievalTest {
   @Test
   public void retrievesSpecificNumComments() throws Exception {
     setUpYouTubeMocks(12);
-    List<CommentThread> comments = commentRetriever.retrieveComments(videoUrl, 12);
+    List<CommentThreadView> comments = commentRetriever.retrieveComments(videoUrl, 12);
     Assert.assertEquals(comments.size(), 12);
   }
 
@@ -120,19 +163,156 @@ public class CommentRetrievalTest {
   @Test
   public void retrievesSpecificNumCommentsExcessHundred() throws Exception {
     setUpYouTubeMocks(120);
-    List<CommentThread> comments = commentRetriever.retrieveComments(videoUrl, 120);
+    List<CommentThreadView> comments = commentRetriever.retrieveComments(videoUrl, 120);
     Assert.assertEquals(comments.size(), 120);
   }
 
   @Test
   public void retrievesCorrectCommentContent() throws Exception {
     setUpYouTubeMocks(200);
-    List<CommentThread> comments = commentRetriever.retrieveComments(videoUrl, 200);
-    String firstCommentContent =
-        comments.get(0).getSnippet().getTopLevelComment().getSnippet().getTextDisplay();
-    String lastCommentContent =
-        comments.get(199).getSnippet().getTopLevelComment().getSnippet().getTextDisplay();
+    List<CommentThreadView> comments = commentRetriever.retrieveComments(videoUrl, 200);
+    String firstCommentContent = comments.get(0).getTopLevelComment().getTextDisplay();
+    String lastCommentContent = comments.get(199).getTopLevelComment().getTextDisplay();
     Assert.assertEquals(FIRST_TOKEN_COMMENT, firstCommentContent);
     Assert.assertEquals(SECOND_TOKEN_COMMENT, lastCommentContent);
   }
+
+  // Pipelined retrieval hands over every page in order
+  @Test
+  public void pipelinedRetrievalDeliversAllPages() throws Exception {
+    setUpYouTubeMocks(200);
+    List<CommentThreadView> comments = new ArrayList<>();
+    commentRetriever.retrieveComments(videoUrl, 200, comments::addAll);
+    Assert.assertEquals(200, comments.size());
+    Assert.assertEquals(
+        SECOND_TOKEN_COMMENT, comments.get(199).getTopLevelComment().getTextDisplay());
+  }
+
+  // Fetching the next page while consuming the current one beats fetch-then-consume
+  @Test
+  public void pipelinedRetrievalOverlapsFetchAndConsume() throws Exception {
+    long numComments = NUM_LATENCY_PAGES * MAX_COMMENTS_PER_TOKEN;
+
+    setUpSlowYouTubeMocks();
+    List<CommentThreadView> sequentialComments = new ArrayList<>();
+    long sequentialStart = System.nanoTime();
+    List<CommentThreadView> fetched = commentRetriever.retrieveComments(videoUrl, numComments);
+    for (int i = 0; i < fetched.size(); i += MAX_COMMENTS_PER_TOKEN) {
+      consumePage(fetched.subList(i, i + MAX_COMMENTS_PER_TOKEN), sequentialComments);
+    }
+    long sequentialNanos = System.nanoTime() - sequentialStart;
+
+    setUpSlowYouTubeMocks();
+    List<CommentThreadView> pipelinedComments = new ArrayList<>();
+    long pipelinedStart = System.nanoTime();
+    commentRetriever.retrieveComments(
+        videoUrl, numComments, page -> consumePage(page, pipelinedComments));
+    long pipelinedNanos = System.nanoTime() - pipelinedStart;
+
+    Assert.assertEquals(numComments, sequentialComments.size());
+    Assert.assertEquals(numComments, pipelinedComments.size());
+    // Sequential costs about 2 * NUM_LATENCY_PAGES latencies, pipelined about NUM_LATENCY_PAGES + 1
+    Assert.assertTrue(
+        "Pipelined " + pipelinedNanos + "ns vs sequential " + sequentialNanos + "ns",
+        pipelinedNanos < sequentialNanos * 0.8);
+  }
+
+  // A consumer failing while fetched pages wait for it leaves no fetcher blocked on the queue
+  @Test
+  public void failingConsumerReleasesFetcher() throws Exception {
+    setUpSlowYouTubeMocks();
+    commentRetriever.setPrefetchWindow(1);
+    try {
+      commentRetriever.retrieveComments(
+          videoUrl,
+          NUM_LATENCY_PAGES * MAX_COMMENTS_PER_TOKEN,
+          page -> {
+            try {
+              // Lets the fetcher fill the queue and block on the next page
+              Thread.sleep(3 * PAGE_LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("Consumer failed");
+          });
+      Assert.fail("Expected the consumer's exception");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (isFetcherRunning() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertFalse(isFetcherRunning());
+  }
+
+  /**
+   * @return true if any thread is inside the retriever's fetching code
+   */
+  private static boolean isFetcherRunning() {
+    for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+      for (StackTraceElement frame : stack) {
+        if (frame.getClassName().startsWith(YouTubeCommentRetriever.class.getName())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyPrefetchWindow() throws Exception {
+    setUpYouTubeMocks(HUNDRED);
+    commentRetriever.setPrefetchWindow(0);
+  }
+
+  // Lean retrieval asks for the projected plain text fields and ignores anything else returned
+  @Test
+  public void leanRetrievalRequestsOnlyProjectedFields() throws Exception {
+    System.setProperty("resources-folder", "/src/main/webapp");
+    String page =
+        "{\"kind\": \"youtube#commentThreadListResponse\", \"etag\": \"tag\", \"items\": [{"
+            + "\"kind\": \"youtube#commentThread\", \"snippet\": {\"totalReplyCount\": 3,"
+            + " \"topLevelComment\": {\"id\": \"comment1\", \"snippet\": {"
+            + "\"textDisplay\": \"Great <video>\", \"authorDisplayName\": \"someone\","
+            + " \"publishedAt\": \"2020-08-01T10:00:00Z\"}}}}]}";
+    List<String> requestUrls = new ArrayList<>();
+    MockHttpTransport transport =
+        new MockHttpTransport() {
+          @Override
+          public LowLevelHttpRequest buildRequest(String method, String url) {
+            requestUrls.add(url);
+            return new MockLowLevelHttpRequest(url)
+                .setResponse(
+                    new MockLowLevelHttpResponse()
+                        .setContentType(Json.MEDIA_TYPE)
+                        .setContent(page));
+          }
+        };
+    YouTube youTube =
+        new YouTube.Builder(transport, JacksonFactory.getDefaultInstance(), null)
+            .setApplicationName("test")
+            .build();
+    commentRetriever = new YouTubeCommentRetriever(youTube);
+    commentRetriever.setLeanRetrieval(true);
+
+    List<CommentThreadView> comments = commentRetriever.retrieveComments(videoUrl, HUNDRED);
+
+    Assert.assertEquals(1, requestUrls.size());
+    String requestUrl = URLDecoder.decode(requestUrls.get(0), "UTF-8");
+    Assert.assertTrue(requestUrl, requestUrl.contains("part=snippet&"));
+    Assert.assertTrue(requestUrl, requestUrl.contains("textFormat=plainText"));
+    Assert.assertTrue(
+        requestUrl,
+        requestUrl.contains(
+            "fields=nextPageToken,items/snippet/topLevelComment(id,snippet(textDisplay,publishedAt))"));
+    Assert.assertTrue(commentRetriever.returnsPlainText());
+    Assert.assertEquals(1, comments.size());
+    UserComment comment = new UserComment(comments.get(0));
+    Assert.assertEquals("comment1", comment.getCommentId());
+    Assert.assertEquals("Great <video>", comment.getCommentMsg());
+    Assert.assertEquals(new DateTime("2020-08-01T10:00:00Z"), comment.getPublishDate());
+    Assert.assertTrue(comments.get(0).getInlineReplies().isEmpty());
+  }
 }
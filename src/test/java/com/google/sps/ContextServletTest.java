@@ -13,10 +13,12 @@
 // limitations under the License.
 package com.google.sps;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -36,6 +38,9 @@ import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -68,16 +73,19 @@ public class ContextServletTest {
     when(mockedVidoes.list(REQUEST_INFO)).thenReturn(mockedVideoList);
     when(mockedYoutubeService.videos()).thenReturn(mockedVidoes);
     when(mockedVideoList.execute()).thenReturn(new VideoListResponse());
-    VideoListResponse response = contestServlet.constructAndExecuteYoutubeRequest(TEST_URL);
+    VideoListResponse response = contestServlet.constructAndExecuteYoutubeRequest(TEST_URL, true);
 
     Assert.assertEquals(response.getItems().size(), 0);
   }
 
   @Test
   public void testContextGet_generateExpectedResponse()
-      throws IOException, GeneralSecurityException, ServletException {
+      throws IOException, GeneralSecurityException, ServletException, InterruptedException {
     // Set up the mocking environment
-    ContextServlet contextServlet = spy(ContextServlet.class);
+    // For the API key
+    System.setProperty("resources-folder", "/src/main/webapp");
+    YouTube mockedYoutubeService = mock(YouTube.class, RETURNS_DEEP_STUBS);
+    ContextServlet contextServlet = new ContextServlet(mockedYoutubeService);
     HttpServletRequest mockedRequest = mock(HttpServletRequest.class);
     HttpServletResponse mockedResponse = mock(HttpServletResponse.class);
     StringWriter stringWriter = new StringWriter();
@@ -90,13 +98,36 @@ public class ContextServletTest {
     VideoStatistics mockedVidoeStatistics =
         new VideoStatistics().setLikeCount(BigInteger.TEN).setDislikeCount(BigInteger.ONE);
     Video mockedVideo =
-        new Video().setSnippet(mockedVideoSnippet).setStatistics(mockedVidoeStatistics);
+        new Video()
+            .setId(TEST_URL)
+            .setSnippet(mockedVideoSnippet)
+            .setStatistics(mockedVidoeStatistics);
     VideoListResponse mockedVideoList =
         new VideoListResponse().setItems(Collections.singletonList(mockedVideo));
     when(mockedRequest.getParameter(URL_PARAMETER)).thenReturn(TEST_URL);
-    when(contextServlet.constructAndExecuteYoutubeRequest(TEST_URL)).thenReturn(mockedVideoList);
+    YouTube.Videos.List mockedVideoRequest = mock(YouTube.Videos.List.class);
+    when(mockedVideoRequest.execute()).thenReturn(mockedVideoList);
+    when(mockedYoutubeService
+            .videos()
+            .list(anyString())
+            .setKey(any())
+            .setId(TEST_URL)
+            .setFields(anyString()))
+        .thenReturn(mockedVideoRequest);
     when(mockedResponse.getWriter()).thenReturn(writer);
+    // The request is served asynchronously; wait for it to complete
+    AsyncContext mockedAsyncContext = mock(AsyncContext.class);
+    CountDownLatch completed = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              completed.countDown();
+              return null;
+            })
+        .when(mockedAsyncContext)
+        .complete();
+    when(mockedRequest.startAsync(mockedRequest, mockedResponse)).thenReturn(mockedAsyncContext);
     contextServlet.doGet(mockedRequest, mockedResponse);
+    Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
 
     // Test the expected and actual result
     verify(mockedRequest, atLeast(1)).getParameter(URL_PARAMETER);
@@ -105,5 +136,6 @@ public class ContextServletTest {
     Assert.assertTrue(stringWriter.toString().contains("\"numLikes\":" + NUM_LIKES_VAL));
     Assert.assertTrue(stringWriter.toString().contains("\"numDislikes\":" + NUM_DISLIKES_VAL));
     Assert.assertTrue(stringWriter.toString().contains("\"publishDateString\":"));
+    contextServlet.destroy();
   }
 }
@@ -0,0 +1,317 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.InvalidArgumentException;
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.Comment;
+import com.google.api.services.youtube.model.CommentSnippet;
+import com.google.api.services.youtube.model.CommentThread;
+import com.google.api.services.youtube.model.CommentThreadListResponse;
+import com.google.api.services.youtube.model.CommentThreadSnippet;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.gson.Gson;
+import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.IncrementalAnalysis;
+import com.google.sps.servlets.utils.Statistics;
+import com.google.sps.servlets.utils.StatisticsAccumulator;
+import com.google.sps.servlets.utils.UserComment;
+import com.google.sps.servlets.utils.YouTubeCommentRetriever;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for extending per-video statistics with new comments only */
+@RunWith(JUnit4.class)
+public class IncrementalAnalysisTest {
+  private static final String VIDEO_ID = "dummyVideo";
+  // Comments starting with it are rejected by the language service, so they get no score
+  private static final String UNSUPPORTED_LANGUAGE_TEXT = "bonjour";
+  private static final int WORD_MAP_SIZE = 10;
+  private static final String[] MESSAGES = {
+    "great video", "awful sound", "meh", "love this song", "hate the ending", "great great"
+  };
+
+  // Comment threads on the video, newest first
+  private final List<CommentThread> videoComments = new ArrayList<>();
+  private YouTube.CommentThreads.List mockedCommentThreadList;
+  private LanguageServiceClient mockedLanguageService;
+  private IncrementalAnalysis incrementalAnalysis;
+
+  @Before
+  public void setUp() throws Exception {
+    // For the common words file
+    System.setProperty("resources-folder", "/src/main/webapp");
+    YouTube mockedYoutube = mock(YouTube.class, RETURNS_DEEP_STUBS);
+    mockedCommentThreadList = mock(YouTube.CommentThreads.List.class, RETURNS_DEEP_STUBS);
+    when(mockedCommentThreadList.execute())
+        .thenAnswer(
+            invocation -> new CommentThreadListResponse().setItems(new ArrayList<>(videoComments)));
+    when(mockedYoutube.commentThreads().list(anyString())).thenReturn(mockedCommentThreadList);
+    incrementalAnalysis = new IncrementalAnalysis(new YouTubeCommentRetriever(mockedYoutube));
+
+    // Scores vary with the text so that comments land in different buckets
+    mockedLanguageService = mock(LanguageServiceClient.class);
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              String content = invocation.<Document>getArgument(0).getContent();
+              if (content.startsWith(UNSUPPORTED_LANGUAGE_TEXT)) {
+                throw new InvalidArgumentException(
+                    new RuntimeException("Unsupported language"),
+                    GrpcStatusCode.of(Status.Code.INVALID_ARGUMENT),
+                    false);
+              }
+              float score = (Math.floorMod(content.hashCode(), 21) - 10) / 10f;
+              return AnalyzeSentimentResponse.newBuilder()
+                  .setDocumentSentiment(
+                      Sentiment.newBuilder().setScore(score).setMagnitude(Math.abs(score) + 0.5f))
+                  .build();
+            });
+    // Batched documents come back without sentences, so every comment is scored on its own
+    when(mockedLanguageService.analyzeSentiment(any(AnalyzeSentimentRequest.class)))
+        .thenReturn(AnalyzeSentimentResponse.getDefaultInstance());
+  }
+
+  private void postComment(int index, long publishMillis) {
+    postComment(index, MESSAGES[index % MESSAGES.length] + " " + index, publishMillis);
+  }
+
+  private void postComment(int index, String text, long publishMillis) {
+    Comment topComment =
+        new Comment()
+            .setSnippet(
+                new CommentSnippet()
+                    .setTextDisplay(text)
+                    .setPublishedAt(new DateTime(publishMillis)));
+    topComment.setId("comment" + index);
+    videoComments.add(
+        0,
+        new CommentThread().setSnippet(new CommentThreadSnippet().setTopLevelComment(topComment)));
+  }
+
+  private Statistics runIncremental() throws Exception {
+    return runIncremental(100);
+  }
+
+  private Statistics runIncremental(long maxNewComments) throws Exception {
+    return incrementalAnalysis.run(
+        new CommentAnalysis(mockedLanguageService), VIDEO_ID, maxNewComments, WORD_MAP_SIZE);
+  }
+
+  /** Statistics of every comment on the video computed from scratch, oldest first. */
+  private Statistics runFromScratch() {
+    List<CommentThread> oldestFirst = new ArrayList<>(videoComments);
+    Collections.reverse(oldestFirst);
+    List<UserComment> scoredComments =
+        new CommentAnalysis(mockedLanguageService).computeSentiment(oldestFirst);
+    return new Statistics(scoredComments, CommentAnalysis.DEFAULT_TOP_N, WORD_MAP_SIZE);
+  }
+
+  @Test
+  public void testOnlyNewCommentsAreScored() throws Exception {
+    for (int i = 0; i < 4; i++) {
+      postComment(i, 1000L * i);
+    }
+    runIncremental();
+    verify(mockedLanguageService, times(4)).analyzeSentiment(any(Document.class));
+    clearInvocations(mockedLanguageService);
+
+    postComment(4, 5000L);
+    postComment(5, 6000L);
+    Statistics statistics = runIncremental();
+
+    verify(mockedLanguageService, times(2)).analyzeSentiment(any(Document.class));
+    int totalFrequency =
+        statistics.getSentimentBucketList().stream()
+            .mapToInt(bucket -> bucket.getFrequency())
+            .sum();
+    Assert.assertEquals(6, totalFrequency);
+  }
+
+  @Test
+  public void testMergedSnapshotMatchesFullAnalysis() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      postComment(i, 1000L * i);
+    }
+    runIncremental();
+    for (int i = 3; i < 12; i++) {
+      postComment(i, 1000L * i);
+    }
+    Statistics incremental = runIncremental();
+
+    Gson gson = new Gson();
+    Assert.assertEquals(gson.toJson(runFromScratch()), gson.toJson(incremental));
+  }
+
+  @Test
+  public void testNewCommentWithSameTimestampIsCounted() throws Exception {
+    postComment(0, 1000L);
+    postComment(1, 2000L);
+    runIncremental();
+    clearInvocations(mockedLanguageService);
+
+    postComment(2, 2000L);
+    runIncremental();
+
+    verify(mockedLanguageService, times(1)).analyzeSentiment(any(Document.class));
+  }
+
+  @Test
+  public void testNothingNewKeepsSnapshot() throws Exception {
+    postComment(0, 1000L);
+    postComment(1, 2000L);
+    Statistics first = runIncremental();
+    clearInvocations(mockedLanguageService);
+
+    Statistics second = runIncremental();
+
+    verify(mockedLanguageService, times(0)).analyzeSentiment(any(Document.class));
+    Gson gson = new Gson();
+    Assert.assertEquals(gson.toJson(first), gson.toJson(second));
+  }
+
+  @Test
+  public void testTooManyNewCommentsResetSnapshot() throws Exception {
+    postComment(0, 1000L);
+    postComment(1, 2000L);
+    Assert.assertNull(runIncremental(3).getSnapshotReset());
+
+    for (int i = 2; i < 7; i++) {
+      postComment(i, 1000L * (i + 1));
+    }
+    Statistics statistics = runIncremental(3);
+
+    // Comments 2 and 3 cannot be fetched, so only the newest three are counted
+    Assert.assertTrue(statistics.getSnapshotReset());
+    Assert.assertEquals(3, statistics.getNumComments());
+    clearInvocations(mockedLanguageService);
+    postComment(7, 8000L);
+    Statistics next = runIncremental(3);
+    verify(mockedLanguageService, times(1)).analyzeSentiment(any(Document.class));
+    Assert.assertNull(next.getSnapshotReset());
+    Assert.assertEquals(4, next.getNumComments());
+  }
+
+  @Test
+  public void testUnscoredNewestCommentIsNotFetchedAgain() throws Exception {
+    postComment(0, 1000L);
+    postComment(1, UNSUPPORTED_LANGUAGE_TEXT, 2000L);
+    Statistics first = runIncremental();
+    clearInvocations(mockedLanguageService);
+
+    Statistics second = runIncremental();
+
+    Assert.assertEquals(1, first.getNumComments());
+    verify(mockedLanguageService, times(0)).analyzeSentiment(any(Document.class));
+    Assert.assertEquals(1, second.getNumComments());
+  }
+
+  @Test(timeout = 10_000)
+  public void testConcurrentRequestsShareOneUpdate() throws Exception {
+    postComment(0, 1000L);
+    postComment(1, 2000L);
+    AtomicInteger numFetches = new AtomicInteger();
+    CountDownLatch fetchStarted = new CountDownLatch(1);
+    CountDownLatch fetchReleased = new CountDownLatch(1);
+    when(mockedCommentThreadList.execute())
+        .thenAnswer(
+            invocation -> {
+              numFetches.incrementAndGet();
+              fetchStarted.countDown();
+              fetchReleased.await();
+              return new CommentThreadListResponse().setItems(new ArrayList<>(videoComments));
+            });
+    AtomicReference<Statistics> firstStatistics = new AtomicReference<>();
+    Thread first =
+        new Thread(
+            () -> {
+              try {
+                firstStatistics.set(runIncremental());
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+    first.start();
+    fetchStarted.await();
+    AtomicReference<Statistics> secondStatistics = new AtomicReference<>();
+    Thread second =
+        new Thread(
+            () -> {
+              try {
+                secondStatistics.set(runIncremental());
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+    second.start();
+    // The second request waits for the update in flight instead of fetching on its own
+    while (second.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+
+    fetchReleased.countDown();
+    first.join();
+    second.join();
+
+    Assert.assertEquals(1, numFetches.get());
+    Assert.assertEquals(2, firstStatistics.get().getNumComments());
+    Assert.assertEquals(2, secondStatistics.get().getNumComments());
+  }
+
+  @Test
+  public void testAccumulatorSkipsUnscoredComments() {
+    StatisticsAccumulator accumulator = new StatisticsAccumulator(1);
+    accumulator.addAll(
+        Arrays.asList(
+            new UserComment("001", "scored", new DateTime(1000L), 0.5, 1.0),
+            new UserComment(
+                new CommentThread()
+                    .setSnippet(
+                        new CommentThreadSnippet()
+                            .setTopLevelComment(
+                                new Comment()
+                                    .setSnippet(
+                                        new CommentSnippet().setTextDisplay("bonjour")))))));
+
+    Assert.assertEquals(1, accumulator.getNumComments());
+    Assert.assertEquals(0.5, accumulator.snapshot(WORD_MAP_SIZE).getAverageScore(), 0);
+  }
+}
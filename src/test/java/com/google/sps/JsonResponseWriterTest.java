@@ -0,0 +1,175 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonObject;
+import com.google.sps.servlets.utils.AnalysisResult;
+import com.google.sps.servlets.utils.JsonResponseWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for compressing JSON responses and answering conditional requests */
+@RunWith(JUnit4.class)
+public class JsonResponseWriterTest {
+  private static final AnalysisResult RESULT =
+      new AnalysisResult("{\"averageSentiment\":0.5}", "total;dur=1");
+
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private ByteArrayOutputStream body;
+  private StringWriter text;
+
+  @Before
+  public void setUp() throws IOException {
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    body = new ByteArrayOutputStream();
+    text = new StringWriter();
+    when(response.getOutputStream())
+        .thenReturn(
+            new ServletOutputStream() {
+              @Override
+              public void write(int b) {
+                body.write(b);
+              }
+
+              @Override
+              public boolean isReady() {
+                return true;
+              }
+
+              @Override
+              public void setWriteListener(WriteListener writeListener) {}
+            });
+    when(response.getWriter()).thenReturn(new PrintWriter(text));
+  }
+
+  private String gunzipBody() throws IOException {
+    try (GZIPInputStream gzipStream =
+        new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+      return new String(ByteStreams.toByteArray(gzipStream), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testObjectIsGzippedWhenAccepted() throws IOException {
+    when(request.getHeader("Accept-Encoding")).thenReturn("deflate, gzip;q=0.8");
+    JsonObject value = new JsonObject();
+    value.addProperty("title", "café");
+
+    JsonResponseWriter.write(request, response, (Object) value);
+
+    verify(response).setHeader("Content-Encoding", "gzip");
+    Assert.assertEquals("{\"title\":\"café\"}", gunzipBody());
+  }
+
+  @Test
+  public void testObjectIsNotCompressedWithoutAcceptEncoding() throws IOException {
+    JsonObject value = new JsonObject();
+    value.addProperty("title", "video");
+
+    JsonResponseWriter.write(request, response, (Object) value);
+
+    verify(response, never()).setHeader("Content-Encoding", "gzip");
+    Assert.assertEquals("{\"title\":\"video\"}", text.toString());
+    Assert.assertEquals(0, body.size());
+  }
+
+  @Test
+  public void testRefusedGzipIsNotUsed() throws IOException {
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip;q=0, identity");
+
+    JsonResponseWriter.write(request, response, RESULT);
+
+    verify(response, never()).setHeader("Content-Encoding", "gzip");
+    Assert.assertEquals(RESULT.getJson(), text.toString());
+  }
+
+  @Test
+  public void testRefusedGzipOverridesWildcard() throws IOException {
+    when(request.getHeader("Accept-Encoding")).thenReturn("*;q=1, gzip;q=0");
+
+    JsonResponseWriter.write(request, response, RESULT);
+
+    verify(response, never()).setHeader("Content-Encoding", "gzip");
+    Assert.assertEquals(RESULT.getJson(), text.toString());
+  }
+
+  @Test
+  public void testWildcardAcceptsGzipWhenNotListed() throws IOException {
+    when(request.getHeader("Accept-Encoding")).thenReturn("identity, *;q=0.5");
+
+    JsonResponseWriter.write(request, response, RESULT);
+
+    verify(response).setHeader("Content-Encoding", "gzip");
+  }
+
+  @Test
+  public void testCachedResultIsSentGzippedWithEntityTag() throws IOException {
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+
+    JsonResponseWriter.write(request, response, RESULT);
+
+    verify(response).setHeader("ETag", RESULT.getEntityTag());
+    verify(response).setContentLength(RESULT.getGzippedJson().length);
+    Assert.assertEquals(RESULT.getJson(), gunzipBody());
+  }
+
+  @Test
+  public void testMatchingEntityTagReturnsNotModified() throws IOException {
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+    // Clients may strip the weak prefix and list other tags alongside it
+    when(request.getHeader("If-None-Match"))
+        .thenReturn("\"stale\", " + RESULT.getEntityTag().substring(2));
+
+    JsonResponseWriter.write(request, response, RESULT);
+
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertEquals(0, body.size());
+    Assert.assertEquals("", text.toString());
+  }
+
+  @Test
+  public void testChangedResultHasNewEntityTag() throws IOException {
+    AnalysisResult changed = new AnalysisResult("{\"averageSentiment\":0.6}", "total;dur=1");
+    when(request.getHeader("If-None-Match")).thenReturn(RESULT.getEntityTag());
+
+    JsonResponseWriter.write(request, response, changed);
+
+    Assert.assertNotEquals(RESULT.getEntityTag(), changed.getEntityTag());
+    verify(response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertEquals(changed.getJson(), text.toString());
+  }
+}
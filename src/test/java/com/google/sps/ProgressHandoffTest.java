@@ -0,0 +1,61 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.servlets.utils.ProgressHandoff;
+import com.google.sps.servlets.utils.Statistics;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for handing progress snapshots from an analysis to its streams */
+@RunWith(JUnit4.class)
+public class ProgressHandoffTest {
+  private final ProgressHandoff progress = new ProgressHandoff();
+
+  @Test
+  public void streamsReadOnlyTheLatestSnapshot() {
+    progress.subscribe();
+    Statistics first = new Statistics(new ArrayList<>(), 1);
+    Statistics second = new Statistics(new ArrayList<>(), 1);
+
+    Assert.assertNull(progress.getLatest());
+    progress.publish(first);
+    progress.publish(second);
+
+    Assert.assertSame(second, progress.getLatest());
+    // Every stream reads it, not only the first one
+    Assert.assertSame(second, progress.getLatest());
+  }
+
+  @Test
+  public void publishingFailsOnceEveryStreamIsGone() {
+    progress.subscribe();
+    progress.subscribe();
+
+    Assert.assertTrue(progress.unsubscribe());
+    progress.publish(new Statistics(new ArrayList<>(), 1));
+    Assert.assertFalse(progress.unsubscribe());
+    try {
+      progress.publish(new Statistics(new ArrayList<>(), 1));
+      Assert.fail("Publishing without streams should stop the run.");
+    } catch (CancellationException expected) {
+      // The run stops
+    }
+  }
+}
@@ -0,0 +1,261 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.youtube.YouTube;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.CommentAnalysisPipeline;
+import com.google.sps.servlets.utils.CommentThreadView;
+import com.google.sps.servlets.utils.CommentView;
+import com.google.sps.servlets.utils.Statistics;
+import com.google.sps.servlets.utils.YouTubeCommentRetriever;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for retrieving and analyzing the replies to comment threads */
+@RunWith(JUnit4.class)
+public class ReplyAnalysisTest {
+  private static final String VIDEO_ID = "dummyVideo";
+  private static final String PUBLISHED_AT = "2020-08-01T10:00:00Z";
+  private static final long REPLY_LATENCY_MILLIS = 50L;
+  // First thread has its only reply inline, the second has one of its three replies inline
+  private static final String THREAD_PAGE =
+      "{\"items\": ["
+          + thread("t1", 1, comment("r1"))
+          + ", "
+          + thread("t2", 3, comment("r2a"))
+          + ", "
+          + thread("t3", 0, "")
+          + "]}";
+  private static final String FIRST_REPLY_PAGE =
+      "{\"nextPageToken\": \"p2\", \"items\": [" + comment("r2a") + ", " + comment("r2b") + "]}";
+  private static final String SECOND_REPLY_PAGE = "{\"items\": [" + comment("r2c") + "]}";
+
+  private final List<String> requestUrls = new ArrayList<>();
+  private LanguageServiceClient mockedLanguageService;
+
+  @Before
+  public void setUp() {
+    // For the API key and the common words file
+    System.setProperty("resources-folder", "/src/main/webapp");
+    mockedLanguageService = mock(LanguageServiceClient.class);
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenReturn(
+            AnalyzeSentimentResponse.newBuilder()
+                .setDocumentSentiment(Sentiment.newBuilder().setScore(0.5f).setMagnitude(1f))
+                .build());
+    when(mockedLanguageService.analyzeSentiment(any(AnalyzeSentimentRequest.class)))
+        .thenReturn(AnalyzeSentimentResponse.getDefaultInstance());
+  }
+
+  private static String comment(String id) {
+    return String.format(
+        "{\"id\": \"%s\", \"snippet\": {\"textDisplay\": \"Reply %s\", \"publishedAt\": \"%s\"}}",
+        id, id, PUBLISHED_AT);
+  }
+
+  private static String thread(String id, int totalReplyCount, String inlineReplies) {
+    return String.format(
+        "{\"snippet\": {\"totalReplyCount\": %d, \"topLevelComment\": {\"id\": \"%s\","
+            + " \"snippet\": {\"textDisplay\": \"Comment %s\", \"publishedAt\": \"%s\"}}},"
+            + " \"replies\": {\"comments\": [%s]}}",
+        totalReplyCount, id, id, PUBLISHED_AT, inlineReplies);
+  }
+
+  /** Build a retriever over a transport that answers each request URL with the given body. */
+  private YouTubeCommentRetriever retriever(Function<String, LowLevelHttpResponse> responder) {
+    MockHttpTransport transport =
+        new MockHttpTransport() {
+          @Override
+          public LowLevelHttpRequest buildRequest(String method, String url) {
+            synchronized (requestUrls) {
+              requestUrls.add(url);
+            }
+            return new MockLowLevelHttpRequest(url) {
+              @Override
+              public LowLevelHttpResponse execute() {
+                return responder.apply(url);
+              }
+            };
+          }
+        };
+    YouTube youTube =
+        new YouTube.Builder(transport, JacksonFactory.getDefaultInstance(), null)
+            .setApplicationName("test")
+            .build();
+    YouTubeCommentRetriever commentRetriever = new YouTubeCommentRetriever(youTube);
+    commentRetriever.setLeanRetrieval(true);
+    commentRetriever.setIncludeReplies(true);
+    return commentRetriever;
+  }
+
+  private static LowLevelHttpResponse json(String content) {
+    return new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE).setContent(content);
+  }
+
+  private static LowLevelHttpResponse replyThreadsPage(String url) {
+    if (url.contains("/commentThreads")) {
+      return json(THREAD_PAGE);
+    }
+    return json(url.contains("pageToken=p2") ? SECOND_REPLY_PAGE : FIRST_REPLY_PAGE);
+  }
+
+  @Test
+  public void inlineRepliesAreUsedAndIncompleteThreadsArePaged() throws Exception {
+    YouTubeCommentRetriever commentRetriever = retriever(ReplyAnalysisTest::replyThreadsPage);
+    List<CommentThreadView> commentThreads = commentRetriever.retrieveComments(VIDEO_ID, 100);
+    AtomicLong requestCount = new AtomicLong();
+
+    List<CommentView> replies = commentRetriever.retrieveReplies(commentThreads, requestCount);
+
+    Assert.assertEquals(
+        "[r1, r2a, r2b, r2c]",
+        replies.stream().map(CommentView::getId).collect(Collectors.toList()).toString());
+    Assert.assertEquals(2, requestCount.get());
+    List<String> replyUrls =
+        requestUrls.stream().filter(url -> url.contains("/comments?")).collect(Collectors.toList());
+    Assert.assertEquals(2, replyUrls.size());
+    Assert.assertTrue(replyUrls.get(0), replyUrls.get(0).contains("parentId=t2"));
+    Assert.assertTrue(replyUrls.get(0), replyUrls.get(0).contains("textFormat=plainText"));
+    Assert.assertTrue(requestUrls.get(0), requestUrls.get(0).contains("part=snippet,replies"));
+  }
+
+  @Test
+  public void replyPagesPerThreadAreBounded() throws Exception {
+    YouTubeCommentRetriever commentRetriever = retriever(ReplyAnalysisTest::replyThreadsPage);
+    commentRetriever.setMaxReplyPages(1);
+    AtomicLong requestCount = new AtomicLong();
+    AtomicLong truncatedThreadCount = new AtomicLong();
+
+    List<CommentView> replies =
+        commentRetriever.retrieveReplies(
+            commentRetriever.retrieveComments(VIDEO_ID, 100), requestCount, truncatedThreadCount);
+
+    // The second page of t2's replies is never requested, which is reported
+    Assert.assertEquals(
+        "[r1, r2a, r2b]",
+        replies.stream().map(CommentView::getId).collect(Collectors.toList()).toString());
+    Assert.assertEquals(1, requestCount.get());
+    Assert.assertEquals(1, truncatedThreadCount.get());
+  }
+
+  @Test
+  public void replyFanOutIsBounded() throws Exception {
+    int numThreads = 8;
+    int fanOut = 2;
+    StringBuilder threadPage = new StringBuilder("{\"items\": [");
+    for (int i = 0; i < numThreads; i++) {
+      threadPage.append(i == 0 ? "" : ", ").append(thread("t" + i, 5, ""));
+    }
+    String threadPageJson = threadPage.append("]}").toString();
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    YouTubeCommentRetriever commentRetriever =
+        retriever(
+            url -> {
+              if (url.contains("/commentThreads")) {
+                return json(threadPageJson);
+              }
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              try {
+                Thread.sleep(REPLY_LATENCY_MILLIS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              inFlight.decrementAndGet();
+              return json("{\"items\": [" + comment("reply") + "]}");
+            });
+    commentRetriever.setReplyFanOut(fanOut);
+    List<CommentThreadView> commentThreads = commentRetriever.retrieveComments(VIDEO_ID, 100);
+    AtomicLong requestCount = new AtomicLong();
+
+    // Two callers at once, such as two analysis threads, share the fan-out
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try {
+      Future<List<CommentView>> otherReplies =
+          callers.submit(() -> commentRetriever.retrieveReplies(commentThreads, requestCount));
+      List<CommentView> replies = commentRetriever.retrieveReplies(commentThreads, requestCount);
+
+      Assert.assertEquals(numThreads, replies.size());
+      Assert.assertEquals(numThreads, otherReplies.get().size());
+    } finally {
+      callers.shutdownNow();
+    }
+    Assert.assertEquals(2 * numThreads, requestCount.get());
+    Assert.assertEquals(fanOut, maxInFlight.get());
+  }
+
+  @Test
+  public void pipelineReportsRepliesSeparately() throws Exception {
+    YouTubeCommentRetriever commentRetriever = retriever(ReplyAnalysisTest::replyThreadsPage);
+    CommentAnalysisPipeline pipeline =
+        new CommentAnalysisPipeline(commentRetriever, new CommentAnalysis(mockedLanguageService));
+
+    Statistics statistics = pipeline.run(VIDEO_ID, 100);
+
+    Assert.assertEquals(3, statistics.getNumComments());
+    Assert.assertNotNull(statistics.getReplyStatistics());
+    Assert.assertEquals(4, statistics.getReplyStatistics().getNumComments());
+    Assert.assertEquals(0.5, statistics.getReplyStatistics().getAverageScore(), 0.001);
+    Assert.assertTrue(statistics.getReplyStatistics().getWordFrequencyMap().containsKey("reply"));
+    Assert.assertEquals(Long.valueOf(0), statistics.getReplyStatistics().getNumTruncatedThreads());
+    Assert.assertNull(statistics.getNumTruncatedThreads());
+    // One comment thread page and two reply pages
+    Assert.assertEquals(3, pipeline.getQuotaUnits());
+  }
+
+  @Test
+  public void repliesAreNotAnalyzedByDefault() throws Exception {
+    YouTubeCommentRetriever commentRetriever = retriever(ReplyAnalysisTest::replyThreadsPage);
+    commentRetriever.setIncludeReplies(false);
+    CommentAnalysisPipeline pipeline =
+        new CommentAnalysisPipeline(commentRetriever, new CommentAnalysis(mockedLanguageService));
+
+    Statistics statistics = pipeline.run(VIDEO_ID, 100);
+
+    Assert.assertEquals(3, statistics.getNumComments());
+    Assert.assertNull(statistics.getReplyStatistics());
+    Assert.assertEquals(1, pipeline.getQuotaUnits());
+    Assert.assertFalse(requestUrls.get(0), requestUrls.get(0).contains("replies"));
+  }
+}
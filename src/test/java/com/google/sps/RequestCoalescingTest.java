@@ -0,0 +1,256 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.Comment;
+import com.google.api.services.youtube.model.CommentSnippet;
+import com.google.api.services.youtube.model.CommentThread;
+import com.google.api.services.youtube.model.CommentThreadListResponse;
+import com.google.api.services.youtube.model.CommentThreadSnippet;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.gson.Gson;
+import com.google.sps.servlets.utils.AnalysisRequest;
+import com.google.sps.servlets.utils.AnalysisResult;
+import com.google.sps.servlets.utils.AnalysisResultCache;
+import com.google.sps.servlets.utils.CoalescingCommentRetriever;
+import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.CommentAnalysisPipeline;
+import com.google.sps.servlets.utils.CommentThreadView;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for sharing retrieval and analysis between concurrent requests */
+@RunWith(JUnit4.class)
+public class RequestCoalescingTest {
+  private static final int PAGE_SIZE = 50;
+  private static final int NUM_PAGES = 10;
+  private static final long PAGE_LATENCY_MILLIS = 100L;
+  private static final String NEXT_PAGE_TOKEN = "Some Page Token";
+  private static final String VIDEO_ID = "dummyVideo";
+  private static final int NUM_REQUESTS = 100;
+
+  private final AtomicInteger pagesServed = new AtomicInteger();
+  private final AtomicInteger sentimentCalls = new AtomicInteger();
+  private YouTube.CommentThreads.List mockedCommentThreadList;
+  private LanguageServiceClient mockedLanguageService;
+  private CoalescingCommentRetriever commentRetriever;
+  private ExecutorService requestExecutor;
+
+  @Before
+  public void setUp() throws Exception {
+    // For the common words file
+    System.setProperty("resources-folder", "/src/main/webapp");
+    YouTube mockedYoutube = mock(YouTube.class, RETURNS_DEEP_STUBS);
+    mockedCommentThreadList = mock(YouTube.CommentThreads.List.class, RETURNS_DEEP_STUBS);
+    when(mockedCommentThreadList.execute())
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(PAGE_LATENCY_MILLIS);
+              int pageIndex = pagesServed.incrementAndGet();
+              return new CommentThreadListResponse()
+                  .setItems(commentPage(pageIndex))
+                  .setNextPageToken(pageIndex == NUM_PAGES ? null : NEXT_PAGE_TOKEN);
+            });
+    when(mockedYoutube.commentThreads().list(anyString())).thenReturn(mockedCommentThreadList);
+    commentRetriever = new CoalescingCommentRetriever(mockedYoutube);
+
+    AnalyzeSentimentResponse sentimentResponse =
+        AnalyzeSentimentResponse.newBuilder()
+            .setDocumentSentiment(Sentiment.newBuilder().setScore(0.5f).setMagnitude(1f))
+            .build();
+    mockedLanguageService = mock(LanguageServiceClient.class);
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              sentimentCalls.incrementAndGet();
+              return sentimentResponse;
+            });
+    when(mockedLanguageService.analyzeSentiment(any(AnalyzeSentimentRequest.class)))
+        .thenAnswer(
+            invocation -> {
+              sentimentCalls.incrementAndGet();
+              return sentimentResponse;
+            });
+    requestExecutor = Executors.newFixedThreadPool(NUM_REQUESTS);
+  }
+
+  @After
+  public void tearDown() {
+    requestExecutor.shutdownNow();
+    commentRetriever.shutdown();
+  }
+
+  private static List<CommentThread> commentPage(int pageIndex) {
+    List<CommentThread> page = new ArrayList<>();
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      Comment topComment =
+          new Comment()
+              .setSnippet(
+                  new CommentSnippet().setTextDisplay("Comment " + pageIndex + " number " + i));
+      topComment.setId(pageIndex + "-" + i);
+      page.add(
+          new CommentThread()
+              .setSnippet(new CommentThreadSnippet().setTopLevelComment(topComment)));
+    }
+    return page;
+  }
+
+  private AnalysisResult analyze(AnalysisRequest request) throws Exception {
+    CommentAnalysisPipeline pipeline =
+        new CommentAnalysisPipeline(commentRetriever, new CommentAnalysis(mockedLanguageService));
+    String json =
+        new Gson()
+            .toJson(
+                pipeline.run(
+                    request.getVideoId(),
+                    request.getNumComments(),
+                    CommentAnalysis.DEFAULT_TOP_N,
+                    request.getWordMapSize()));
+    return new AnalysisResult(json, "");
+  }
+
+  private Future<List<CommentThreadView>> retrieveAsync(long numComments) {
+    return requestExecutor.submit(() -> commentRetriever.retrieveComments(VIDEO_ID, numComments));
+  }
+
+  @Test
+  public void testConcurrentIdenticalRequestsShareOneAnalysis() throws Exception {
+    AnalysisRequest request = new AnalysisRequest(VIDEO_ID, 100, 10, null);
+    // A lone request sets the expected cost of a single analysis
+    analyze(request);
+    int pagesPerAnalysis = pagesServed.getAndSet(0);
+    int sentimentCallsPerAnalysis = sentimentCalls.getAndSet(0);
+
+    AtomicInteger analyses = new AtomicInteger();
+    AnalysisResultCache resultCache =
+        new AnalysisResultCache(
+            analysisRequest -> {
+              analyses.incrementAndGet();
+              return analyze(analysisRequest);
+            },
+            Runnable::run);
+    CountDownLatch startSignal = new CountDownLatch(1);
+    List<Future<AnalysisResult>> results = new ArrayList<>();
+    for (int i = 0; i < NUM_REQUESTS; i++) {
+      results.add(
+          requestExecutor.submit(
+              () -> {
+                startSignal.await();
+                return resultCache.get(new AnalysisRequest(VIDEO_ID, 100, 10, null));
+              }));
+    }
+    startSignal.countDown();
+    String firstJson = results.get(0).get(10, TimeUnit.SECONDS).getJson();
+    for (Future<AnalysisResult> result : results) {
+      Assert.assertSame(firstJson, result.get(10, TimeUnit.SECONDS).getJson());
+    }
+
+    Assert.assertEquals(1, analyses.get());
+    Assert.assertEquals(pagesPerAnalysis, pagesServed.get());
+    Assert.assertEquals(sentimentCallsPerAnalysis, sentimentCalls.get());
+  }
+
+  @Test
+  public void testConcurrentRetrievalsFetchEachPageOnce() throws Exception {
+    List<Future<List<CommentThreadView>>> retrievals = new ArrayList<>();
+    for (int i = 0; i < NUM_REQUESTS; i++) {
+      retrievals.add(retrieveAsync(2 * PAGE_SIZE));
+    }
+    for (Future<List<CommentThreadView>> retrieval : retrievals) {
+      Assert.assertEquals(2 * PAGE_SIZE, retrieval.get(10, TimeUnit.SECONDS).size());
+    }
+    Assert.assertEquals(2, pagesServed.get());
+  }
+
+  @Test
+  public void testLargerRequestContinuesSmallerFetch() throws Exception {
+    Future<List<CommentThreadView>> smallRetrieval = retrieveAsync(2 * PAGE_SIZE);
+    // Join while the first page is still being fetched
+    Thread.sleep(PAGE_LATENCY_MILLIS / 2);
+    Future<List<CommentThreadView>> largeRetrieval = retrieveAsync(4 * PAGE_SIZE);
+
+    Assert.assertEquals(2 * PAGE_SIZE, smallRetrieval.get(10, TimeUnit.SECONDS).size());
+    List<CommentThreadView> largeComments = largeRetrieval.get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(4 * PAGE_SIZE, largeComments.size());
+    Assert.assertEquals("4-49", largeComments.get(4 * PAGE_SIZE - 1).getTopLevelComment().getId());
+    Assert.assertEquals(4, pagesServed.get());
+  }
+
+  @Test
+  public void testSmallerRequestStopsAtItsOwnCount() throws Exception {
+    Future<List<CommentThreadView>> largeRetrieval = retrieveAsync(3 * PAGE_SIZE);
+    Thread.sleep(PAGE_LATENCY_MILLIS / 2);
+    Future<List<CommentThreadView>> smallRetrieval = retrieveAsync(PAGE_SIZE / 2);
+
+    Assert.assertEquals(PAGE_SIZE / 2, smallRetrieval.get(10, TimeUnit.SECONDS).size());
+    Assert.assertEquals(3 * PAGE_SIZE, largeRetrieval.get(10, TimeUnit.SECONDS).size());
+    Assert.assertEquals(3, pagesServed.get());
+  }
+
+  @Test
+  public void testFinishedFetchIsNotReused() throws Exception {
+    Assert.assertEquals(PAGE_SIZE, commentRetriever.retrieveComments(VIDEO_ID, PAGE_SIZE).size());
+    Assert.assertEquals(PAGE_SIZE, commentRetriever.retrieveComments(VIDEO_ID, PAGE_SIZE).size());
+    Assert.assertEquals(2, pagesServed.get());
+  }
+
+  @Test
+  public void testFetchFailureReachesEveryRequest() throws Exception {
+    when(mockedCommentThreadList.execute())
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(PAGE_LATENCY_MILLIS);
+              throw new IOException("quota exceeded");
+            });
+    Future<List<CommentThreadView>> firstRetrieval = retrieveAsync(PAGE_SIZE);
+    Thread.sleep(PAGE_LATENCY_MILLIS / 2);
+    Future<List<CommentThreadView>> secondRetrieval = retrieveAsync(PAGE_SIZE);
+    for (Future<List<CommentThreadView>> retrieval :
+        Arrays.asList(firstRetrieval, secondRetrieval)) {
+      try {
+        retrieval.get(10, TimeUnit.SECONDS);
+        Assert.fail("Expected the fetch failure to be rethrown");
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof IOException);
+      }
+    }
+  }
+}
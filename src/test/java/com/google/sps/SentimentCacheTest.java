@@ -0,0 +1,147 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.youtube.model.Comment;
+import com.google.api.services.youtube.model.CommentSnippet;
+import com.google.api.services.youtube.model.CommentThread;
+import com.google.api.services.youtube.model.CommentThreadSnippet;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.common.base.Ticker;
+import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.InMemorySentimentCache;
+import com.google.sps.servlets.utils.SentimentCache;
+import com.google.sps.servlets.utils.Statistics;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for caching sentiment results in front of the language service */
+@RunWith(JUnit4.class)
+public class SentimentCacheTest {
+  private static final float TEST_SCORE = 0.23f;
+  private static final float TEST_MAGNITUDE = 1.5f;
+  private static final Sentiment TEST_SENTIMENT =
+      Sentiment.newBuilder().setScore(TEST_SCORE).setMagnitude(TEST_MAGNITUDE).build();
+
+  private LanguageServiceClient mockedLanguageService;
+  private final AtomicLong fakeNanos = new AtomicLong();
+  private final Ticker fakeTicker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return fakeNanos.get();
+        }
+      };
+
+  @Before
+  public void setUp() {
+    // For the common words file
+    System.setProperty("resources-folder", "/src/main/webapp");
+    mockedLanguageService = mock(LanguageServiceClient.class);
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenReturn(
+            AnalyzeSentimentResponse.newBuilder().setDocumentSentiment(TEST_SENTIMENT).build());
+    // Batched documents come back without sentences, so every comment is scored on its own
+    when(mockedLanguageService.analyzeSentiment(any(AnalyzeSentimentRequest.class)))
+        .thenReturn(AnalyzeSentimentResponse.getDefaultInstance());
+  }
+
+  private static CommentThread commentThread(String commentId, String commentMsg) {
+    Comment topComment = new Comment().setSnippet(new CommentSnippet().setTextDisplay(commentMsg));
+    topComment.setId(commentId);
+    return new CommentThread()
+        .setSnippet(new CommentThreadSnippet().setTopLevelComment(topComment));
+  }
+
+  @Test
+  public void testRepeatedAnalysisSkipsLanguageService() {
+    InMemorySentimentCache sentimentCache = new InMemorySentimentCache();
+    CommentAnalysis commentAnalysis = new CommentAnalysis(mockedLanguageService, sentimentCache);
+    List<CommentThread> commentThreads =
+        Arrays.asList(commentThread("001", "first"), commentThread("002", "great video"));
+
+    commentAnalysis.computeOverallStats(commentThreads);
+    verify(mockedLanguageService, times(2)).analyzeSentiment(any(Document.class));
+    clearInvocations(mockedLanguageService);
+    Statistics repeatedStat = commentAnalysis.computeOverallStats(commentThreads);
+
+    verifyZeroInteractions(mockedLanguageService);
+    Assert.assertEquals(2, sentimentCache.getMissCount());
+    Assert.assertEquals(2, sentimentCache.getHitCount());
+    Assert.assertEquals(TEST_SCORE, repeatedStat.getAverageScore(), 0.01);
+    Assert.assertEquals(TEST_MAGNITUDE, repeatedStat.getAverageMagnitude(), 0.01);
+  }
+
+  @Test
+  public void testCacheSharedAcrossAnalyses() {
+    InMemorySentimentCache sentimentCache = new InMemorySentimentCache();
+    new CommentAnalysis(mockedLanguageService, sentimentCache)
+        .computeOverallStats(Arrays.asList(commentThread("001", "lol")));
+    new CommentAnalysis(mockedLanguageService, sentimentCache)
+        .computeOverallStats(Arrays.asList(commentThread("002", "  lol ")));
+
+    verify(mockedLanguageService, times(1)).analyzeSentiment(any(Document.class));
+  }
+
+  @Test
+  public void testEntriesExpireAfterTimeToLive() {
+    InMemorySentimentCache sentimentCache =
+        new InMemorySentimentCache(10, 1, TimeUnit.MINUTES, fakeTicker);
+    sentimentCache.put("first", TEST_SENTIMENT);
+    Assert.assertEquals(TEST_SENTIMENT, sentimentCache.get("first"));
+
+    fakeNanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+    Assert.assertNull(sentimentCache.get("first"));
+  }
+
+  @Test
+  public void testEvictsBeyondMaxEntries() {
+    InMemorySentimentCache sentimentCache =
+        new InMemorySentimentCache(1, 1, TimeUnit.MINUTES, fakeTicker);
+    sentimentCache.put("first", TEST_SENTIMENT);
+    sentimentCache.put("second", TEST_SENTIMENT);
+
+    Assert.assertEquals(1, sentimentCache.getEvictionCount());
+    Assert.assertNull(sentimentCache.get("first"));
+    Assert.assertEquals(TEST_SENTIMENT, sentimentCache.get("second"));
+  }
+
+  @Test
+  public void testHashIgnoresWhitespaceDifferences() {
+    Assert.assertEquals(
+        SentimentCache.hashOf("great  video"), SentimentCache.hashOf(" great\nvideo "));
+    Assert.assertNotEquals(
+        SentimentCache.hashOf("great video"), SentimentCache.hashOf("bad video"));
+  }
+}
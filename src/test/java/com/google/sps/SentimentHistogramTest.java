@@ -0,0 +1,94 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.benchmark.LegacySentimentBucketing;
+import com.google.sps.benchmark.SentimentBucketingBenchmark;
+import com.google.sps.servlets.utils.SentimentBucket;
+import com.google.sps.servlets.utils.SentimentHistogram;
+import com.google.sps.servlets.utils.UserComment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for single-pass sentiment bucketing against the legacy sort-based version */
+@RunWith(JUnit4.class)
+public class SentimentHistogramTest {
+  private static List<SentimentBucket> histogramBuckets(List<UserComment> comments, int topN) {
+    SentimentHistogram sentimentHistogram = new SentimentHistogram(topN);
+    comments.forEach(sentimentHistogram::add);
+    return sentimentHistogram.toBucketList();
+  }
+
+  private static void assertSameBuckets(
+      List<SentimentBucket> expected, List<SentimentBucket> actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(expected.get(i).getFrequency(), actual.get(i).getFrequency());
+      Assert.assertEquals(
+          0,
+          expected
+              .get(i)
+              .getIntervalRange()
+              .getInclusiveStart()
+              .compareTo(actual.get(i).getIntervalRange().getInclusiveStart()));
+      Assert.assertEquals(
+          0,
+          expected
+              .get(i)
+              .getIntervalRange()
+              .getExclusiveEnd()
+              .compareTo(actual.get(i).getIntervalRange().getExclusiveEnd()));
+      Assert.assertEquals(expected.get(i).getTopNComments(), actual.get(i).getTopNComments());
+    }
+  }
+
+  @Test
+  public void testMatchesLegacyOnRandomComments() {
+    List<UserComment> comments = SentimentBucketingBenchmark.createComments(10000, new Random(7));
+    List<SentimentBucket> actual = histogramBuckets(comments, 3);
+    List<SentimentBucket> expected =
+        LegacySentimentBucketing.categorizeToBucketList(new ArrayList<>(comments), 3);
+    assertSameBuckets(expected, actual);
+  }
+
+  @Test
+  public void testMatchesLegacyOnBoundaries() {
+    // Every boundary in both double and float precision, and values just outside the range
+    double[] scores = {-1.5, -1.0, -0.8, -0.6, -0.4, -0.2, 0.0, 0.2, 0.4, 0.6, 0.8, 1.0, 1.5};
+    List<UserComment> comments = new ArrayList<>();
+    for (int i = 0; i < scores.length; i++) {
+      comments.add(new UserComment("d" + i, "", null, scores[i], i));
+      comments.add(new UserComment("f" + i, "", null, (float) scores[i], i + 0.5));
+      comments.add(new UserComment("n" + i, "", null, Math.nextDown(scores[i]), i + 0.25));
+    }
+    List<SentimentBucket> actual = histogramBuckets(comments, 2);
+    List<SentimentBucket> expected =
+        LegacySentimentBucketing.categorizeToBucketList(new ArrayList<>(comments), 2);
+    assertSameBuckets(expected, actual);
+  }
+
+  @Test
+  public void testUpperBoundIsClosed() {
+    List<UserComment> comments = new ArrayList<>();
+    comments.add(new UserComment("001", "", null, 1.0, 0.4));
+    List<SentimentBucket> buckets = histogramBuckets(comments, 1);
+    Assert.assertEquals(1, (int) buckets.get(buckets.size() - 1).getFrequency());
+  }
+}
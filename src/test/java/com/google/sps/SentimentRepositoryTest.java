@@ -0,0 +1,234 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.youtube.model.Comment;
+import com.google.api.services.youtube.model.CommentSnippet;
+import com.google.api.services.youtube.model.CommentThread;
+import com.google.api.services.youtube.model.CommentThreadSnippet;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.apphosting.api.ApiProxy;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.DatastoreSentimentRepository;
+import com.google.sps.servlets.utils.LocalFileSentimentRepository;
+import com.google.sps.servlets.utils.SentimentCache;
+import com.google.sps.servlets.utils.SentimentRepository;
+import com.google.sps.servlets.utils.StoredSentiment;
+import com.google.sps.servlets.utils.UserComment;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for persisting comment sentiments across restarts */
+@RunWith(JUnit4.class)
+public class SentimentRepositoryTest {
+  private static final float TEST_SCORE = 0.23f;
+  private static final float TEST_MAGNITUDE = 1.5f;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private LanguageServiceClient mockedLanguageService;
+  private Path storeFile;
+
+  @Before
+  public void setUp() throws Exception {
+    // For the common words file
+    System.setProperty("resources-folder", "/src/main/webapp");
+    mockedLanguageService = mock(LanguageServiceClient.class);
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenReturn(
+            AnalyzeSentimentResponse.newBuilder()
+                .setDocumentSentiment(
+                    Sentiment.newBuilder().setScore(TEST_SCORE).setMagnitude(TEST_MAGNITUDE))
+                .build());
+    // Batched documents come back without sentences, so every comment is scored on its own
+    when(mockedLanguageService.analyzeSentiment(any(AnalyzeSentimentRequest.class)))
+        .thenReturn(AnalyzeSentimentResponse.getDefaultInstance());
+    storeFile = temporaryFolder.getRoot().toPath().resolve("sentiments.jsonl");
+  }
+
+  @After
+  public void tearDown() {
+    ApiProxy.clearEnvironmentForCurrentThread();
+  }
+
+  private static CommentThread commentThread(String commentId, String commentMsg) {
+    Comment topComment = new Comment().setSnippet(new CommentSnippet().setTextDisplay(commentMsg));
+    topComment.setId(commentId);
+    return new CommentThread()
+        .setSnippet(new CommentThreadSnippet().setTopLevelComment(topComment));
+  }
+
+  /** An analysis with an empty cache, as after a restart. */
+  private CommentAnalysis coldAnalysis(SentimentRepository sentimentRepository) {
+    CommentAnalysis commentAnalysis = new CommentAnalysis(mockedLanguageService);
+    commentAnalysis.setSentimentRepository(sentimentRepository);
+    return commentAnalysis;
+  }
+
+  @Test
+  public void testLocalFileStoreSurvivesRestart() {
+    new LocalFileSentimentRepository(storeFile)
+        .saveAll(
+            Arrays.asList(
+                new StoredSentiment("001", "hash1", 0.5, 1.0, 1000L),
+                new StoredSentiment("002", "hash2", -0.5, 2.0, 2000L)));
+    new LocalFileSentimentRepository(storeFile)
+        .saveAll(Arrays.asList(new StoredSentiment("001", "hash3", 0.1, 0.2, 3000L)));
+
+    Map<String, StoredSentiment> found =
+        new LocalFileSentimentRepository(storeFile).findAll(Arrays.asList("001", "002", "003"));
+    Assert.assertEquals(2, found.size());
+    Assert.assertEquals("hash3", found.get("001").getTextHash());
+    Assert.assertEquals(0.1, found.get("001").getScore(), 0);
+    Assert.assertEquals(-0.5, found.get("002").getScore(), 0);
+    Assert.assertEquals(2000L, found.get("002").getPublishDate());
+  }
+
+  @Test
+  public void testColdStartMatchesWarmStart() {
+    List<CommentThread> commentThreads =
+        Arrays.asList(
+            commentThread("001", "first"),
+            commentThread("002", "great video"),
+            commentThread("003", "great video"));
+    coldAnalysis(new LocalFileSentimentRepository(storeFile)).computeSentiment(commentThreads);
+    verify(mockedLanguageService, times(2)).analyzeSentiment(any(Document.class));
+    clearInvocations(mockedLanguageService);
+
+    // A new instance with an empty cache reads the file written by the previous one
+    List<UserComment> restoredComments =
+        coldAnalysis(new LocalFileSentimentRepository(storeFile)).computeSentiment(commentThreads);
+
+    verifyZeroInteractions(mockedLanguageService);
+    for (UserComment comment : restoredComments) {
+      Assert.assertEquals(TEST_SCORE, comment.getScore(), 0.001);
+      Assert.assertEquals(TEST_MAGNITUDE, comment.getMagnitude(), 0.001);
+    }
+  }
+
+  @Test
+  public void testEditedCommentIsAnalyzedAgain() {
+    coldAnalysis(new LocalFileSentimentRepository(storeFile))
+        .computeSentiment(Arrays.asList(commentThread("001", "first")));
+    clearInvocations(mockedLanguageService);
+
+    coldAnalysis(new LocalFileSentimentRepository(storeFile))
+        .computeSentiment(Arrays.asList(commentThread("001", "first, edited")));
+
+    verify(mockedLanguageService, times(1)).analyzeSentiment(any(Document.class));
+    StoredSentiment stored =
+        new LocalFileSentimentRepository(storeFile)
+            .findAll(Collections.singleton("001"))
+            .get("001");
+    Assert.assertTrue(stored.matchesText("first, edited"));
+    Assert.assertEquals(SentimentCache.hashOf("first, edited").toString(), stored.getTextHash());
+  }
+
+  @Test
+  public void testUnavailableStoreFallsBackToAnalysis() {
+    SentimentRepository failingRepository = mock(SentimentRepository.class);
+    when(failingRepository.findAll(any())).thenThrow(new RuntimeException("unavailable"));
+
+    CommentAnalysis commentAnalysis = coldAnalysis(failingRepository);
+    List<UserComment> comments =
+        commentAnalysis.computeSentiment(Arrays.asList(commentThread("001", "a")));
+    commentAnalysis.computeSentiment(Arrays.asList(commentThread("002", "b")));
+
+    Assert.assertEquals(TEST_SCORE, comments.get(0).getScore(), 0.001);
+    // The store is not tried again for the rest of the analysis, for lookups or saves
+    verify(failingRepository, times(1)).findAll(any());
+    verify(failingRepository, times(0)).saveAll(any());
+  }
+
+  @Test
+  public void testDatastoreRoundTripInBatches() {
+    // Datastore keys need an application id from the API environment
+    ApiProxy.Environment mockedEnvironment = mock(ApiProxy.Environment.class);
+    when(mockedEnvironment.getAppId()).thenReturn("test-app");
+    when(mockedEnvironment.getAttributes()).thenReturn(new HashMap<>());
+    ApiProxy.setEnvironmentForCurrentThread(mockedEnvironment);
+    DatastoreService mockedDatastore = mock(DatastoreService.class);
+    Map<Key, Entity> entityByKey = new HashMap<>();
+    when(mockedDatastore.put(anyIterable()))
+        .thenAnswer(
+            invocation -> {
+              List<Key> keys = new ArrayList<>();
+              for (Entity entity : invocation.<Iterable<Entity>>getArgument(0)) {
+                entityByKey.put(entity.getKey(), entity);
+                keys.add(entity.getKey());
+              }
+              return keys;
+            });
+    when(mockedDatastore.get(anyIterable()))
+        .thenAnswer(
+            invocation -> {
+              Map<Key, Entity> found = new HashMap<>();
+              for (Key key : invocation.<Iterable<Key>>getArgument(0)) {
+                if (entityByKey.containsKey(key)) {
+                  found.put(key, entityByKey.get(key));
+                }
+              }
+              return found;
+            });
+    DatastoreSentimentRepository repository = new DatastoreSentimentRepository(mockedDatastore);
+
+    List<StoredSentiment> sentiments =
+        IntStream.range(0, 1200)
+            .mapToObj(i -> new StoredSentiment("id" + i, "hash" + i, i / 1200.0, 1.0, i))
+            .collect(Collectors.toList());
+    repository.saveAll(sentiments);
+    Map<String, StoredSentiment> found =
+        repository.findAll(
+            IntStream.range(0, 1300).mapToObj(i -> "id" + i).collect(Collectors.toList()));
+
+    verify(mockedDatastore, times(3)).put(anyIterable());
+    verify(mockedDatastore, times(2)).get(anyIterable());
+    Assert.assertEquals(1200, found.size());
+    Assert.assertEquals("hash600", found.get("id600").getTextHash());
+    Assert.assertEquals(0.5, found.get("id600").getScore(), 0);
+    Assert.assertEquals(600L, found.get("id600").getPublishDate());
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.InMemorySentimentCache;
+import com.google.sps.servlets.utils.SentimentService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for the application-scoped sentiment service */
+@RunWith(JUnit4.class)
+public class SentimentServiceTest {
+  private static final int MAX_CONCURRENT_REQUESTS = 2;
+  private static final int NUM_CALLERS = 8;
+
+  @Test
+  public void testCapsConcurrentRequests() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    LanguageServiceClient mockedLanguageService = mock(LanguageServiceClient.class);
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              Thread.sleep(50);
+              inFlight.decrementAndGet();
+              return AnalyzeSentimentResponse.getDefaultInstance();
+            });
+    SentimentService sentimentService =
+        new SentimentService(
+            mockedLanguageService, new InMemorySentimentCache(), MAX_CONCURRENT_REQUESTS);
+
+    ExecutorService callers = Executors.newFixedThreadPool(NUM_CALLERS);
+    List<Future<AnalyzeSentimentResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < NUM_CALLERS; i++) {
+      responses.add(
+          callers.submit(() -> sentimentService.analyzeSentiment(Document.getDefaultInstance())));
+    }
+    for (Future<AnalyzeSentimentResponse> response : responses) {
+      Assert.assertNotNull(response.get());
+    }
+    callers.shutdown();
+
+    Assert.assertEquals(MAX_CONCURRENT_REQUESTS, maxInFlight.get());
+  }
+
+  @Test
+  public void testSharedServiceOutlivesAnalysis() {
+    LanguageServiceClient mockedLanguageService = mock(LanguageServiceClient.class);
+    SentimentService sentimentService = new SentimentService(mockedLanguageService);
+    new CommentAnalysis(sentimentService).closeLanguage();
+
+    verify(mockedLanguageService, never()).close();
+  }
+
+  @Test
+  public void testAnalysisClosesItsOwnService() {
+    LanguageServiceClient mockedLanguageService = mock(LanguageServiceClient.class);
+    new CommentAnalysis(mockedLanguageService).closeLanguage();
+
+    verify(mockedLanguageService).close();
+  }
+}
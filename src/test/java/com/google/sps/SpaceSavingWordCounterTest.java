@@ -0,0 +1,106 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.servlets.utils.ExactWordCounter;
+import com.google.sps.servlets.utils.SpaceSavingWordCounter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for approximate word counting against exact counts */
+@RunWith(JUnit4.class)
+public class SpaceSavingWordCounterTest {
+  private static final int VOCABULARY_SIZE = 50000;
+  private static final int CORPUS_SIZE = 200000;
+  private static final int TOP_K = 10;
+
+  /** Draw words whose frequency is proportional to 1 / rank^exponent. */
+  private static String[] createZipfianCorpus(double exponent, long seed) {
+    double[] cumulativeWeights = new double[VOCABULARY_SIZE];
+    double total = 0;
+    for (int rank = 1; rank <= VOCABULARY_SIZE; rank++) {
+      total += 1 / Math.pow(rank, exponent);
+      cumulativeWeights[rank - 1] = total;
+    }
+    Random random = new Random(seed);
+    String[] corpus = new String[CORPUS_SIZE];
+    for (int i = 0; i < CORPUS_SIZE; i++) {
+      int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble() * total);
+      corpus[i] = "word" + (index < 0 ? -index - 1 : index);
+    }
+    return corpus;
+  }
+
+  private void assertTopWordsMatchExact(double exponent, double errorRate, long seed) {
+    ExactWordCounter exactCounter = new ExactWordCounter();
+    SpaceSavingWordCounter approximateCounter = SpaceSavingWordCounter.withErrorRate(errorRate);
+    for (String word : createZipfianCorpus(exponent, seed)) {
+      exactCounter.add(word);
+      approximateCounter.add(word);
+    }
+
+    Map<String, Integer> exactTopWords = exactCounter.topWords(TOP_K);
+    Map<String, Integer> approximateTopWords = approximateCounter.topWords(TOP_K);
+    Assert.assertEquals(exactTopWords.keySet(), approximateTopWords.keySet());
+
+    int maxError = approximateCounter.getMaxError();
+    Assert.assertTrue(maxError <= errorRate * CORPUS_SIZE);
+    for (Map.Entry<String, Integer> entry : approximateTopWords.entrySet()) {
+      int exactCount = exactTopWords.get(entry.getKey());
+      Assert.assertTrue(entry.getValue() >= exactCount);
+      Assert.assertTrue(
+          entry.getValue() - exactCount <= approximateCounter.getError(entry.getKey()));
+      Assert.assertTrue(entry.getValue() - exactCount <= maxError);
+    }
+  }
+
+  @Test
+  public void testTopWordsOnZipfianCorpus() {
+    assertTopWordsMatchExact(1.0, 0.001, 1);
+    assertTopWordsMatchExact(1.2, 0.001, 2);
+    assertTopWordsMatchExact(1.5, 0.01, 3);
+  }
+
+  @Test
+  public void testExactWhileUnderCapacity() {
+    SpaceSavingWordCounter approximateCounter = new SpaceSavingWordCounter(3);
+    Arrays.asList("pear", "apple", "pear", "fig", "pear", "fig").forEach(approximateCounter::add);
+    Assert.assertEquals(0, approximateCounter.getMaxError());
+    Assert.assertEquals(3, approximateCounter.getCount("pear"));
+    Assert.assertEquals(
+        Arrays.asList("pear", "fig", "apple"),
+        Arrays.asList(approximateCounter.topWords(3).keySet().toArray()));
+  }
+
+  @Test
+  public void testMemoryIsBoundedByCapacity() {
+    SpaceSavingWordCounter approximateCounter = new SpaceSavingWordCounter(100);
+    for (int i = 0; i < 10000; i++) {
+      approximateCounter.add("word" + i);
+    }
+    Assert.assertEquals(100, approximateCounter.topWords(Integer.MAX_VALUE).size());
+    Assert.assertTrue(approximateCounter.getMaxError() <= 10000 / 100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsInvalidErrorRate() {
+    SpaceSavingWordCounter.withErrorRate(0);
+  }
+}
@@ -0,0 +1,215 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.api.client.util.DateTime;
+import com.google.gson.Gson;
+import com.google.sps.servlets.utils.ExactWordCounter;
+import com.google.sps.servlets.utils.SentimentBucket;
+import com.google.sps.servlets.utils.SpaceSavingWordCounter;
+import com.google.sps.servlets.utils.Statistics;
+import com.google.sps.servlets.utils.StatisticsAccumulator;
+import com.google.sps.servlets.utils.UserComment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for building Statistics from streamed and merged partial aggregates */
+@RunWith(JUnit4.class)
+public class StatisticsAccumulatorTest {
+  private static final int NUM_COMMENTS = 2000;
+  private static final int NUM_PARTIALS = 4;
+  private static final int TOP_N_COMMENTS = 3;
+  private static final String[] WORDS = {
+    "love", "song", "video", "great", "awful", "sound", "music", "voice", "chorus", "beat", "lyrics"
+  };
+
+  private final Gson gson = new Gson();
+  private List<UserComment> comments;
+
+  @Before
+  public void setUp() {
+    // For the common words file
+    System.setProperty("resources-folder", "/src/main/webapp");
+    Random random = new Random(7);
+    comments = new ArrayList<>();
+    for (int i = 0; i < NUM_COMMENTS; i++) {
+      StringBuilder message = new StringBuilder();
+      for (int j = 0; j < 5; j++) {
+        // Skewed towards the first words so that counts differ
+        message.append(WORDS[(int) (WORDS.length * Math.pow(random.nextDouble(), 3))]).append(' ');
+      }
+      // Two decimals and a few magnitudes, so that ties between top comments are common
+      double score = Math.round((random.nextDouble() * 2 - 1) * 100) / 100.0;
+      double magnitude = random.nextInt(4);
+      comments.add(
+          new UserComment(
+              String.valueOf(i), message.toString(), new DateTime(1000L * i), score, magnitude));
+    }
+  }
+
+  private List<StatisticsAccumulator> partialAccumulators() {
+    List<StatisticsAccumulator> partials = new ArrayList<>();
+    int chunkSize = NUM_COMMENTS / NUM_PARTIALS;
+    for (int i = 0; i < NUM_PARTIALS; i++) {
+      StatisticsAccumulator partial = new StatisticsAccumulator(TOP_N_COMMENTS);
+      partial.addAll(comments.subList(i * chunkSize, (i + 1) * chunkSize));
+      partials.add(partial);
+    }
+    return partials;
+  }
+
+  private void assertSameStatistics(Statistics expected, Statistics actual) {
+    Assert.assertEquals(
+        gson.toJson(expected.getSentimentBucketList()),
+        gson.toJson(actual.getSentimentBucketList()));
+    Assert.assertEquals(
+        gson.toJson(expected.getWordFrequencyMap()), gson.toJson(actual.getWordFrequencyMap()));
+    Assert.assertEquals(expected.getAverageScore(), actual.getAverageScore(), 1e-9);
+    Assert.assertEquals(expected.getAverageMagnitude(), actual.getAverageMagnitude(), 1e-9);
+  }
+
+  @Test
+  public void testStreamedSnapshotMatchesStatistics() {
+    StatisticsAccumulator accumulator = new StatisticsAccumulator(TOP_N_COMMENTS);
+    comments.forEach(accumulator::add);
+
+    assertSameStatistics(new Statistics(comments, TOP_N_COMMENTS), accumulator.snapshot());
+  }
+
+  @Test
+  public void testMergedPartialsMatchSinglePass() {
+    StatisticsAccumulator merged = new StatisticsAccumulator(TOP_N_COMMENTS);
+    partialAccumulators().forEach(merged::merge);
+
+    Assert.assertEquals(NUM_COMMENTS, merged.getNumComments());
+    assertSameStatistics(new Statistics(comments, TOP_N_COMMENTS), merged.snapshot());
+  }
+
+  @Test
+  public void testPartialsBuiltInParallel() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_PARTIALS);
+    try {
+      int chunkSize = NUM_COMMENTS / NUM_PARTIALS;
+      List<Future<StatisticsAccumulator>> partials = new ArrayList<>();
+      for (int i = 0; i < NUM_PARTIALS; i++) {
+        List<UserComment> chunk = comments.subList(i * chunkSize, (i + 1) * chunkSize);
+        partials.add(
+            executor.submit(
+                () -> {
+                  StatisticsAccumulator partial = new StatisticsAccumulator(TOP_N_COMMENTS);
+                  chunk.forEach(partial::add);
+                  return partial;
+                }));
+      }
+      StatisticsAccumulator merged = new StatisticsAccumulator(TOP_N_COMMENTS);
+      for (Future<StatisticsAccumulator> partial : partials) {
+        merged.merge(partial.get());
+      }
+      assertSameStatistics(new Statistics(comments, TOP_N_COMMENTS), merged.snapshot());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSnapshotIsNotChangedByLaterComments() {
+    StatisticsAccumulator accumulator = new StatisticsAccumulator(TOP_N_COMMENTS);
+    accumulator.addAll(comments.subList(0, 10));
+    Statistics snapshot = accumulator.snapshot();
+    String snapshotJson = gson.toJson(snapshot);
+
+    accumulator.addAll(comments.subList(10, 20));
+
+    Assert.assertEquals(snapshotJson, gson.toJson(snapshot));
+  }
+
+  @Test
+  public void testEmptySnapshot() {
+    StatisticsAccumulator accumulator = new StatisticsAccumulator(TOP_N_COMMENTS);
+    accumulator.merge(new StatisticsAccumulator(TOP_N_COMMENTS));
+    Statistics statistics = accumulator.snapshot();
+
+    Assert.assertEquals(0, statistics.getAverageScore(), 0);
+    Assert.assertEquals(0, statistics.getAverageMagnitude(), 0);
+    Assert.assertTrue(statistics.getWordFrequencyMap().isEmpty());
+    Assert.assertEquals(10, statistics.getSentimentBucketList().size());
+    for (SentimentBucket bucket : statistics.getSentimentBucketList()) {
+      Assert.assertEquals(Integer.valueOf(0), bucket.getFrequency());
+    }
+    assertSameStatistics(statistics, new Statistics(new ArrayList<>(), TOP_N_COMMENTS));
+  }
+
+  @Test
+  public void testMergeKeepsNewestComments() {
+    StatisticsAccumulator older = new StatisticsAccumulator(TOP_N_COMMENTS);
+    older.addAll(comments.subList(0, 10));
+    StatisticsAccumulator newer = new StatisticsAccumulator(TOP_N_COMMENTS);
+    newer.addAll(comments.subList(10, 20));
+
+    older.merge(newer);
+
+    Assert.assertTrue(older.hasSeen(comments.get(19)));
+    Assert.assertFalse(older.hasSeen(comments.get(20)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsDifferentTopN() {
+    new StatisticsAccumulator(1).merge(new StatisticsAccumulator(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsDifferentWordCounters() {
+    new StatisticsAccumulator(1, new ExactWordCounter())
+        .merge(new StatisticsAccumulator(1, new SpaceSavingWordCounter(10)));
+  }
+
+  @Test
+  public void testMergedSpaceSavingCountersStayWithinBound() {
+    Random random = new Random(11);
+    ExactWordCounter exactCounter = new ExactWordCounter();
+    List<SpaceSavingWordCounter> partials = new ArrayList<>();
+    for (int i = 0; i < NUM_PARTIALS; i++) {
+      SpaceSavingWordCounter partial = new SpaceSavingWordCounter(100);
+      for (int j = 0; j < 5000; j++) {
+        String word = "word" + (int) (1000 * Math.pow(random.nextDouble(), 4));
+        partial.add(word);
+        exactCounter.add(word);
+      }
+      partials.add(partial);
+    }
+    SpaceSavingWordCounter merged = new SpaceSavingWordCounter(100);
+    partials.forEach(merged::merge);
+
+    Map<String, Integer> exactTopWords = exactCounter.topWords(5);
+    Map<String, Integer> mergedTopWords = merged.topWords(5);
+    Assert.assertEquals(exactTopWords.keySet(), mergedTopWords.keySet());
+    for (Map.Entry<String, Integer> entry : mergedTopWords.entrySet()) {
+      int overestimate = entry.getValue() - exactTopWords.get(entry.getKey());
+      Assert.assertTrue(overestimate >= 0);
+      Assert.assertTrue(overestimate <= merged.getError(entry.getKey()));
+      Assert.assertTrue(overestimate <= merged.getMaxError());
+    }
+  }
+}
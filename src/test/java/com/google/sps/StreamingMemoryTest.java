@@ -0,0 +1,157 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.google.api.services.youtube.YouTube;
+import com.google.api.services.youtube.model.Comment;
+import com.google.api.services.youtube.model.CommentSnippet;
+import com.google.api.services.youtube.model.CommentThread;
+import com.google.api.services.youtube.model.CommentThreadListResponse;
+import com.google.api.services.youtube.model.CommentThreadSnippet;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.sps.servlets.utils.CommentAnalysis;
+import com.google.sps.servlets.utils.CommentAnalysisPipeline;
+import com.google.sps.servlets.utils.SpaceSavingWordCounter;
+import com.google.sps.servlets.utils.Statistics;
+import com.google.sps.servlets.utils.YouTubeCommentRetriever;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Memory regression test for analyzing many comments in streaming mode */
+@RunWith(JUnit4.class)
+public class StreamingMemoryTest {
+  private static final int PAGE_SIZE = 100;
+  private static final int NUM_PAGES = 100;
+  // Page at which the pages fetched so far are checked for being collected
+  private static final int CHECK_PAGE = 80;
+  // Fetched but not yet aggregated pages: prefetch window, pages in analysis and one being handed
+  // over, with some slack
+  private static final int MAX_LIVE_PAGES = 10;
+  private static final String NEXT_PAGE_TOKEN = "Some Page Token";
+
+  // Weak references do not keep pages alive; they show which pages are still reachable
+  private final List<WeakReference<List<CommentThread>>> fetchedPages = new ArrayList<>();
+  private final AtomicInteger livePagesAtCheck = new AtomicInteger(-1);
+  private YouTubeCommentRetriever commentRetriever;
+  private CommentAnalysis commentAnalysis;
+
+  @Before
+  public void setUp() throws Exception {
+    // For the common words file
+    System.setProperty("resources-folder", "/src/main/webapp");
+    // Stub-only mocks do not record invocations, which would otherwise keep every argument alive
+    YouTube mockedYoutube = mock(YouTube.class, RETURNS_DEEP_STUBS);
+    YouTube.CommentThreads.List mockedCommentThreadList =
+        mock(
+            YouTube.CommentThreads.List.class,
+            withSettings().stubOnly().defaultAnswer(RETURNS_DEEP_STUBS));
+    when(mockedCommentThreadList.execute())
+        .thenAnswer(
+            invocation -> {
+              int pageIndex = fetchedPages.size();
+              if (pageIndex == CHECK_PAGE) {
+                livePagesAtCheck.set(countLivePages());
+              }
+              List<CommentThread> page = createPage(pageIndex);
+              fetchedPages.add(new WeakReference<>(page));
+              return new CommentThreadListResponse()
+                  .setItems(page)
+                  .setNextPageToken(pageIndex == NUM_PAGES - 1 ? null : NEXT_PAGE_TOKEN);
+            });
+    when(mockedYoutube.commentThreads().list(anyString())).thenReturn(mockedCommentThreadList);
+    commentRetriever = new YouTubeCommentRetriever(mockedYoutube);
+
+    LanguageServiceClient mockedLanguageService =
+        mock(LanguageServiceClient.class, withSettings().stubOnly());
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenReturn(
+            AnalyzeSentimentResponse.newBuilder()
+                .setDocumentSentiment(Sentiment.newBuilder().setScore(0.3f).setMagnitude(0.6f))
+                .build());
+    // Batched documents come back without sentences, so every comment is scored on its own
+    when(mockedLanguageService.analyzeSentiment(any(AnalyzeSentimentRequest.class)))
+        .thenReturn(AnalyzeSentimentResponse.getDefaultInstance());
+    commentAnalysis = new CommentAnalysis(mockedLanguageService);
+  }
+
+  /** A page of comments with mostly unique words, so an exact word map would keep growing. */
+  private static List<CommentThread> createPage(int pageIndex) {
+    List<CommentThread> page = new ArrayList<>(PAGE_SIZE);
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      Comment topComment =
+          new Comment()
+              .setSnippet(
+                  new CommentSnippet()
+                      .setTextDisplay("song word" + pageIndex + "x" + i + " filler text"));
+      topComment.setId(pageIndex + "-" + i);
+      page.add(
+          new CommentThread()
+              .setSnippet(new CommentThreadSnippet().setTopLevelComment(topComment)));
+    }
+    return page;
+  }
+
+  private int countLivePages() {
+    for (int attempt = 0; attempt < 5; attempt++) {
+      System.gc();
+    }
+    int livePages = 0;
+    for (WeakReference<List<CommentThread>> page : fetchedPages) {
+      if (page.get() != null) {
+        livePages++;
+      }
+    }
+    return livePages;
+  }
+
+  @Test
+  public void testPagesAreReleasedOnceAggregated() throws Exception {
+    CommentAnalysisPipeline pipeline =
+        new CommentAnalysisPipeline(commentRetriever, commentAnalysis);
+    pipeline.setWordCounterSupplier(() -> new SpaceSavingWordCounter(100));
+
+    Statistics statistics = pipeline.run("dummyVideo", (long) PAGE_SIZE * NUM_PAGES);
+
+    int totalFrequency =
+        statistics.getSentimentBucketList().stream()
+            .mapToInt(bucket -> bucket.getFrequency())
+            .sum();
+    Assert.assertEquals(PAGE_SIZE * NUM_PAGES, totalFrequency);
+    Assert.assertEquals(
+        Integer.valueOf(PAGE_SIZE * NUM_PAGES), statistics.getWordFrequencyMap().get("song"));
+    Assert.assertTrue(
+        livePagesAtCheck.get() + " of " + CHECK_PAGE + " pages still reachable",
+        livePagesAtCheck.get() >= 0 && livePagesAtCheck.get() <= MAX_LIVE_PAGES);
+    Assert.assertEquals(0, countLivePages());
+  }
+}
@@ -0,0 +1,255 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.youtube.model.Video;
+import com.google.api.services.youtube.model.VideoListResponse;
+import com.google.api.services.youtube.model.VideoSnippet;
+import com.google.api.services.youtube.model.VideoStatistics;
+import com.google.common.base.Ticker;
+import com.google.gson.JsonObject;
+import com.google.sps.servlets.utils.JsonResponseWriter;
+import com.google.sps.servlets.utils.VideoInformation;
+import com.google.sps.servlets.utils.VideoMetadataCache;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for caching video metadata and batching the lookups that miss */
+@RunWith(JUnit4.class)
+public class VideoMetadataCacheTest {
+  private static final String MISSING_VIDEO = "deletedVideo";
+  // Returned without its statistics part
+  private static final String NO_STATISTICS_VIDEO = "brokenVideo";
+  private static final long SNIPPET_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final long STATISTICS_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  // Long enough for every concurrent lookup of a test to join the same batch
+  private static final long BATCH_WINDOW_MILLIS = 200L;
+
+  private final AtomicLong fakeNanos = new AtomicLong();
+  private final Ticker fakeTicker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return fakeNanos.get();
+        }
+      };
+  // Ids and parts of each request, and the like count every fetched video gets
+  private final List<List<String>> requestedIds = Collections.synchronizedList(new ArrayList<>());
+  private final List<Boolean> requestedSnippets = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicLong likeCount = new AtomicLong(10);
+  private VideoMetadataCache metadataCache;
+  private ExecutorService lookupExecutor;
+
+  @Before
+  public void setUp() {
+    metadataCache =
+        new VideoMetadataCache(
+            this::fetch,
+            SNIPPET_TTL_MILLIS,
+            STATISTICS_TTL_MILLIS,
+            BATCH_WINDOW_MILLIS,
+            fakeTicker);
+    lookupExecutor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    lookupExecutor.shutdownNow();
+    metadataCache.shutdown();
+  }
+
+  private VideoListResponse fetch(List<String> videoIds, boolean includeSnippet) {
+    requestedIds.add(videoIds);
+    requestedSnippets.add(includeSnippet);
+    List<Video> videos = new ArrayList<>();
+    for (String videoId : videoIds) {
+      if (MISSING_VIDEO.equals(videoId)) {
+        continue;
+      }
+      Video video = new Video().setId(videoId);
+      if (!NO_STATISTICS_VIDEO.equals(videoId)) {
+        video.setStatistics(
+            new VideoStatistics()
+                .setLikeCount(BigInteger.valueOf(likeCount.get()))
+                .setDislikeCount(BigInteger.ONE));
+      }
+      if (includeSnippet) {
+        video.setSnippet(
+            new VideoSnippet()
+                .setTitle("Title of " + videoId)
+                .setChannelTitle("Channel")
+                .setPublishedAt(new DateTime("2020-07-01T12:00:00Z")));
+      }
+      videos.add(video);
+    }
+    return new VideoListResponse().setItems(videos);
+  }
+
+  private static JsonObject toJson(VideoInformation videoInformation) {
+    return JsonResponseWriter.GSON.toJsonTree(videoInformation).getAsJsonObject();
+  }
+
+  private List<VideoInformation> getConcurrently(List<String> videoIds) throws Exception {
+    List<Future<VideoInformation>> lookups = new ArrayList<>();
+    for (String videoId : videoIds) {
+      lookups.add(lookupExecutor.submit(() -> metadataCache.get(videoId)));
+    }
+    List<VideoInformation> videos = new ArrayList<>();
+    for (Future<VideoInformation> lookup : lookups) {
+      videos.add(lookup.get(10, TimeUnit.SECONDS));
+    }
+    return videos;
+  }
+
+  private static List<String> videoIds(int numVideos) {
+    List<String> videoIds = new ArrayList<>();
+    for (int i = 0; i < numVideos; i++) {
+      videoIds.add("video" + i);
+    }
+    return videoIds;
+  }
+
+  @Test
+  public void testConcurrentLookupsShareOneRequest() throws Exception {
+    List<VideoInformation> videos = getConcurrently(videoIds(5));
+
+    Assert.assertEquals(1, metadataCache.getRequestCount());
+    Assert.assertEquals(
+        videoIds(5), requestedIds.get(0).stream().sorted().collect(Collectors.toList()));
+    for (int i = 0; i < 5; i++) {
+      JsonObject video = toJson(videos.get(i));
+      Assert.assertEquals("Title of video" + i, video.get("videoName").getAsString());
+      Assert.assertEquals("2020-07-01", video.get("publishDateString").getAsString());
+      Assert.assertEquals(10, video.get("numLikes").getAsInt());
+    }
+  }
+
+  @Test
+  public void testFreshVideoIsServedFromCache() throws Exception {
+    metadataCache.get("video0");
+    metadataCache.get("video0");
+
+    Assert.assertEquals(1, metadataCache.getRequestCount());
+  }
+
+  @Test
+  public void testExpiredStatisticsAreRefetchedWithoutSnippet() throws Exception {
+    metadataCache.get("video0");
+    likeCount.set(20);
+    fakeNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(STATISTICS_TTL_MILLIS + 1));
+
+    JsonObject video = toJson(metadataCache.get("video0"));
+
+    Assert.assertEquals(2, metadataCache.getRequestCount());
+    Assert.assertFalse(requestedSnippets.get(1));
+    Assert.assertEquals(20, video.get("numLikes").getAsInt());
+    // The title comes from the cached snippet
+    Assert.assertEquals("Title of video0", video.get("videoName").getAsString());
+  }
+
+  @Test
+  public void testLargeBatchesAreSplitAtMaximumSize() throws Exception {
+    int numVideos = VideoMetadataCache.MAX_BATCH_SIZE + 10;
+
+    getConcurrently(videoIds(numVideos));
+
+    Assert.assertEquals(2, metadataCache.getRequestCount());
+    int totalIds = 0;
+    for (List<String> ids : requestedIds) {
+      Assert.assertTrue(ids.size() <= VideoMetadataCache.MAX_BATCH_SIZE);
+      totalIds += ids.size();
+    }
+    Assert.assertEquals(numVideos, totalIds);
+  }
+
+  @Test
+  public void testMissingVideoFailsAlone() throws Exception {
+    Future<VideoInformation> missing =
+        lookupExecutor.submit(() -> metadataCache.get(MISSING_VIDEO));
+    VideoInformation found = metadataCache.get("video0");
+
+    Assert.assertEquals(1, metadataCache.getRequestCount());
+    Assert.assertEquals("Title of video0", toJson(found).get("videoName").getAsString());
+    try {
+      missing.get(10, TimeUnit.SECONDS);
+      Assert.fail("Expected the lookup of a missing video to fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testVideoWithoutStatisticsFailsAlone() throws Exception {
+    Future<VideoInformation> broken =
+        lookupExecutor.submit(() -> metadataCache.get(NO_STATISTICS_VIDEO));
+    VideoInformation found = metadataCache.get("video0");
+
+    Assert.assertEquals(1, metadataCache.getRequestCount());
+    Assert.assertEquals(10, toJson(found).get("numLikes").getAsInt());
+    try {
+      broken.get(10, TimeUnit.SECONDS);
+      Assert.fail("Expected the lookup of a video without statistics to fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testResponseWithoutItemsFailsLookup() throws Exception {
+    VideoMetadataCache emptyCache =
+        new VideoMetadataCache(
+            (videoIds, includeSnippet) -> new VideoListResponse(),
+            SNIPPET_TTL_MILLIS,
+            STATISTICS_TTL_MILLIS,
+            BATCH_WINDOW_MILLIS,
+            fakeTicker);
+    try {
+      emptyCache.get("video0");
+      Assert.fail("Expected the lookup of a video missing from the response to fail");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("video0"));
+    } finally {
+      emptyCache.shutdown();
+    }
+  }
+
+  @Test
+  public void testIdListIsRejected() throws Exception {
+    try {
+      metadataCache.get("video0,video1");
+      Assert.fail("Expected an id holding a comma to be rejected");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    Assert.assertEquals(0, metadataCache.getRequestCount());
+  }
+}
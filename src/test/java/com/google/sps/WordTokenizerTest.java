@@ -0,0 +1,118 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.servlets.utils.ExactWordCounter;
+import com.google.sps.servlets.utils.WordTokenizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for splitting comments into words and counting them */
+@RunWith(JUnit4.class)
+public class WordTokenizerTest {
+  private static final List<String> WORDS_TO_IGNORE = Arrays.asList("the", "is", "a");
+  private final WordTokenizer wordTokenizer = new WordTokenizer(WORDS_TO_IGNORE);
+
+  private List<String> tokenize(String text) {
+    List<String> words = new ArrayList<>();
+    wordTokenizer.tokenize(text, words::add);
+    return words;
+  }
+
+  /** The regular expression pipeline the tokenizer replaces. */
+  private static List<String> tokenizeWithRegex(String text) {
+    return Arrays.stream(text.replaceAll("[^a-zA-Z0-9\\s]", "").toLowerCase().split("\\s+"))
+        .filter(word -> !(WORDS_TO_IGNORE.contains(word) || word.equals("")))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testMatchesRegexTokenization() {
+    List<String> samples =
+        Arrays.asList(
+            "This is interesting. I am watching this video.",
+            "  Leading and trailing spaces  ",
+            "Don't STOP,me-now!\tTabs\nnew lines\r\nand\u000bvertical\ftabs",
+            "Café naïve ❤️ 100% legit",
+            "The THE the a A is IS",
+            "",
+            "!!! ???");
+    for (String sample : samples) {
+      Assert.assertEquals(sample, tokenizeWithRegex(sample), tokenize(sample));
+    }
+  }
+
+  @Test
+  public void testJoinsAcrossPunctuation() {
+    Assert.assertEquals(Arrays.asList("dont", "stopme"), tokenize("Don't stop,me"));
+  }
+
+  @Test
+  public void testCountsRepeatedWords() {
+    ExactWordCounter wordCounter = new ExactWordCounter();
+    wordTokenizer.tokenize("Video video VIDEO is good", wordCounter::add);
+    Assert.assertEquals(3, wordCounter.getCount("video"));
+    Assert.assertEquals(1, wordCounter.getCount("good"));
+    Assert.assertEquals(0, wordCounter.getCount("is"));
+    Assert.assertEquals(2, wordCounter.toMap().size());
+  }
+
+  @Test
+  public void testTopWordsMatchesFullSort() {
+    ExactWordCounter wordCounter = new ExactWordCounter();
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      wordCounter.add("word" + (int) Math.abs(random.nextGaussian() * 200));
+    }
+    List<String> expected =
+        wordCounter.toMap().entrySet().stream()
+            .sorted(
+                Comparator.<Map.Entry<String, Integer>>comparingInt(Map.Entry::getValue)
+                    .reversed()
+                    .thenComparing(Map.Entry::getKey))
+            .limit(25)
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
+    Assert.assertEquals(expected, new ArrayList<>(wordCounter.topWords(25).keySet()));
+  }
+
+  @Test
+  public void testTopWordsBreaksTiesAlphabetically() {
+    ExactWordCounter wordCounter = new ExactWordCounter();
+    Arrays.asList("pear", "apple", "fig", "fig", "kiwi", "banana").forEach(wordCounter::add);
+    Map<String, Integer> topWords = wordCounter.topWords(3);
+    Assert.assertEquals(
+        Arrays.asList("fig", "apple", "banana"), new ArrayList<>(topWords.keySet()));
+    Assert.assertEquals(Integer.valueOf(2), topWords.get("fig"));
+  }
+
+  @Test
+  public void testTopWordsWithFewerWordsThanK() {
+    ExactWordCounter wordCounter = new ExactWordCounter();
+    Arrays.asList("b", "a", "b").forEach(wordCounter::add);
+    Assert.assertEquals(
+        Arrays.asList("b", "a"), new ArrayList<>(wordCounter.topWords(10).keySet()));
+    Assert.assertTrue(wordCounter.topWords(0).isEmpty());
+  }
+}
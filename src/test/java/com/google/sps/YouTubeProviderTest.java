@@ -0,0 +1,89 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.sps.servlets.utils.CoalescingCommentRetriever;
+import com.google.sps.servlets.utils.YouTubeCommentRetriever;
+import com.google.sps.servlets.utils.YouTubeProvider;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for sharing one YouTube client across retrievers and servlets */
+@RunWith(JUnit4.class)
+public class YouTubeProviderTest {
+  private static final String DEVELOPER_KEY = "testKey";
+  private static final String PAGE =
+      "{\"items\": [{\"snippet\": {\"topLevelComment\": {\"id\": \"comment\","
+          + " \"snippet\": {\"textDisplay\": \"Hello\"}}}}]}";
+
+  @After
+  public void tearDown() {
+    YouTubeProvider.shutdownSharedInstance();
+  }
+
+  @Test
+  public void sharedInstanceIsCreatedOnceOnPooledTransport() throws Exception {
+    YouTubeProvider first = YouTubeProvider.getSharedInstance();
+    YouTubeProvider second = YouTubeProvider.getSharedInstance();
+
+    Assert.assertSame(first, second);
+    Assert.assertTrue(
+        first.getYouTube().getRequestFactory().getTransport() instanceof ApacheHttpTransport);
+
+    YouTubeProvider.shutdownSharedInstance();
+    Assert.assertNotSame(first, YouTubeProvider.getSharedInstance());
+  }
+
+  @Test
+  public void retrieversShareClientAndKey() throws Exception {
+    List<String> requestUrls = new ArrayList<>();
+    MockHttpTransport transport =
+        new MockHttpTransport() {
+          @Override
+          public LowLevelHttpRequest buildRequest(String method, String url) {
+            requestUrls.add(url);
+            return new MockLowLevelHttpRequest(url)
+                .setResponse(
+                    new MockLowLevelHttpResponse()
+                        .setContentType(Json.MEDIA_TYPE)
+                        .setContent(PAGE));
+          }
+        };
+    YouTubeProvider youTubeProvider = new YouTubeProvider(transport, DEVELOPER_KEY);
+    CoalescingCommentRetriever coalescingRetriever =
+        new CoalescingCommentRetriever(youTubeProvider);
+
+    Assert.assertEquals(
+        1, new YouTubeCommentRetriever(youTubeProvider).retrieveComments("first", 100).size());
+    Assert.assertEquals(1, coalescingRetriever.retrieveComments("second", 100).size());
+    coalescingRetriever.shutdown();
+
+    Assert.assertEquals(2, requestUrls.size());
+    for (String requestUrl : requestUrls) {
+      Assert.assertTrue(requestUrl, requestUrl.contains("key=" + DEVELOPER_KEY));
+    }
+  }
+}
@@ -0,0 +1,334 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.Sleeper;
+import com.google.api.services.youtube.YouTube;
+import com.google.common.base.Ticker;
+import com.google.sps.servlets.utils.CommentThreadView;
+import com.google.sps.servlets.utils.YouTubeCommentRetriever;
+import com.google.sps.servlets.utils.YouTubeQuotaException;
+import com.google.sps.servlets.utils.YouTubeQuotaLimiter;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** JUnit test for throttling, retrying and suspending YouTube calls */
+@RunWith(JUnit4.class)
+public class YouTubeQuotaLimiterTest {
+  private static final String VIDEO_ID = "dummyVideo";
+  private static final int MAX_RETRIES = 3;
+  private static final long INITIAL_BACKOFF_MILLIS = 100L;
+  private static final long MAX_BACKOFF_MILLIS = 1_000L;
+  private static final long MAX_WAIT_MILLIS = 1_000L;
+  private static final int FAILURE_THRESHOLD = 2;
+  private static final long OPEN_MILLIS = 30_000L;
+  private static final String PAGE =
+      "{\"items\": [{\"snippet\": {\"topLevelComment\": {\"id\": \"comment\","
+          + " \"snippet\": {\"textDisplay\": \"Hello\"}}}}]}";
+
+  private final AtomicLong fakeNanos = new AtomicLong();
+  private final Ticker fakeTicker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return fakeNanos.get();
+        }
+      };
+  // Sleeping only moves the fake clock forward
+  private final List<Long> sleeps = new ArrayList<>();
+  private final Sleeper fakeSleeper =
+      millis -> {
+        sleeps.add(millis);
+        fakeNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+      };
+  // Responses served in order; the last one is repeated once the others are used up
+  private final Deque<Supplier<LowLevelHttpResponse>> responses = new ArrayDeque<>();
+  private final AtomicInteger numRequests = new AtomicInteger();
+  private YouTubeCommentRetriever commentRetriever;
+
+  @Before
+  public void setUp() {
+    // For the API key
+    System.setProperty("resources-folder", "/src/main/webapp");
+    MockHttpTransport transport =
+        new MockHttpTransport() {
+          @Override
+          public LowLevelHttpRequest buildRequest(String method, String url) {
+            return new MockLowLevelHttpRequest(url) {
+              @Override
+              public LowLevelHttpResponse execute() throws IOException {
+                numRequests.incrementAndGet();
+                LowLevelHttpResponse response =
+                    (responses.size() > 1 ? responses.poll() : responses.peek()).get();
+                if (response == null) {
+                  throw new SocketTimeoutException("Read timed out");
+                }
+                return response;
+              }
+            };
+          }
+        };
+    commentRetriever =
+        new YouTubeCommentRetriever(
+            new YouTube.Builder(transport, JacksonFactory.getDefaultInstance(), null)
+                .setApplicationName("test")
+                .build());
+  }
+
+  private YouTubeQuotaLimiter createLimiter(long dailyUnits) {
+    return createLimiter(dailyUnits, dailyUnits);
+  }
+
+  private YouTubeQuotaLimiter createLimiter(long dailyUnits, long burstUnits) {
+    YouTubeQuotaLimiter quotaLimiter =
+        new YouTubeQuotaLimiter(
+            dailyUnits,
+            burstUnits,
+            MAX_RETRIES,
+            INITIAL_BACKOFF_MILLIS,
+            MAX_BACKOFF_MILLIS,
+            MAX_WAIT_MILLIS,
+            FAILURE_THRESHOLD,
+            OPEN_MILLIS,
+            fakeTicker,
+            fakeSleeper,
+            new Random(42));
+    commentRetriever.setQuotaLimiter(quotaLimiter);
+    return quotaLimiter;
+  }
+
+  private static LowLevelHttpResponse page() {
+    return new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE).setContent(PAGE);
+  }
+
+  // Stands for a request that timed out without an answer
+  private static LowLevelHttpResponse timeout() {
+    return null;
+  }
+
+  private static LowLevelHttpResponse error(int status, String reason) {
+    return new MockLowLevelHttpResponse()
+        .setStatusCode(status)
+        .setContentType(Json.MEDIA_TYPE)
+        .setContent(
+            String.format(
+                "{\"error\": {\"code\": %d, \"message\": \"%s\", \"errors\": [{\"reason\":"
+                    + " \"%s\"}]}}",
+                status, reason, reason));
+  }
+
+  private List<CommentThreadView> retrieve() throws Exception {
+    return commentRetriever.retrieveComments(VIDEO_ID, 100);
+  }
+
+  @Test
+  public void retriesTooManyRequestsWithJitteredBackoff() throws Exception {
+    YouTubeQuotaLimiter quotaLimiter = createLimiter(100);
+    responses.add(() -> error(429, "rateLimitExceeded"));
+    responses.add(() -> error(429, "rateLimitExceeded"));
+    responses.add(YouTubeQuotaLimiterTest::page);
+
+    List<CommentThreadView> comments = retrieve();
+
+    Assert.assertEquals(1, comments.size());
+    Assert.assertEquals(3, numRequests.get());
+    Assert.assertEquals(2, quotaLimiter.getRetryCount());
+    Assert.assertEquals(3, quotaLimiter.getUnitsConsumed());
+    Assert.assertEquals(2, sleeps.size());
+    // Each wait is below a bound that doubles with every retry
+    Assert.assertTrue(sleeps.toString(), sleeps.get(0) <= INITIAL_BACKOFF_MILLIS);
+    Assert.assertTrue(sleeps.toString(), sleeps.get(1) <= 2 * INITIAL_BACKOFF_MILLIS);
+    Assert.assertFalse(quotaLimiter.isCircuitOpen());
+  }
+
+  @Test
+  public void givesUpAfterMaxRetries() throws Exception {
+    YouTubeQuotaLimiter quotaLimiter = createLimiter(100);
+    responses.add(() -> error(429, "rateLimitExceeded"));
+
+    try {
+      retrieve();
+      Assert.fail("Expected the last 429 to be thrown");
+    } catch (HttpResponseException e) {
+      Assert.assertEquals(429, e.getStatusCode());
+    }
+    Assert.assertEquals(MAX_RETRIES + 1, numRequests.get());
+    Assert.assertEquals(MAX_RETRIES, quotaLimiter.getRetryCount());
+  }
+
+  @Test
+  public void retriesTransportFailures() throws Exception {
+    YouTubeQuotaLimiter quotaLimiter = createLimiter(100);
+    responses.add(YouTubeQuotaLimiterTest::timeout);
+    responses.add(YouTubeQuotaLimiterTest::timeout);
+    responses.add(YouTubeQuotaLimiterTest::page);
+
+    Assert.assertEquals(1, retrieve().size());
+    Assert.assertEquals(3, numRequests.get());
+    Assert.assertEquals(2, quotaLimiter.getRetryCount());
+    Assert.assertFalse(quotaLimiter.isCircuitOpen());
+  }
+
+  @Test
+  public void repeatedTransportFailuresOpenCircuit() throws Exception {
+    YouTubeQuotaLimiter quotaLimiter = createLimiter(100);
+    responses.add(YouTubeQuotaLimiterTest::timeout);
+    for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+      try {
+        retrieve();
+        Assert.fail("Expected the timeout to be thrown");
+      } catch (SocketTimeoutException e) {
+        // Thrown once the retries are used up
+      }
+    }
+    Assert.assertEquals(FAILURE_THRESHOLD * (MAX_RETRIES + 1), numRequests.get());
+    Assert.assertTrue(quotaLimiter.isCircuitOpen());
+  }
+
+  @Test
+  public void doesNotRetryRejectedRequests() throws Exception {
+    YouTubeQuotaLimiter quotaLimiter = createLimiter(100);
+    responses.add(() -> error(403, "commentsDisabled"));
+
+    try {
+      retrieve();
+      Assert.fail("Expected the 403 to be thrown");
+    } catch (HttpResponseException e) {
+      Assert.assertEquals(403, e.getStatusCode());
+    }
+    Assert.assertEquals(1, numRequests.get());
+    Assert.assertFalse(quotaLimiter.isCircuitOpen());
+  }
+
+  @Test
+  public void circuitOpensAfterRepeatedFailuresAndClosesAfterTrial() throws Exception {
+    YouTubeQuotaLimiter quotaLimiter = createLimiter(100);
+    responses.add(() -> error(503, "backendError"));
+    for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+      try {
+        retrieve();
+        Assert.fail("Expected the 503 to be thrown");
+      } catch (HttpResponseException e) {
+        Assert.assertEquals(503, e.getStatusCode());
+      }
+    }
+    Assert.assertTrue(quotaLimiter.isCircuitOpen());
+    int requestsBeforeOpen = numRequests.get();
+
+    try {
+      retrieve();
+      Assert.fail("Expected the open circuit to refuse the call");
+    } catch (YouTubeQuotaException e) {
+      Assert.assertTrue(e.getRetryAfterMillis() > 0);
+    }
+    Assert.assertEquals(requestsBeforeOpen, numRequests.get());
+    Assert.assertEquals(1, quotaLimiter.getRefusedCount());
+
+    // Once the circuit has been open long enough, a successful trial call closes it
+    fakeNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(OPEN_MILLIS));
+    responses.clear();
+    responses.add(YouTubeQuotaLimiterTest::page);
+    Assert.assertEquals(1, retrieve().size());
+    Assert.assertFalse(quotaLimiter.isCircuitOpen());
+  }
+
+  @Test
+  public void quotaExceededOpensCircuitWithoutRetrying() throws Exception {
+    YouTubeQuotaLimiter quotaLimiter = createLimiter(100);
+    responses.add(() -> error(403, "quotaExceeded"));
+
+    try {
+      retrieve();
+      Assert.fail("Expected the exceeded quota to be reported");
+    } catch (YouTubeQuotaException e) {
+      Assert.assertTrue(e.getCause() instanceof HttpResponseException);
+    }
+    Assert.assertEquals(1, numRequests.get());
+    Assert.assertTrue(quotaLimiter.isCircuitOpen());
+  }
+
+  @Test
+  public void bucketRefusesCallsBeyondBudgetUntilRefilled() throws Exception {
+    int dailyUnits = 3;
+    YouTubeQuotaLimiter quotaLimiter = createLimiter(dailyUnits);
+    responses.add(YouTubeQuotaLimiterTest::page);
+    for (int i = 0; i < dailyUnits; i++) {
+      retrieve();
+    }
+    Assert.assertEquals(0, quotaLimiter.getAvailableUnits());
+
+    try {
+      retrieve();
+      Assert.fail("Expected the empty bucket to refuse the call");
+    } catch (YouTubeQuotaException e) {
+      // Refilling one unit takes a third of a day
+      Assert.assertTrue(e.getRetryAfterMillis() > TimeUnit.HOURS.toMillis(7));
+    }
+    Assert.assertEquals(dailyUnits, numRequests.get());
+
+    fakeNanos.addAndGet(TimeUnit.HOURS.toNanos(8));
+    retrieve();
+    Assert.assertEquals(dailyUnits + 1, quotaLimiter.getUnitsConsumed());
+  }
+
+  @Test
+  public void bucketHoldsOnlyBurstOfDailyQuota() throws Exception {
+    int dailyUnits = 24;
+    int burstUnits = 2;
+    YouTubeQuotaLimiter quotaLimiter = createLimiter(dailyUnits, burstUnits);
+    responses.add(YouTubeQuotaLimiterTest::page);
+    Assert.assertEquals(burstUnits, quotaLimiter.getAvailableUnits());
+
+    // A day without calls refills no more than the burst
+    fakeNanos.addAndGet(TimeUnit.DAYS.toNanos(1));
+    Assert.assertEquals(burstUnits, quotaLimiter.getAvailableUnits());
+    for (int i = 0; i < burstUnits; i++) {
+      retrieve();
+    }
+    try {
+      retrieve();
+      Assert.fail("Expected the empty bucket to refuse the call");
+    } catch (YouTubeQuotaException e) {
+      // The daily rate refills one unit an hour
+      Assert.assertTrue(e.getRetryAfterMillis() > TimeUnit.MINUTES.toMillis(59));
+    }
+
+    fakeNanos.addAndGet(TimeUnit.HOURS.toNanos(1));
+    retrieve();
+    Assert.assertEquals(burstUnits + 1, quotaLimiter.getUnitsConsumed());
+  }
+}
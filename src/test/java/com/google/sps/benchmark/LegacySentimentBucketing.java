@@ -0,0 +1,85 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmark;
+
+import com.google.sps.servlets.utils.Range;
+import com.google.sps.servlets.utils.SentimentBucket;
+import com.google.sps.servlets.utils.UserComment;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The sort-based bucketing that Statistics used before SentimentHistogram, kept as a reference for
+ * equivalence tests and benchmarks. Note that it sorts the given list in place.
+ */
+public class LegacySentimentBucketing {
+  private static final BigDecimal SCORE_INTERVAL = BigDecimal.valueOf(0.2);
+  private static final BigDecimal UPPER_SCORE = BigDecimal.valueOf(1.0);
+  private static final BigDecimal LOWER_SCORE = BigDecimal.valueOf(-1.0);
+  private static final Comparator<UserComment> ascendingScoreComparator =
+      (UserComment o1, UserComment o2) -> Double.compare(o1.getScore(), o2.getScore());
+  private static final Comparator<UserComment> descendingMagnitudeComparator =
+      (UserComment o1, UserComment o2) -> Double.compare(o1.getMagnitude(), o2.getMagnitude());
+
+  public static List<SentimentBucket> categorizeToBucketList(
+      List<UserComment> userCommentList, int topNumComments) {
+    List<SentimentBucket> sentimentBucketList = new ArrayList<>();
+    userCommentList.sort(ascendingScoreComparator);
+    int updatingScoreIdx = 0;
+    for (BigDecimal tempPoint = LOWER_SCORE;
+        tempPoint.compareTo(UPPER_SCORE) < 0;
+        tempPoint = tempPoint.add(SCORE_INTERVAL)) {
+      BigDecimal nextPoint = UPPER_SCORE.min(tempPoint.add(SCORE_INTERVAL));
+      Range currentRange = new Range(tempPoint, nextPoint);
+      int currentFrequency = 0;
+      PriorityQueue<UserComment> descendingCommentMagnitudeQueue =
+          new PriorityQueue<>(topNumComments, descendingMagnitudeComparator);
+      for (; updatingScoreIdx < userCommentList.size(); updatingScoreIdx++) {
+        BigDecimal scorePoint =
+            BigDecimal.valueOf(userCommentList.get(updatingScoreIdx).getScore());
+        if ((scorePoint.compareTo(nextPoint) < 0) || nextPoint.compareTo(UPPER_SCORE) == 0) {
+          currentFrequency += 1;
+          addToFixedQueue(
+              userCommentList.get(updatingScoreIdx),
+              descendingCommentMagnitudeQueue,
+              topNumComments);
+        } else {
+          break;
+        }
+      }
+      ArrayList<UserComment> topComments = new ArrayList<>();
+      while (!descendingCommentMagnitudeQueue.isEmpty()) {
+        topComments.add(descendingCommentMagnitudeQueue.poll());
+      }
+      sentimentBucketList.add(new SentimentBucket(topComments, currentFrequency, currentRange));
+    }
+    return sentimentBucketList;
+  }
+
+  private static void addToFixedQueue(
+      UserComment newComment, PriorityQueue<UserComment> currentQueue, int maxQueueSize) {
+    UserComment commentToAdd = newComment;
+    if (currentQueue.size() == maxQueueSize) {
+      commentToAdd = currentQueue.poll();
+      if (newComment.getMagnitude() >= commentToAdd.getMagnitude()) {
+        commentToAdd = newComment;
+      }
+    }
+    currentQueue.add(commentToAdd);
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmark;
+
+import com.google.sps.servlets.utils.SentimentBucket;
+import com.google.sps.servlets.utils.SentimentHistogram;
+import com.google.sps.servlets.utils.UserComment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Time to bucket synthetic comments with the legacy sort-based implementation and with the
+ * single-pass SentimentHistogram.
+ *
+ * <p>Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ * "-Dexec.args=-cp %classpath com.google.sps.benchmark.SentimentBucketingBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SentimentBucketingBenchmark {
+  private static final int TOP_N_COMMENTS = 3;
+
+  @Param({"10000", "100000", "1000000"})
+  public int numComments;
+
+  private List<UserComment> comments;
+
+  @Setup
+  public void setUp() {
+    comments = createComments(numComments, new Random(42));
+  }
+
+  /**
+   * Create comments with float scores and magnitudes, as returned by the Natural Language API.
+   *
+   * @param numComments number of comments to create
+   * @param random source of the sentiment values
+   * @return list of scored userComments
+   */
+  public static List<UserComment> createComments(int numComments, Random random) {
+    List<UserComment> comments = new ArrayList<>(numComments);
+    for (int i = 0; i < numComments; i++) {
+      float score = Math.round((random.nextFloat() * 2 - 1) * 100) / 100f;
+      float magnitude = random.nextFloat() * 5;
+      comments.add(new UserComment(String.valueOf(i), "comment " + i, null, score, magnitude));
+    }
+    return comments;
+  }
+
+  @Benchmark
+  public List<SentimentBucket> legacySortAndQueue() {
+    // The legacy implementation sorts in place, so it gets a fresh copy each time
+    return LegacySentimentBucketing.categorizeToBucketList(
+        new ArrayList<>(comments), TOP_N_COMMENTS);
+  }
+
+  @Benchmark
+  public List<SentimentBucket> singlePassHistogram() {
+    // Copied as well, so that both variants pay for the same allocation
+    List<UserComment> commentsCopy = new ArrayList<>(comments);
+    SentimentHistogram sentimentHistogram = new SentimentHistogram(TOP_N_COMMENTS);
+    commentsCopy.forEach(sentimentHistogram::add);
+    return sentimentHistogram.toBucketList();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder().include(SentimentBucketingBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
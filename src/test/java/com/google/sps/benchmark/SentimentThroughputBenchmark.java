@@ -0,0 +1,141 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmark;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.util.DateTime;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.sps.servlets.utils.BatchSentimentAnalyzer;
+import com.google.sps.servlets.utils.InMemorySentimentCache;
+import com.google.sps.servlets.utils.SentimentService;
+import com.google.sps.servlets.utils.UserComment;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of scoring one request's comments when every sentiment call blocks for a fixed
+ * latency, comparing the common ForkJoinPool with the dedicated sentiment executor. Several
+ * benchmark threads run at once to model concurrent requests competing for threads.
+ *
+ * <p>Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ * "-Dexec.args=-cp %classpath com.google.sps.benchmark.SentimentThroughputBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(4)
+@Fork(1)
+public class SentimentThroughputBenchmark {
+  private static final long RPC_LATENCY_MILLIS = 20L;
+  private static final int COMMENTS_PER_REQUEST = 40;
+
+  @Param({"32"})
+  public int maxConcurrentRequests;
+
+  private SentimentService sentimentService;
+
+  @Setup
+  public void setUp() {
+    LanguageServiceClient mockedLanguageService = mock(LanguageServiceClient.class);
+    AnalyzeSentimentResponse response =
+        AnalyzeSentimentResponse.newBuilder()
+            .setDocumentSentiment(Sentiment.newBuilder().setScore(0.5f).setMagnitude(1f))
+            .build();
+    when(mockedLanguageService.analyzeSentiment(any(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(RPC_LATENCY_MILLIS);
+              return response;
+            });
+    sentimentService =
+        new SentimentService(
+            mockedLanguageService, new InMemorySentimentCache(), maxConcurrentRequests);
+  }
+
+  @TearDown
+  public void tearDown() {
+    sentimentService.close();
+  }
+
+  private static List<UserComment> createRequestComments() {
+    List<UserComment> comments = new ArrayList<>();
+    for (int i = 0; i < COMMENTS_PER_REQUEST; i++) {
+      comments.add(
+          new UserComment(String.valueOf(i), "comment " + i, new DateTime(new Date()), 0, 0));
+    }
+    return comments;
+  }
+
+  /** Previous behavior: blocking calls issued from a parallel stream on the common pool. */
+  @Benchmark
+  public List<UserComment> commonForkJoinPool() {
+    List<UserComment> comments = createRequestComments();
+    comments.parallelStream()
+        .forEach(
+            comment ->
+                comment.setSentiment(
+                    sentimentService
+                        .analyzeSentiment(
+                            Document.newBuilder()
+                                .setContent(comment.getCommentMsg())
+                                .setType(Document.Type.PLAIN_TEXT)
+                                .build())
+                        .getDocumentSentiment()));
+    return comments;
+  }
+
+  /** Blocking calls issued as futures on the sentiment service's executor. */
+  @Benchmark
+  public List<UserComment> dedicatedExecutor() {
+    List<UserComment> comments = createRequestComments();
+    // A one byte budget sends every comment on its own, as the common pool variant does
+    new BatchSentimentAnalyzer(sentimentService, 1).analyze(comments);
+    return comments;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(SentimentThroughputBenchmark.class.getSimpleName())
+                .build())
+        .run();
+  }
+}
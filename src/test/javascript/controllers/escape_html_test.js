@@ -0,0 +1,29 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the 'License');
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an 'AS IS' BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+describe('Escaping comment text for HTML tooltips', function() {
+  it('escapes markup so that it is displayed instead of run.', function() {
+    expect(escapeHtml('<img src=x onerror="alert(1)">'))
+        .toBe('&lt;img src=x onerror=&quot;alert(1)&quot;&gt;');
+  });
+
+  it('escapes ampersands and quotes.', function() {
+    expect(escapeHtml('Tom & Jerry\'s')).toBe('Tom &amp; Jerry&#39;s');
+  });
+
+  it('leaves plain text unchanged.', function() {
+    expect(escapeHtml('great video')).toBe('great video');
+  });
+});